@@ -34,10 +34,12 @@ import net.refractions.chyf.datatools.writer.ChyfShapeDataSourceDistance2DWriter
 public class ChyfDistance2Water2DProcessor {
 
 	/**
-	 * Takes three parameters
+	 * Takes three to five parameters
 	 * 1 - input dataset
 	 * 2 - Working EPSG Code
 	 * 3 - output dataset file name
+	 * 4 - (optional) the distance method; vector (default) or transform
+	 * 5 - (optional) number of threads used to process catchments
 	 * 
 	 * Supports either geopackage or shapefile input datasets 
 	 * 
@@ -45,7 +47,7 @@ public class ChyfDistance2Water2DProcessor {
 	 * @throws Exception
 	 */
 	public static void main(String[] args) throws Exception{
-		if (args.length != 3) {
+		if (args.length < 3 || args.length > 5) {
 			printUsage();
 			return;
 		}
@@ -53,6 +55,29 @@ public class ChyfDistance2Water2DProcessor {
 		String sepsg = args[0];
 		String sinput = args[1];
 		String sout = args[2];
+		boolean useTransform = false;
+		if (args.length >= 4) {
+			if (args[3].equalsIgnoreCase("transform")) {
+				useTransform = true;
+			}else if (!args[3].equalsIgnoreCase("vector")) {
+				System.out.println("Invalid distance method: " + args[3]);
+				printUsage();
+				return;
+			}
+		}
+		int workers = 1;
+		if (args.length == 5) {
+			try {
+				workers = Integer.parseInt(args[4]);
+			}catch (NumberFormatException ex) {
+				workers = 0;
+			}
+			if (workers < 1) {
+				System.out.println("Number of threads must be a positive integer.");
+				printUsage();
+				return;
+			}
+		}
 		
 		//for shapefiles we want the parent directory
 		Path infile = Paths.get(sinput);
@@ -68,7 +93,7 @@ public class ChyfDistance2Water2DProcessor {
 				}
 			};
 			
-			(new ChyfDistance2Water2DProcessor()).compute(infile.toString(), sout, sepsg, progressPrinter);
+			(new ChyfDistance2Water2DProcessor()).compute(infile.toString(), sout, sepsg, progressPrinter, useTransform, workers);
 		}catch (Exception ex) {
 			ex.printStackTrace();
 			System.out.println(ex.getMessage());
@@ -77,6 +102,7 @@ public class ChyfDistance2Water2DProcessor {
 	};
 	
 	/**
+	 * Computes the distances sequentially using the vector method.
 	 * 
 	 * @param sinFile  Either a geopackage file or a directory containing dataset shapefiles
 	 * @param soutFile Either a geopackage file or a path to shapefile
@@ -84,6 +110,19 @@ public class ChyfDistance2Water2DProcessor {
 	 * @throws Exception
 	 */
 	public void compute(String sinFile, String soutFile, String srid, ProgressMonitor monitor) throws Exception{
+		compute(sinFile, soutFile, srid, monitor, false, 1);
+	}
+	
+	/**
+	 * 
+	 * @param sinFile  Either a geopackage file or a directory containing dataset shapefiles
+	 * @param soutFile Either a geopackage file or a path to shapefile
+	 * @param srid
+	 * @param useTransform if true distances are computed with a distance transform 
+	 * @param workers the number of threads used to process catchments
+	 * @throws Exception
+	 */
+	public void compute(String sinFile, String soutFile, String srid, ProgressMonitor monitor, boolean useTransform, int workers) throws Exception{
 		Path input = Paths.get(sinFile);
 		Path outFile = Paths.get(soutFile);
 		
@@ -106,7 +145,7 @@ public class ChyfDistance2Water2DProcessor {
 					throw new Exception("Output file exists - cannot overwrite.");
 				}
 				
-				Distance2DResult results = run(dataSource, workingCRS, monitor);
+				Distance2DResult results = run(dataSource, workingCRS, monitor, useTransform, workers);
 				
 				if (results != null) {
 					ChyfShapeDataSourceDistance2DWriter writer = new ChyfShapeDataSourceDistance2DWriter(dataSource, outFile);
@@ -124,7 +163,7 @@ public class ChyfDistance2Water2DProcessor {
 				if (Files.exists(outFile)) {
 					throw new Exception("Output file exists - cannot overwrite.");
 				}
-				Distance2DResult results = run(dataSource, workingCRS, monitor);
+				Distance2DResult results = run(dataSource, workingCRS, monitor, useTransform, workers);
 				
 				if (results != null) {
 					ChyfGeoPackageDataSourceDistance2DWriter writer = new ChyfGeoPackageDataSourceDistance2DWriter((ChyfGeoPackageDataSource) dataSource, outFile);
@@ -136,8 +175,10 @@ public class ChyfDistance2Water2DProcessor {
 		}
 	}
 	
-	private static Distance2DResult run(ChyfDataSource dataSource, CoordinateReferenceSystem crs, ProgressMonitor monitor) throws Exception{
+	private static Distance2DResult run(ChyfDataSource dataSource, CoordinateReferenceSystem crs, ProgressMonitor monitor, boolean useTransform, int workers) throws Exception{
 		Distance2DProcessor engine = new Distance2DProcessor(dataSource, crs);
+		engine.setUseDistanceTransform(useTransform);
+		engine.setWorkers(workers);
 //		engine.setCellSize(100);
 		engine.doWork(monitor);
 		return engine.getResults();		
@@ -145,9 +186,11 @@ public class ChyfDistance2Water2DProcessor {
 	
 	private static void printUsage() {
 		System.out.println("Usage:");
-		System.out.println("ChyfDistance2DDataProcessor  [srid] [input] [output]");
+		System.out.println("ChyfDistance2DDataProcessor  [srid] [input] [output] [method] [threads]");
 		System.out.println("[srid] - the equal area projection valid for the input dataset to compute distances in (eg EPSG:3978)");
 		System.out.println("[input] - the input dataset (must be either the Catchment.shp file OR a geopackage file).  If providing Catchment.shp file, the Waterbody.shp and Flowpath.shp files must exist in the same directory.");
 		System.out.println("[output] - the output location (either a shapefile or a geopackage file)");
+		System.out.println("[method] - (optional) vector to measure the distance from each cell to each water edge (default) or transform to use a euclidean distance transform of the water edges (faster for large catchments)");
+		System.out.println("[threads] - (optional) the number of threads used to process catchments; defaults to 1 (sequential)");
 	}
 }
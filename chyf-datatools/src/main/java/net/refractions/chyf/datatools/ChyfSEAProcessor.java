@@ -32,10 +32,11 @@ import net.refractions.chyf.datatools.writer.ChyfShapeDataSourceSEAWriter;
 public class ChyfSEAProcessor {
 
 	/**
-	 * Takes three parameters
+	 * Takes three or four parameters
 	 * 1 - input dataset
 	 * 2 - input dem
 	 * 3 - output dataset file name
+	 * 4 - (optional) number of threads used to process the dem tiles
 	 * 
 	 * Supports either geopackage or shapefile input datasets 
 	 * 
@@ -46,7 +47,7 @@ public class ChyfSEAProcessor {
 		//Path dem = Paths.get("C:\\data\\CHyF\\data\\Richelieu_DEM_3978.tiled.tif");
 		//String datasource ="C:\\data\\CHyF\\github\\chyf-pilot\\data\\quebec\\";
 		
-		if (args.length != 3) {
+		if (args.length != 3 && args.length != 4) {
 			printUsage();
 			return;
 		}
@@ -54,6 +55,19 @@ public class ChyfSEAProcessor {
 		String sinput = args[0];
 		String sdem = args[1];
 		String sout = args[2];
+		int workers = 1;
+		if (args.length == 4) {
+			try {
+				workers = Integer.parseInt(args[3]);
+			}catch (NumberFormatException ex) {
+				workers = 0;
+			}
+			if (workers < 1) {
+				System.out.println("Number of threads must be a positive integer.");
+				printUsage();
+				return;
+			}
+		}
 		
 		Path dem = Paths.get(sdem);
 		if (!Files.exists(dem)) {
@@ -74,7 +88,7 @@ public class ChyfSEAProcessor {
 				}
 			};
 			
-			(new ChyfSEAProcessor()).compute(infile.toString(), sdem, sout, progressPrinter);
+			(new ChyfSEAProcessor()).compute(infile.toString(), sdem, sout, progressPrinter, workers);
 		}catch (Exception ex) {
 			ex.printStackTrace();
 			System.out.println(ex.getMessage());
@@ -84,6 +98,7 @@ public class ChyfSEAProcessor {
 	}
 	
 	/**
+	 * Processes the dem tiles sequentially.
 	 * 
 	 * @param sinFile  Either a geopackage file or a directory containing dataset shapefiles
 	 * @param soutFile Either a geopackage file or a path to shapefile
@@ -91,6 +106,18 @@ public class ChyfSEAProcessor {
 	 * @throws Exception
 	 */
 	public void compute(String sinFile, String sDemFile, String soutFile, ProgressMonitor monitor) throws Exception{
+		compute(sinFile, sDemFile, soutFile, monitor, 1);
+	}
+	
+	/**
+	 * 
+	 * @param sinFile  Either a geopackage file or a directory containing dataset shapefiles
+	 * @param soutFile Either a geopackage file or a path to shapefile
+	 * @param monitor
+	 * @param workers the number of threads used to process the dem tiles
+	 * @throws Exception
+	 */
+	public void compute(String sinFile, String sDemFile, String soutFile, ProgressMonitor monitor, int workers) throws Exception{
 		Path input = Paths.get(sinFile);
 		Path outFile = Paths.get(soutFile);
 		Path demFile = Paths.get(sDemFile);
@@ -110,7 +137,7 @@ public class ChyfSEAProcessor {
 					throw new Exception("Output file exists - cannot overwrite.");
 				}
 				
-				SEAResult results = run(dataSource, demFile, monitor);
+				SEAResult results = run(dataSource, demFile, monitor, workers);
 				
 				if (results != null) {
 					ChyfShapeDataSourceSEAWriter writer = new ChyfShapeDataSourceSEAWriter(dataSource, outFile);
@@ -128,7 +155,7 @@ public class ChyfSEAProcessor {
 				if (Files.exists(outFile)) {
 					throw new Exception("Output file exists - cannot overwrite.");
 				}
-				SEAResult results = run(dataSource, demFile, monitor);
+				SEAResult results = run(dataSource, demFile, monitor, workers);
 				
 				if (results != null) {
 					ChyfGeoPackageDataSourceSEAWriter writer = new ChyfGeoPackageDataSourceSEAWriter((ChyfGeoPackageDataSource) dataSource, outFile);
@@ -140,10 +167,11 @@ public class ChyfSEAProcessor {
 		}
 	}
 	
-	private static SEAResult run(ChyfDataSource dataSource, Path dem,  ProgressMonitor monitor) throws Exception{
+	private static SEAResult run(ChyfDataSource dataSource, Path dem,  ProgressMonitor monitor, int workers) throws Exception{
 		SEAResult results = null;
 		try(GeoTiffDemReader demReader = new GeoTiffDemReader(dem)){
 			SEAProcessor engine = new SEAProcessor(dataSource, demReader);
+			engine.setWorkers(workers);
 			results = engine.doWork(monitor);
 			return results;
 		}
@@ -151,9 +179,10 @@ public class ChyfSEAProcessor {
 	
 	private static void printUsage() {
 		System.out.println("Usage:");
-		System.out.println("ChyfSEADataProcessor [input] [dem] [output]");
+		System.out.println("ChyfSEADataProcessor [input] [dem] [output] [threads]");
 		System.out.println("[input] - the input dataset (must be either the Catchment.shp shapefile OR a geopackage file)");
 		System.out.println("[dem] - the tiled DEM in geotiff format.  Must be in a projection that maintains area and aspect");
 		System.out.println("[output] - the output location (either a shapefile or a geopackage file)");
+		System.out.println("[threads] - (optional) the number of threads used to process the dem; defaults to 1 (sequential)");
 	}
 }
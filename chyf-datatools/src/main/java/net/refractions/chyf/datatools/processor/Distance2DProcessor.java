@@ -15,12 +15,18 @@
  */
 package net.refractions.chyf.datatools.processor;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.geotools.data.simple.SimpleFeatureReader;
 import org.geotools.geometry.jts.ReferencedEnvelope;
 import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.CoordinateSequence;
 import org.locationtech.jts.geom.Envelope;
 import org.locationtech.jts.geom.Geometry;
 import org.locationtech.jts.geom.GeometryFactory;
@@ -30,6 +36,7 @@ import org.locationtech.jts.geom.MultiPolygon;
 import org.locationtech.jts.geom.Point;
 import org.locationtech.jts.geom.Polygon;
 import org.locationtech.jts.geom.prep.PreparedPolygon;
+import org.locationtech.jts.index.strtree.STRtree;
 import org.locationtech.jts.operation.distance.DistanceOp;
 import org.opengis.feature.simple.SimpleFeature;
 import org.opengis.referencing.crs.CoordinateReferenceSystem;
@@ -45,6 +52,8 @@ import net.refractions.chyf.datatools.readers.ChyfDataSource;
 public class Distance2DProcessor {
 
 	private int cellSize = 1;
+	private boolean useDistanceTransform = false;
+	private int workers = 1;
 	
 	private CoordinateReferenceSystem toWork;
 	private GeometryFactory gf = new GeometryFactory();
@@ -70,94 +79,173 @@ public class Distance2DProcessor {
 		this.cellSize = cellSize;
 	}
 	
+	/**
+	 * If true distances are computed for all grid cells of a catchment 
+	 * with a euclidean distance transform of the water edges instead of 
+	 * measuring the distance from each cell to each water edge.  Default is false.
+	 * 
+	 * @param useDistanceTransform
+	 */
+	public void setUseDistanceTransform(boolean useDistanceTransform) {
+		this.useDistanceTransform = useDistanceTransform;
+	}
+	
+	/**
+	 * Sets the number of threads used to process catchments.  If more 
+	 * than one, all waterbodies and flowpaths are loaded into memory 
+	 * once and shared between the threads instead of being queried 
+	 * from the data source for each catchment.  Default is 1.
+	 * 
+	 * @param workers
+	 */
+	public void setWorkers(int workers) {
+		if (workers < 1) throw new IllegalArgumentException("The number of workers must be at least 1");
+		this.workers = workers;
+	}
+	
 	public void doWork(ProgressMonitor progressMonitor) throws Exception {
 		distanceToWater = new Distance2DResult();
-				
-		//lets make a 1m grid out of this
-		int total = 0;
-		try(SimpleFeatureReader reader = dataSource.getECatchments(null)){
-			while(reader.hasNext()) { reader.next(); total++;}
+		progressMonitor.setTaskLength(dataSource.getECatchmentCount());
+		
+		if (workers == 1) {
+			try(SimpleFeatureReader reader = dataSource.getECatchments(null)){
+				while(reader.hasNext()) {
+					progressMonitor.worked(1);
+					processCatchment(reader.next(), null, null);
+				}
+			}
+			return;
 		}
-		progressMonitor.setTaskLength(total);
 		
+		STRtree waterbodies = loadIndex(dataSource.getWaterbodies(null));
+		STRtree flowpaths = loadIndex(dataSource.getFlowpaths(null));
+		
+		//catchments are read as workers become free so only a few 
+		//are held in memory at once
+		int maxPending = workers * 2;
+		Semaphore pending = new Semaphore(maxPending);
+		AtomicReference<Throwable> failure = new AtomicReference<>();
+		ExecutorService pool = Executors.newFixedThreadPool(workers);
 		try(SimpleFeatureReader reader = dataSource.getECatchments(null)){
+			while(reader.hasNext() && failure.get() == null) {
+				SimpleFeature sf = reader.next();
+				pending.acquire();
+				pool.execute(()->{
+					try {
+						processCatchment(sf, waterbodies, flowpaths);
+						progressMonitor.worked(1);
+					}catch (Throwable t) {
+						failure.compareAndSet(null, t);
+					}finally {
+						pending.release();
+					}
+				});
+			}
+			//wait for the remaining catchments
+			pending.acquire(maxPending);
+		}finally {
+			pool.shutdownNow();
+		}
+		Throwable t = failure.get();
+		if (t instanceof Exception) throw (Exception)t;
+		if (t instanceof Error) throw (Error)t;
+	}
+	
+	private STRtree loadIndex(SimpleFeatureReader reader) throws IOException {
+		STRtree index = new STRtree();
+		try {
 			while(reader.hasNext()) {
-				
-				progressMonitor.worked(1);
-				
 				SimpleFeature sf = reader.next();
-				
-				Geometry g = (Geometry) sf.getDefaultGeometry();
-				Polygon p = null;
-				if (g instanceof Polygon) {
-					p = (Polygon)g;
-				}else if (g instanceof MultiPolygon && (((MultiPolygon)g).getNumGeometries() == 1)) {
-					p = (Polygon) ((MultiPolygon)g).getGeometryN(0);
-				}else {
-					throw new IllegalStateException("Geometry of type " + g.getClass().toString() + " is not supported for ecatchment.");
-				}
-				
-				boolean process = true;
-				List<LineString> waterEdges = new ArrayList<>();
-				
-				try(SimpleFeatureReader wbReader = dataSource.getWaterbodies( new ReferencedEnvelope(p.getEnvelopeInternal(), sf.getType().getCoordinateReferenceSystem()))){
-					while(wbReader.hasNext()) {
-						SimpleFeature sb = wbReader.next();
-						Geometry wbGeom = (Geometry) sb.getDefaultGeometry();
-					
-						IntersectionMatrix matrix = p.relate(wbGeom);
-						if(matrix.isEquals(3,3)) {
-							//overlaps entirely - this is distance to water = 0
-							distanceToWater.addResult(sf.getID(), 0.0, 0.0);
-							process = false;
-							break;
-						}else if (matrix.matches("****1****")){
-							//boundary intersection is line - get these lines as water edge
-							Geometry intersection = p.intersection(wbGeom);
-							for (int i = 0; i < intersection.getNumGeometries(); i ++) {
-								if (intersection.getGeometryN(i) instanceof LineString) {
-									LineString ls = (LineString)(intersection.getGeometryN(i));
-									waterEdges.add(ReprojectionUtils.reproject(ls, sb.getType().getCoordinateReferenceSystem(), toWork));
-								}
-							}
-						}
+				index.insert(((Geometry)sf.getDefaultGeometry()).getEnvelopeInternal(), sf);
+			}
+		}finally {
+			reader.close();
+		}
+		index.build();
+		return index;
+	}
+	
+	/**
+	 * Finds the features that intersect the bounds using the in memory index if
+	 * provided, otherwise querying the data source.
+	 */
+	private List<SimpleFeature> getFeatures(ReferencedEnvelope bounds, STRtree index, boolean waterbodies) throws IOException{
+		List<SimpleFeature> features = new ArrayList<>();
+		if (index != null) {
+			for (Object item : index.query(bounds)) {
+				features.add((SimpleFeature)item);
+			}
+			return features;
+		}
+		try(SimpleFeatureReader reader = waterbodies ? dataSource.getWaterbodies(bounds) : dataSource.getFlowpaths(bounds)){
+			while(reader.hasNext()) features.add(reader.next());
+		}
+		return features;
+	}
+	
+	private void processCatchment(SimpleFeature sf, STRtree waterbodies, STRtree flowpaths) throws IOException {
+		Geometry g = (Geometry) sf.getDefaultGeometry();
+		Polygon p = null;
+		if (g instanceof Polygon) {
+			p = (Polygon)g;
+		}else if (g instanceof MultiPolygon && (((MultiPolygon)g).getNumGeometries() == 1)) {
+			p = (Polygon) ((MultiPolygon)g).getGeometryN(0);
+		}else {
+			throw new IllegalStateException("Geometry of type " + g.getClass().toString() + " is not supported for ecatchment.");
+		}
+		
+		List<LineString> waterEdges = new ArrayList<>();
+		ReferencedEnvelope bounds = new ReferencedEnvelope(p.getEnvelopeInternal(), sf.getType().getCoordinateReferenceSystem());
+		
+		for (SimpleFeature sb : getFeatures(bounds, waterbodies, true)) {
+			Geometry wbGeom = (Geometry) sb.getDefaultGeometry();
+		
+			IntersectionMatrix matrix = p.relate(wbGeom);
+			if(matrix.isEquals(3,3)) {
+				//overlaps entirely - this is distance to water = 0
+				distanceToWater.addResult(sf.getID(), 0.0, 0.0);
+				return;
+			}else if (matrix.matches("****1****")){
+				//boundary intersection is line - get these lines as water edge
+				Geometry intersection = p.intersection(wbGeom);
+				for (int i = 0; i < intersection.getNumGeometries(); i ++) {
+					if (intersection.getGeometryN(i) instanceof LineString) {
+						LineString ls = (LineString)(intersection.getGeometryN(i));
+						waterEdges.add(ReprojectionUtils.reproject(ls, sb.getType().getCoordinateReferenceSystem(), toWork));
 					}
 				}
-				if (!process) continue;
-				
-				//add flowpaths to list of edges
-				try(SimpleFeatureReader fpReader = dataSource.getFlowpaths( new ReferencedEnvelope(p.getEnvelopeInternal(), sf.getType().getCoordinateReferenceSystem()))){
-					while(fpReader.hasNext()) {
-						SimpleFeature sb = fpReader.next();
-						Geometry fpGeom = (Geometry) sb.getDefaultGeometry();
-						if (p.relate(fpGeom, "1********")){
-							for (int i = 0; i < fpGeom.getNumGeometries(); i ++) {
-								if (fpGeom.getGeometryN(i) instanceof LineString) {
-									LineString ls = (LineString)(fpGeom.getGeometryN(i));
-									waterEdges.add(ReprojectionUtils.reproject(ls, sb.getType().getCoordinateReferenceSystem(), toWork));
-								}
-							}
-						}
+			}
+		}
+		
+		//add flowpaths to list of edges
+		for (SimpleFeature sb : getFeatures(bounds, flowpaths, false)) {
+			Geometry fpGeom = (Geometry) sb.getDefaultGeometry();
+			if (p.relate(fpGeom, "1********")){
+				for (int i = 0; i < fpGeom.getNumGeometries(); i ++) {
+					if (fpGeom.getGeometryN(i) instanceof LineString) {
+						LineString ls = (LineString)(fpGeom.getGeometryN(i));
+						waterEdges.add(ReprojectionUtils.reproject(ls, sb.getType().getCoordinateReferenceSystem(), toWork));
 					}
 				}
-				
-				if (waterEdges.isEmpty()) {
-					System.out.println("ERROR: NO WATER EDGES IN CATCHMENT");
-					continue;
-				}
-				
-				//reproject
-				p = ReprojectionUtils.reproject(p, sf.getType().getCoordinateReferenceSystem(), toWork);
-
-				//need to get all water edges that bound or reside in the polygon
-				double[] value = processFeature(p, waterEdges);
-				distanceToWater.addResult(sf.getID(), value[0], value[1]);
 			}
 		}
 		
+		if (waterEdges.isEmpty()) {
+			System.out.println("ERROR: NO WATER EDGES IN CATCHMENT");
+			return;
+		}
 		
+		//reproject
+		p = ReprojectionUtils.reproject(p, sf.getType().getCoordinateReferenceSystem(), toWork);
+
+		//need to get all water edges that bound or reside in the polygon
+		double[] value = processFeature(p, waterEdges);
+		distanceToWater.addResult(sf.getID(), value[0], value[1]);
 	}
+	
 	private double[] processFeature(Polygon polygon, List<LineString> waterEdges) {
+		if (useDistanceTransform) return processFeatureTransform(polygon, waterEdges);
+		
 		Envelope env = polygon.getEnvelopeInternal();
 		
 		int size = cellSize;
@@ -199,4 +287,54 @@ public class Distance2DProcessor {
 		if (count == 0) return new double[] {Double.NaN, Double.NaN};
 		return new double[] {distanceSum / count, maxDistance};
 	}
+	
+	/**
+	 * Computes the same grid as processFeature, using a distance transform
+	 * to compute the distance for all cells at once.
+	 */
+	private double[] processFeatureTransform(Polygon polygon, List<LineString> waterEdges) {
+		Envelope env = polygon.getEnvelopeInternal();
+		
+		int size = cellSize;
+		
+		int startx = (int)Math.floor( env.getMinX() / size ) * size;
+		int starty = (int)Math.floor( env.getMinY() / size ) * size;
+		
+		int endx = (int)Math.ceil( env.getMaxX() /size ) * size;
+		int endy = (int)Math.ceil( env.getMaxY() /size) * size;
+		
+		int width = (endx - startx) / size + 1;
+		int height = (endy - starty) / size + 1;
+		
+		DistanceTransform transform = new DistanceTransform(width, height, startx, starty, size);
+		for (LineString ls : waterEdges) {
+			CoordinateSequence cs = ls.getCoordinateSequence();
+			for (int i = 1; i < cs.size(); i ++) {
+				transform.addSegment(cs.getX(i-1), cs.getY(i-1), cs.getX(i), cs.getY(i));
+			}
+		}
+		transform.compute();
+		
+		//cells are centered on the grid points
+		PolygonRasterizer inside = new PolygonRasterizer(width, height, startx - size / 2.0, starty - size / 2.0, size, size);
+		inside.fill(polygon, 1);
+		int[] mask = inside.getMask();
+		
+		double distanceSum = 0;
+		double maxDistance = Double.NaN;
+		int count = 0;
+		for (int y = 0; y < height; y ++) {
+			for (int x = 0; x < width; x ++) {
+				if (mask[y * width + x] == 0) continue;
+				double d = transform.getDistance(x, y);
+				if (d == Double.POSITIVE_INFINITY) continue;
+				
+				distanceSum += d;
+				count ++;
+				if (Double.isNaN(maxDistance) || d > maxDistance) maxDistance = d;
+			}
+		}
+		if (count == 0) return new double[] {Double.NaN, Double.NaN};
+		return new double[] {distanceSum / count, maxDistance};
+	}
 }
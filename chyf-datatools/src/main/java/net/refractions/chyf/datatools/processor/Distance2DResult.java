@@ -15,19 +15,21 @@
  */
 package net.refractions.chyf.datatools.processor;
 
-import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
- * Stores the results of the distance 2d processing
+ * Stores the results of the distance 2d processing.  Results
+ * can be added from multiple threads.
  * @author Emily
  *
  */
 public class Distance2DResult {
 
-	private HashMap<String, Statistics> results;
+	private Map<String, Statistics> results;
 	
 	public Distance2DResult() {
-		results = new HashMap<>();
+		results = new ConcurrentHashMap<>();
 	}
 	
 	public void addResult(String fid, double mean, double max) {
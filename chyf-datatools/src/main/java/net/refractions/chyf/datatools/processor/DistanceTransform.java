@@ -0,0 +1,226 @@
+/*
+ * Copyright 2019 Government of Canada
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.refractions.chyf.datatools.processor;
+
+import java.util.Arrays;
+
+/**
+ * Computes the distance from every node of a regular grid to a set of
+ * line segments.
+ * 
+ * The segments are burnt into the grid and the Felzenszwalb and Huttenlocher
+ * exact euclidean distance transform is used to find the nearest burnt node for 
+ * every grid node in time linear in the number of nodes.  The distance reported for 
+ * a node is the exact distance to the segment that was burnt into its nearest 
+ * burnt node.
+ *
+ * Node (x,y) is located at (xmin + x * cellSize, ymin + y * cellSize).
+ *
+ * http://cs.brown.edu/people/pfelzens/papers/dt-final.pdf
+ */
+public class DistanceTransform {
+
+	//squared distance (in cells) used for nodes that are not burnt; large enough to
+	//never be selected but small enough to not overflow when combined with grid distances
+	private static final double FAR = 1e20;
+
+	private int width;
+	private int height;
+	private double xmin;
+	private double ymin;
+	private double cellSize;
+
+	//the segment burnt into each node, or -1
+	private int[] feature;
+	private double[] segments = new double[64];
+	private int segmentCnt = 0;
+	
+	private double[] distance;
+
+	/**
+	 *
+	 * @param width number of nodes in the x direction
+	 * @param height number of nodes in the y direction
+	 * @param xmin x of the first node
+	 * @param ymin y of the first node
+	 * @param cellSize distance between nodes
+	 */
+	public DistanceTransform(int width, int height, double xmin, double ymin, double cellSize) {
+		if ((long)width * height > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("Distance transform grid of " + width + " x " + height + " is too large.  Use a larger cell size.");
+		}
+		this.width = width;
+		this.height = height;
+		this.xmin = xmin;
+		this.ymin = ymin;
+		this.cellSize = cellSize;
+		this.feature = new int[width * height];
+		Arrays.fill(feature, -1);
+	}
+
+	/**
+	 * Burns the segment into the grid nodes nearest to it.
+	 */
+	public void addSegment(double x1, double y1, double x2, double y2) {
+		if (segmentCnt * 4 == segments.length) {
+			segments = Arrays.copyOf(segments, segments.length * 2);
+		}
+		int segment = segmentCnt++;
+		
+		//work in cell units
+		double ax = (x1 - xmin) / cellSize;
+		double ay = (y1 - ymin) / cellSize;
+		double bx = (x2 - xmin) / cellSize;
+		double by = (y2 - ymin) / cellSize;
+		segments[segment * 4] = ax;
+		segments[segment * 4 + 1] = ay;
+		segments[segment * 4 + 2] = bx;
+		segments[segment * 4 + 3] = by;
+
+		//walk the segment in half cell steps burning the node nearest each step
+		double length = Math.sqrt((bx - ax) * (bx - ax) + (by - ay) * (by - ay));
+		int steps = Math.max(1, (int)Math.ceil(length * 2));
+		for (int s = 0; s <= steps; s ++) {
+			double t = s / (double)steps;
+			int x = (int)Math.round(ax + (bx - ax) * t);
+			int y = (int)Math.round(ay + (by - ay) * t);
+			if (x < 0 || y < 0 || x >= width || y >= height) continue;
+			
+			int index = y * width + x;
+			//keep the closest segment if more than one crosses this node
+			if (feature[index] == -1 || segmentDistanceSquared(x, y, segment) < segmentDistanceSquared(x, y, feature[index])) {
+				feature[index] = segment;
+			}
+		}
+	}
+
+	private double segmentDistanceSquared(double px, double py, int segment) {
+		double ax = segments[segment * 4];
+		double ay = segments[segment * 4 + 1];
+		double dx = segments[segment * 4 + 2] - ax;
+		double dy = segments[segment * 4 + 3] - ay;
+		double len2 = dx * dx + dy * dy;
+		double t = 0;
+		if (len2 > 0) {
+			t = ((px - ax) * dx + (py - ay) * dy) / len2;
+			if (t < 0) t = 0;
+			else if (t > 1) t = 1;
+		}
+		double ex = ax + t * dx - px;
+		double ey = ay + t * dy - py;
+		return ex * ex + ey * ey;
+	}
+
+	/**
+	 * Computes the distance transform.  Must be called after all
+	 * segments have been added and before distances are read.
+	 */
+	public void compute() {
+		int n = Math.max(width, height);
+		double[] f = new double[n];
+		double[] d = new double[n];
+		int[] nearest = new int[n];
+		int[] v = new int[n];
+		double[] z = new double[n + 1];
+
+		double[] grid = new double[width * height];
+		//burnt node nearest to each node 
+		int[] site = new int[width * height];
+		
+		//columns
+		for (int x = 0; x < width; x ++) {
+			for (int y = 0; y < height; y ++) f[y] = feature[y * width + x] == -1 ? FAR : 0;
+			transform(f, height, d, nearest, v, z);
+			for (int y = 0; y < height; y ++) {
+				grid[y * width + x] = d[y];
+				site[y * width + x] = nearest[y] * width + x;
+			}
+		}
+		//rows
+		int[] rowSite = new int[width];
+		for (int y = 0; y < height; y ++) {
+			int offset = y * width;
+			System.arraycopy(grid, offset, f, 0, width);
+			System.arraycopy(site, offset, rowSite, 0, width);
+			transform(f, width, d, nearest, v, z);
+			for (int x = 0; x < width; x ++) {
+				site[offset + x] = d[x] >= FAR / 2 ? -1 : rowSite[nearest[x]];
+			}
+		}
+		
+		//exact distance to the segment of the nearest burnt node
+		distance = grid;
+		for (int y = 0; y < height; y ++) {
+			for (int x = 0; x < width; x ++) {
+				int index = y * width + x;
+				if (site[index] == -1) {
+					distance[index] = Double.POSITIVE_INFINITY;
+				}else {
+					distance[index] = Math.sqrt(segmentDistanceSquared(x, y, feature[site[index]])) * cellSize;
+				}
+			}
+		}
+	}
+
+	/**
+	 * One dimensional distance transform of the sampled function f; the lower
+	 * envelope of the parabolas rooted at each sample.  The sample each value
+	 * was computed from is written to nearest.
+	 */
+	private static void transform(double[] f, int n, double[] d, int[] nearest, int[] v, double[] z) {
+		int k = 0;
+		v[0] = 0;
+		z[0] = Double.NEGATIVE_INFINITY;
+		z[1] = Double.POSITIVE_INFINITY;
+		for (int q = 1; q < n; q ++) {
+			double s = ((f[q] + q * (double)q) - (f[v[k]] + v[k] * (double)v[k])) / (2.0 * q - 2.0 * v[k]);
+			while (s <= z[k]) {
+				k--;
+				s = ((f[q] + q * (double)q) - (f[v[k]] + v[k] * (double)v[k])) / (2.0 * q - 2.0 * v[k]);
+			}
+			k++;
+			v[k] = q;
+			z[k] = s;
+			z[k + 1] = Double.POSITIVE_INFINITY;
+		}
+		k = 0;
+		for (int q = 0; q < n; q ++) {
+			while (z[k + 1] < q) k++;
+			double dq = q - v[k];
+			d[q] = dq * dq + f[v[k]];
+			nearest[q] = v[k];
+		}
+	}
+
+	public int getWidth() {
+		return width;
+	}
+
+	public int getHeight() {
+		return height;
+	}
+
+	/**
+	 *
+	 * @param x
+	 * @param y
+	 * @return the distance from the node to the nearest segment or
+	 * positive infinity if no segments were burnt into the grid
+	 */
+	public double getDistance(int x, int y) {
+		return distance[y * width + x];
+	}
+}
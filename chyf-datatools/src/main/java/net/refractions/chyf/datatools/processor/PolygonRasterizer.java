@@ -0,0 +1,186 @@
+/*
+ * Copyright 2019 Government of Canada
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.refractions.chyf.datatools.processor;
+
+import java.util.Arrays;
+
+import org.locationtech.jts.geom.CoordinateSequence;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.LineString;
+import org.locationtech.jts.geom.Polygon;
+
+/**
+ * Burns polygon values into an integer grid using a scanline fill.
+ *
+ * A cell is filled if its center point is inside the polygon (even-odd rule,
+ * so holes are respected).  Cells are indexed from the lower left corner of
+ * the grid; the value for cell (x,y) is stored at y * width + x.  Cells
+ * not covered by any polygon have the value 0.
+ */
+public class PolygonRasterizer {
+
+	private int width;
+	private int height;
+	private double xmin;
+	private double ymin;
+	private double xCellSize;
+	private double yCellSize;
+
+	private int[] mask;
+
+	//scanline crossings, reused between polygons
+	private double[][] crossings;
+	private int[] crossingCnt;
+
+	/**
+	 *
+	 * @param width number of cells in the x direction
+	 * @param height number of cells in the y direction
+	 * @param xmin minimum x of the grid
+	 * @param ymin minimum y of the grid
+	 * @param xCellSize cell width
+	 * @param yCellSize cell height
+	 */
+	public PolygonRasterizer(int width, int height, double xmin, double ymin, double xCellSize, double yCellSize) {
+		this.width = width;
+		this.height = height;
+		this.xmin = xmin;
+		this.ymin = ymin;
+		this.xCellSize = xCellSize;
+		this.yCellSize = yCellSize;
+		this.mask = new int[width * height];
+		this.crossings = new double[height][];
+		this.crossingCnt = new int[height];
+	}
+
+	public int getWidth() {
+		return width;
+	}
+
+	public int getHeight() {
+		return height;
+	}
+
+	/**
+	 *
+	 * @return the grid values in row order starting at the lower left cell
+	 */
+	public int[] getMask() {
+		return mask;
+	}
+
+	public int getValue(int x, int y) {
+		return mask[y * width + x];
+	}
+
+	/**
+	 * Sets the value of all cells whose center is inside the
+	 * polygon (or multipolygon) to the given value.  Non-polygonal
+	 * components are ignored.
+	 *
+	 * @param geometry
+	 * @param value
+	 */
+	public void fill(Geometry geometry, int value) {
+		for (int i = 0; i < geometry.getNumGeometries(); i ++) {
+			Geometry part = geometry.getGeometryN(i);
+			if (part instanceof Polygon) {
+				fill((Polygon)part, value);
+			}
+		}
+	}
+
+	private void fill(Polygon polygon, int value) {
+		Arrays.fill(crossingCnt, 0);
+
+		addCrossings(polygon.getExteriorRing());
+		for (int i = 0; i < polygon.getNumInteriorRing(); i ++) {
+			addCrossings(polygon.getInteriorRingN(i));
+		}
+
+		for (int y = 0; y < height; y ++) {
+			int cnt = crossingCnt[y];
+			if (cnt < 2) continue;
+			double[] xs = crossings[y];
+			Arrays.sort(xs, 0, cnt);
+
+			int offset = y * width;
+			for (int k = 0; k + 1 < cnt; k += 2) {
+				//cells with center in [xs[k], xs[k+1])
+				int start = Math.max(0, firstCell(xs[k]));
+				int end = Math.min(width, firstCell(xs[k+1]));
+				for (int x = start; x < end; x ++) {
+					mask[offset + x] = value;
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return the first cell whose center x is greater than or equal to x
+	 */
+	private int firstCell(double x) {
+		return (int)Math.ceil((x - xmin) / xCellSize - 0.5);
+	}
+
+	/**
+	 * Computes the x value where each edge of the ring crosses the
+	 * center line of each row.  Edges are treated as half open in y so
+	 * vertices on a center line are only counted once.
+	 */
+	private void addCrossings(LineString ring) {
+		CoordinateSequence cs = ring.getCoordinateSequence();
+		int n = cs.size();
+		if (n < 2) return;
+
+		double x1 = cs.getX(0);
+		double y1 = cs.getY(0);
+		for (int i = 1; i < n; i ++) {
+			double x2 = cs.getX(i);
+			double y2 = cs.getY(i);
+
+			if (y1 != y2) {
+				double ylow = Math.min(y1, y2);
+				double yhigh = Math.max(y1, y2);
+				//rows whose center satisfies ylow <= center < yhigh
+				int rstart = Math.max(0, (int)Math.ceil((ylow - ymin) / yCellSize - 0.5));
+				int rend = Math.min(height, (int)Math.ceil((yhigh - ymin) / yCellSize - 0.5));
+
+				double slope = (x2 - x1) / (y2 - y1);
+				for (int row = rstart; row < rend; row ++) {
+					double yc = ymin + (row + 0.5) * yCellSize;
+					addCrossing(row, x1 + (yc - y1) * slope);
+				}
+			}
+			x1 = x2;
+			y1 = y2;
+		}
+	}
+
+	private void addCrossing(int row, double x) {
+		double[] xs = crossings[row];
+		int cnt = crossingCnt[row];
+		if (xs == null) {
+			xs = new double[8];
+			crossings[row] = xs;
+		}else if (cnt == xs.length) {
+			xs = Arrays.copyOf(xs, cnt * 2);
+			crossings[row] = xs;
+		}
+		xs[cnt] = x;
+		crossingCnt[row] = cnt + 1;
+	}
+}
@@ -15,10 +15,14 @@
  */
 package net.refractions.chyf.datatools.processor;
 
+/**
+ * Tracks the progress of a task.  Work may be reported from 
+ * multiple threads.
+ */
 public class ProgressMonitor {
 
-	private int taskLength;
-	private int worked;
+	private volatile int taskLength;
+	private volatile int worked;
 	
 	public ProgressMonitor() {
 		this.taskLength = 0;
@@ -29,7 +33,7 @@ public class ProgressMonitor {
 		this.taskLength = length;
 	}
 	
-	public void worked(int amount) {
+	public synchronized void worked(int amount) {
 		worked+=amount;
 	}
 	
@@ -18,6 +18,8 @@ package net.refractions.chyf.datatools.processor;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
 
 import org.geotools.data.simple.SimpleFeatureReader;
 import org.geotools.geometry.GeneralEnvelope;
@@ -45,6 +47,7 @@ public class SEAProcessor {
 	private GeoTiffDemReader dem;
 	
 	private List<Tile> tiles;
+	private int workers = 1;
 	
 	public SEAProcessor (ChyfDataSource data, GeoTiffDemReader dem) throws IOException {
 		this.data = data;
@@ -52,6 +55,18 @@ public class SEAProcessor {
 		this.tiles = generateTiles();
 	}
 	
+	/**
+	 * Sets the number of threads used to process tiles.  If
+	 * one (the default) tiles are processed sequentially on the calling
+	 * thread.
+	 * 
+	 * @param workers
+	 */
+	public void setWorkers(int workers) {
+		if (workers < 1) throw new IllegalArgumentException("The number of workers must be at least 1");
+		this.workers = workers;
+	}
+	
 	//Feature id:
 	//Generation of the identifier is dependent on the underlying data storage medium. 
 	//Often this identifier is not persistent. Mediums such shapefiles and database tables
@@ -61,36 +76,82 @@ public class SEAProcessor {
 	//dependent on which storage medium or data source is being used.
 	
 	public SEAResult doWork(ProgressMonitor monitor) throws Exception {
-		//process by tile
-		List<SEAResult> results = new ArrayList<>();
-		
 		monitor.setTaskLength(tiles.size()+1);
 		
-		for (Tile tile : tiles) {
-			results.add( (new SEATileProcessor(dem, data)).doWork(tile) );
-			monitor.worked(1);
+		//process by tile, merging the results as they are computed
+		SEAResult total;
+		if (workers == 1 || tiles.size() <= 1) {
+			total = new SEAResult();
+			SEATileProcessor processor = new SEATileProcessor(dem, data);
+			for (Tile tile : tiles) {
+				total.merge( processor.doWork(tile) );
+				monitor.worked(1);
+			}
+		}else {
+			ForkJoinPool pool = new ForkJoinPool(workers);
+			try {
+				//one tile processor per thread so the dem buffers are reused
+				ThreadLocal<SEATileProcessor> processors = ThreadLocal.withInitial(()->new SEATileProcessor(dem, data));
+				total = pool.invoke(new TileTask(0, tiles.size(), processors, monitor));
+			}finally {
+				pool.shutdown();
+			}
 		}
-		
-		//merge all results
-		SEAResult total = new SEAResult();
-		results.forEach(r->total.merge(r));
 			
 		//compute values for catchments with no data
 		//assigne the values to those of the catchment with the longest shared edge
-		SimpleFeatureReader all = data.getECatchments(null);
-		while(all.hasNext()) {
-			SimpleFeature feature = all.next();
-			if (!total.getStats().containsKey(feature.getID())) {
-				//compute a value for this based on the longest shared edge
-				logger.warn("Catchment " + feature.getID() + " has no SEA values.  Will assign values of the catchment with the longest shared edge");
-				SEAResult.Statistics s = findLongestSharedEdgeWithStats(feature, total);
-				total.getStats().put(feature.getID(), s);
+		try(SimpleFeatureReader all = data.getECatchments(null)){
+			while(all.hasNext()) {
+				SimpleFeature feature = all.next();
+				if (!total.getStats().containsKey(feature.getID())) {
+					//compute a value for this based on the longest shared edge
+					logger.warn("Catchment " + feature.getID() + " has no SEA values.  Will assign values of the catchment with the longest shared edge");
+					SEAResult.Statistics s = findLongestSharedEdgeWithStats(feature, total);
+					total.getStats().put(feature.getID(), s);
+				}
 			}
 		}
 		monitor.worked(1);
 		return total;
 	}
 	
+	/**
+	 * Processes a range of tiles by splitting it in half until a 
+	 * single tile remains, merging the results of the two halves as 
+	 * the tasks complete.
+	 */
+	@SuppressWarnings("serial")
+	private class TileTask extends RecursiveTask<SEAResult> {
+		
+		private int start;
+		private int end;
+		private ThreadLocal<SEATileProcessor> processors;
+		private ProgressMonitor monitor;
+		
+		TileTask(int start, int end, ThreadLocal<SEATileProcessor> processors, ProgressMonitor monitor){
+			this.start = start;
+			this.end = end;
+			this.processors = processors;
+			this.monitor = monitor;
+		}
+		
+		@Override
+		protected SEAResult compute() {
+			if (end - start == 1) {
+				SEAResult result = processors.get().doWork(tiles.get(start));
+				monitor.worked(1);
+				return result;
+			}
+			int mid = (start + end) >>> 1;
+			TileTask left = new TileTask(start, mid, processors, monitor);
+			left.fork();
+			SEAResult right = new TileTask(mid, end, processors, monitor).compute();
+			SEAResult result = left.join();
+			result.merge(right);
+			return result;
+		}
+	}
+	
 	private SEAResult.Statistics findLongestSharedEdgeWithStats(SimpleFeature currentFeature, SEAResult allData) throws Exception{
 		ReferencedEnvelope toSearch = new ReferencedEnvelope(currentFeature.getBounds());
 		Geometry g = (Geometry) currentFeature.getDefaultGeometry();
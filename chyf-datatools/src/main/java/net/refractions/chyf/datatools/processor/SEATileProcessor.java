@@ -15,24 +15,16 @@
  */
 package net.refractions.chyf.datatools.processor;
 
-import java.awt.image.DataBuffer;
 import java.util.ArrayList;
 import java.util.List;
 
-import org.geotools.coverage.grid.GridCoverage2D;
 import org.geotools.data.simple.SimpleFeatureReader;
 import org.geotools.geometry.jts.ReferencedEnvelope;
-import org.locationtech.jts.geom.Coordinate;
-import org.locationtech.jts.geom.Envelope;
 import org.locationtech.jts.geom.Geometry;
-import org.locationtech.jts.geom.GeometryFactory;
-import org.locationtech.jts.geom.Point;
-import org.locationtech.jts.geom.prep.PreparedGeometry;
-import org.locationtech.jts.geom.prep.PreparedGeometryFactory;
-import org.locationtech.jts.index.strtree.STRtree;
 import org.opengis.feature.simple.SimpleFeature;
 
 import net.refractions.chyf.datatools.readers.ChyfDataSource;
+import net.refractions.chyf.datatools.readers.DemWindow;
 import net.refractions.chyf.datatools.readers.GeoTiffDemReader;
 
 /**
@@ -47,95 +39,105 @@ public class SEATileProcessor  {
 	
 	private GeoTiffDemReader elevationData;
 	private ChyfDataSource datasource;
+	private double[] noData;
+	
+	//buffers reused between tiles
+	private DemWindow window;
+	private boolean[] upNoData;
+	private boolean[] midNoData;
+	private boolean[] downNoData;
 
+	/**
+	 * Creates a new tile processor.  A processor can be used for
+	 * many tiles but only by one thread at a time.
+	 */
 	public SEATileProcessor(GeoTiffDemReader reader, ChyfDataSource datasource) {
 		this.elevationData = reader;
 		this.datasource = datasource;
+		this.noData = reader.getNoData();
+		if (this.noData == null) this.noData = new double[0];
 	}
 	
 	
 	public SEAResult doWork(Tile t) {
 		try {
 			//get features that overlap elevation data
-			SimpleFeatureReader sfreader = datasource.getECatchments(t.getEnvelope());
 			List<Geometry> sf = new ArrayList<>();
-			while(sfreader.hasNext()) {
-				SimpleFeature ff = sfreader.next();
-				Geometry geom = ((Geometry)ff.getDefaultGeometry());			
-				Geometry rgeom = ReprojectionUtils.reproject(geom, sfreader.getFeatureType().getCoordinateReferenceSystem(), elevationData.getCrs());
-				rgeom.setUserData(ff.getID());
-				sf.add(rgeom);
+			try(SimpleFeatureReader sfreader = datasource.getECatchments(t.getEnvelope())){
+				while(sfreader.hasNext()) {
+					SimpleFeature ff = sfreader.next();
+					Geometry geom = ((Geometry)ff.getDefaultGeometry());			
+					Geometry rgeom = ReprojectionUtils.reproject(geom, sfreader.getFeatureType().getCoordinateReferenceSystem(), elevationData.getCrs());
+					rgeom.setUserData(ff.getID());
+					sf.add(rgeom);
+				}
 			}
 			if (sf.isEmpty()) return new SEAResult();
 			
-			STRtree index = new STRtree();
-			for (Geometry g : sf) {
-				PreparedGeometry pg = PreparedGeometryFactory.prepare(g);
-				index.insert(pg.getGeometry().getEnvelopeInternal(), pg);
-			}
-			index.build();
-			
 			//expand by 1 on each side so we have the data necessary to compute slope
 			ReferencedEnvelope dataEnv = t.getEnvelope();
 			dataEnv = new ReferencedEnvelope(dataEnv.getMinX() - elevationData.getXCellSize(), dataEnv.getMaxX() + elevationData.getXCellSize(), dataEnv.getMinY() - elevationData.getYCellSize(), dataEnv.getMaxY() + elevationData.getYCellSize(), dataEnv.getCoordinateReferenceSystem());
 			
-			GridCoverage2D dem = elevationData.getData(dataEnv);
+			window = elevationData.readWindow(dataEnv, window);
 			
+			int width = window.getWidth();
+			int height = window.getHeight();
+			SEAResult results = new SEAResult();
+			if (width < 3 || height < 3) return results;
 			
-			double xmin = dem.getEnvelope().getMinimum(0);
-			double ymin = dem.getEnvelope().getMinimum(1);
+			//burn the catchments into a grid matching the dem cells; 
+			//cell values are the index of the catchment id + 1
+			PolygonRasterizer catchmentMask = new PolygonRasterizer(width, height, 
+					window.getMinX(), window.getMinY(), elevationData.getXCellSize(), elevationData.getYCellSize());
+			String[] catchmentIds = new String[sf.size()];
+			for (int i = 0; i < sf.size(); i ++) {
+				catchmentIds[i] = (String) sf.get(i).getUserData();
+				catchmentMask.fill(sf.get(i), i + 1);
+			}
 			
-			DataBuffer dataBuffer = null;
-			SEAResult results = new SEAResult();
+			//slide a three row window down the dem; the nodata 
+			//flags for each row are computed once
+			double[] data = window.getData();
+			if (midNoData == null || midNoData.length < width) {
+				upNoData = new boolean[width];
+				midNoData = new boolean[width];
+				downNoData = new boolean[width];
+			}
+			flagNoData(data, 0, width, midNoData);
+			flagNoData(data, width, width, downNoData);
 			
-			for (int x = 1 ; x < dem.getRenderedImage().getWidth() - 1; x ++) {
-				for (int y = 1 ; y < dem.getRenderedImage().getHeight() - 1; y ++) {	
-					double xCenter = xmin + x * elevationData.getXCellSize() + (elevationData.getXCellSize() / 2.0);
-					double yCenter = ymin + y * elevationData.getYCellSize() + (elevationData.getYCellSize() / 2.0);
-					
-					Envelope searchEnv = new Envelope(new Coordinate(xCenter, yCenter));
-					Point pnt = (new GeometryFactory()).createPoint(new Coordinate(xCenter, yCenter));
-					
-					List<?> items = index.query(searchEnv);
-					List<PreparedGeometry> geoms = new ArrayList<>();
-					for (Object item : items) {
-						PreparedGeometry pg = (PreparedGeometry) item;
-						if (pg.contains(pnt)) geoms.add(pg);
-					}
-					if (geoms.isEmpty()) continue;
-					
-					if (dataBuffer == null) {
-						dataBuffer = dem.getRenderedImage().getData().getDataBuffer();
-					}
-
-					double v1 = dataBuffer.getElemDouble(x-1 +   (dem.getRenderedImage().getHeight() - (y+1) - 1) * dem.getRenderedImage().getWidth());
-					double v2 = dataBuffer.getElemDouble(x +     (dem.getRenderedImage().getHeight() - (y+1) - 1) * dem.getRenderedImage().getWidth());
-					double v3 = dataBuffer.getElemDouble(x + 1 + (dem.getRenderedImage().getHeight() - (y+1) - 1) * dem.getRenderedImage().getWidth());
-					
-					double v4 = dataBuffer.getElemDouble(x-1 +   (dem.getRenderedImage().getHeight() - y - 1) * dem.getRenderedImage().getWidth());
-					double v5 = dataBuffer.getElemDouble(x +     (dem.getRenderedImage().getHeight() - y - 1) * dem.getRenderedImage().getWidth());
-					double v6 = dataBuffer.getElemDouble(x + 1 + (dem.getRenderedImage().getHeight() - y - 1) * dem.getRenderedImage().getWidth());
-					
-					double v7 = dataBuffer.getElemDouble(x-1 +   (dem.getRenderedImage().getHeight() - (y-1) - 1) * dem.getRenderedImage().getWidth());
-					double v8 = dataBuffer.getElemDouble(x +     (dem.getRenderedImage().getHeight() - (y-1) - 1) * dem.getRenderedImage().getWidth());
-					double v9 = dataBuffer.getElemDouble(x + 1 + (dem.getRenderedImage().getHeight() - (y-1) - 1) * dem.getRenderedImage().getWidth());
-					
-					double[][] edata = new double[][] {
-						{v1, v4, v7},
-						{v2, v5, v8},
-						{v3, v6, v9},
-					};
+			int[] mask = catchmentMask.getMask();
+			double[] slopeaspect = new double[2];
+			
+			//r is the dem row (from the top); the mask is indexed from the bottom
+			for (int r = 1; r < height - 1; r ++) {
+				boolean[] tmpNoData = upNoData; upNoData = midNoData; midNoData = downNoData; downNoData = tmpNoData;
+				flagNoData(data, (r + 1) * width, width, downNoData);
+				
+				int up = (r - 1) * width;
+				int mid = r * width;
+				int down = (r + 1) * width;
+				
+				int maskOffset = (height - r - 1) * width;
+				for (int x = 1; x < width - 1; x ++) {
+					int catchment = mask[maskOffset + x];
+					if (catchment == 0) continue;
+					String catchmentId = catchmentIds[catchment - 1];
 					
-					double[] slopeaspect = computeSlopeAspect(edata);
-					if (slopeaspect[0] == -9999) {
-						if (!isNoData(v5)) {
-							for (PreparedGeometry g : geoms) results.addElevationValue((String)g.getGeometry().getUserData(),  v5);
-						}
-					}else {
-						for (PreparedGeometry g : geoms) {
-							results.addSlopeAspectElevationValue((String)g.getGeometry().getUserData(), slopeaspect[0], slopeaspect[1], v5);
+					double elevation = data[mid + x];
+					if (upNoData[x-1] || upNoData[x] || upNoData[x+1] ||
+							midNoData[x-1] || midNoData[x] || midNoData[x+1] ||
+							downNoData[x-1] || downNoData[x] || downNoData[x+1]) {
+						if (!midNoData[x]) {
+							results.addElevationValue(catchmentId, elevation);
 						}
+						continue;
 					}
+					
+					double dx = (data[up+x+1] + 2*data[mid+x+1] + data[down+x+1]) - (data[up+x-1] + 2*data[mid+x-1] + data[down+x-1]);
+					double dy = (data[down+x-1] + 2*data[down+x] + data[down+x+1]) - (data[up+x-1] + 2*data[up+x] + data[up+x+1]);
+					computeSlopeAspect(dx, dy, slopeaspect);
+					results.addSlopeAspectElevationValue(catchmentId, slopeaspect[0], slopeaspect[1], elevation);
 				}
 			}
 			return results;
@@ -144,9 +146,20 @@ public class SEATileProcessor  {
 		}
 	}
 	
+	/**
+	 * Flags the nodata cells of a single dem row.
+	 */
+	private void flagNoData(double[] data, int offset, int width, boolean[] nodata) {
+		for (int x = 0; x < width; x ++) {
+			nodata[x] = isNoData(data[offset + x]);
+		}
+	}
+	
 	private boolean isNoData(double v) {
-		for (int k = 0; k < elevationData.getNoData().length; k ++) {
-			if (v == elevationData.getNoData()[k]) return true;
+		//cells outside the coverage are filled with NaN by the dem reader
+		if (Double.isNaN(v)) return true;
+		for (int k = 0; k < noData.length; k ++) {
+			if (v == noData[k]) return true;
 		}
 		return false;
 	}
@@ -203,6 +216,20 @@ public class SEATileProcessor  {
 		double dx = (elevation[2][0] + 2*elevation[2][1] + elevation[2][2]) - (elevation[0][0] + 2*elevation[0][1] + elevation[0][2]);
 		double dy = (elevation[0][2] + 2*elevation[1][2] + elevation[2][2]) - (elevation[0][0] + 2*elevation[1][0] + elevation[2][0]); 
 				
+		double[] slopeaspect = new double[2];
+		computeSlopeAspect(dx, dy, slopeaspect);
+		return slopeaspect;
+	}
+	
+	/**
+	 * Computes the Horn slope and aspect (in degrees) from the weighted
+	 * differences of the 3x3 window.
+	 * 
+	 * @param dx (c + 2f + i) - (a + 2d + g)
+	 * @param dy (g + 2h + i) - (a + 2b + c)
+	 * @param out array that the slope (index 0) and aspect (index 1) are written to
+	 */
+	private void computeSlopeAspect(double dx, double dy, double[] out) {
 		double fx = dx / (8.0 * elevationData.getXCellSize()) ;
 		double fy = dy / (8.0 * elevationData.getYCellSize()) ;
 		
@@ -219,7 +246,8 @@ public class SEATileProcessor  {
 		}else {
 			aspect = 90.0 - aspect;
 		}
-		return new double[] {slope, aspect};
+		out[0] = slope;
+		out[1] = aspect;
 	}
 	
 }
@@ -38,6 +38,24 @@ public interface ChyfDataSource extends AutoCloseable {
 	 */
 	SimpleFeatureReader getECatchments(ReferencedEnvelope bounds) throws IOException;
 	
+	/**
+	 * The number of catchments in the dataset.  By default the
+	 * catchments are read and counted.
+	 * 
+	 * @return
+	 * @throws IOException
+	 */
+	default int getECatchmentCount() throws IOException {
+		int count = 0;
+		try(SimpleFeatureReader reader = getECatchments(null)){
+			while(reader.hasNext()) {
+				reader.next();
+				count++;
+			}
+		}
+		return count;
+	}
+	
 	/**
 	 * 
 	 * @param bounds if null then entire dataset should be returned
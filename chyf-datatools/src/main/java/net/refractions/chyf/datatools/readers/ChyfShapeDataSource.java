@@ -26,6 +26,7 @@ import org.geotools.data.DataStore;
 import org.geotools.data.DataStoreFinder;
 import org.geotools.data.DataUtilities;
 import org.geotools.data.EmptyFeatureReader;
+import org.geotools.data.Query;
 import org.geotools.data.simple.SimpleFeatureReader;
 import org.geotools.data.simple.SimpleFeatureSource;
 import org.geotools.factory.CommonFactoryFinder;
@@ -99,6 +100,14 @@ public class ChyfShapeDataSource implements ChyfDataSource {
 		return query(bounds, catchments);
 	}
 	
+	@Override
+	public int getECatchmentCount() throws IOException{
+		//the count may not be known without reading the features
+		int count = catchments.getCount(Query.ALL);
+		if (count >= 0) return count;
+		return ChyfDataSource.super.getECatchmentCount();
+	}
+	
 	public SimpleFeatureReader getWaterbodies(ReferencedEnvelope bounds) throws IOException{
 		return query(bounds, waterbodies);
 	}
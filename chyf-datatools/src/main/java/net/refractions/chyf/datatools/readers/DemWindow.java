@@ -0,0 +1,103 @@
+/*
+ * Copyright 2019 Government of Canada
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.refractions.chyf.datatools.readers;
+
+/**
+ * A rectangular block of DEM cells read into a primitive buffer.  The buffer
+ * is reused when the window is read again so memory only depends on
+ * the size of the largest window.
+ *
+ * Values are stored in row order starting at the top left cell; the
+ * value of cell (x,y) is at y * width + x where y = 0 is the top row.
+ */
+public class DemWindow {
+
+	private int column;
+	private int row;
+	private int width;
+	private int height;
+
+	private double xmin;
+	private double ymin;
+
+	private double[] data = new double[0];
+
+	void reset(int column, int row, int width, int height, double xmin, double ymin) {
+		this.column = column;
+		this.row = row;
+		this.width = width;
+		this.height = height;
+		this.xmin = xmin;
+		this.ymin = ymin;
+		if (data.length < width * height) {
+			data = new double[width * height];
+		}
+	}
+
+	/**
+	 * @return the column of the DEM file of the left most cell
+	 */
+	public int getColumn() {
+		return column;
+	}
+
+	/**
+	 * @return the row of the DEM file of the top most cell
+	 */
+	public int getRow() {
+		return row;
+	}
+
+	public int getWidth() {
+		return width;
+	}
+
+	public int getHeight() {
+		return height;
+	}
+
+	/**
+	 * @return the minimum x of the window
+	 */
+	public double getMinX() {
+		return xmin;
+	}
+
+	/**
+	 * @return the minimum y of the window
+	 */
+	public double getMinY() {
+		return ymin;
+	}
+
+	public boolean isEmpty() {
+		return width <= 0 || height <= 0;
+	}
+
+	/**
+	 * The buffer may be larger than width * height; only the
+	 * first width * height values belong to this window.
+	 *
+	 * @return the cell values
+	 */
+	public double[] getData() {
+		return data;
+	}
+
+	public double getValue(int x, int y) {
+		return data[y * width + x];
+	}
+}
@@ -15,23 +15,39 @@
  */
 package net.refractions.chyf.datatools.readers;
 
+import java.awt.Rectangle;
+import java.awt.image.Raster;
+import java.awt.image.RenderedImage;
 import java.io.Closeable;
+import java.io.IOException;
 import java.nio.file.Path;
+import java.util.Arrays;
 
 import org.geotools.coverage.grid.GridCoverage2D;
+import org.geotools.coverage.grid.GridEnvelope2D;
+import org.geotools.coverage.grid.GridGeometry2D;
 import org.geotools.coverage.grid.io.AbstractGridFormat;
 import org.geotools.coverage.grid.io.GridCoverage2DReader;
 import org.geotools.coverage.grid.io.GridFormatFinder;
-import org.geotools.coverage.processing.CoverageProcessor;
+import org.geotools.coverage.grid.io.OverviewPolicy;
 import org.geotools.geometry.GeneralEnvelope;
 import org.geotools.geometry.jts.ReferencedEnvelope;
+import org.opengis.coverage.grid.GridEnvelope;
+import org.opengis.geometry.Envelope;
 import org.opengis.parameter.GeneralParameterValue;
-import org.opengis.parameter.ParameterValueGroup;
+import org.opengis.parameter.ParameterValue;
 import org.opengis.referencing.crs.CoordinateReferenceSystem;
 
+/**
+ * Reads elevation data from a GeoTIFF.  Data is read on request for
+ * the window required so the entire file is never held in memory.
+ *
+ */
 public class GeoTiffDemReader implements Closeable {
 
-	private GridCoverage2D coverage;
+	private GridCoverage2DReader reader;
+	private String coverageName;
+	
 	private GeneralEnvelope bounds;
 	private double xCellSize;
 	private double yCellSize;
@@ -40,12 +56,13 @@ public class GeoTiffDemReader implements Closeable {
 	private int ycells;
 	
 	private CoordinateReferenceSystem crs;
+	private double[] noData;
 	
 	public GeoTiffDemReader(Path file) throws Exception{
 
 		AbstractGridFormat format = GridFormatFinder.findFormat( file.toFile() );
 		    
-		GridCoverage2DReader reader = format.getReader( file.toFile() );
+		this.reader = format.getReader( file.toFile() );
 		
 		this.xcells = reader.getImageLayout().getWidth(null);
 		this.ycells = reader.getImageLayout().getHeight(null);
@@ -56,10 +73,15 @@ public class GeoTiffDemReader implements Closeable {
 		this.yCellSize = (bounds.getUpperCorner().getOrdinate(1) - bounds.getLowerCorner().getOrdinate(1)) / (double)ycells;
 		
 		String[] names = reader.getGridCoverageNames();
-		this.coverage = reader.read(names[0], new GeneralParameterValue[] {});
+		this.coverageName = names[0];
 		
 		this.crs = reader.getCoordinateReferenceSystem();
 		
+		//read a single cell to find the nodata values
+		GridCoverage2D sample = read(new Rectangle(0, 0, 1, 1), false);
+		this.noData = sample.getSampleDimension(0).getNoDataValues();
+		if (this.noData == null) this.noData = new double[0];
+		sample.dispose(true);
 	}
 	
 	public GeneralEnvelope getFileBounds(){
@@ -67,7 +89,7 @@ public class GeoTiffDemReader implements Closeable {
 	}
 	
 	public double[] getNoData() {
-		return this.coverage.getSampleDimension(0).getNoDataValues();
+		return this.noData;
 	}
 	
 	public CoordinateReferenceSystem getCrs() {
@@ -80,55 +102,133 @@ public class GeoTiffDemReader implements Closeable {
 	public double getYCellSize() {
 		return this.yCellSize;
 	}
-	public GridCoverage2D getData(ReferencedEnvelope cropBounds) {
-		
-		CoverageProcessor processor = new CoverageProcessor();
-		
-		final ParameterValueGroup param = processor.getOperation("CoverageCrop").getParameters();
-		
-		double x1 = cropBounds.getLowerCorner().getOrdinate(0);
-		double y1 = cropBounds.getLowerCorner().getOrdinate(1);
-		
-		int cellxmin = (int)Math.floor((cropBounds.getMinX() - x1) / xCellSize);
-		int cellymin = (int)Math.floor((cropBounds.getMinY() - y1) / yCellSize);
-		
-		int cellxmax = (int)Math.ceil((cropBounds.getMaxX() - x1) / xCellSize);
-		int cellymax = (int)Math.ceil((cropBounds.getMaxY() - y1) / yCellSize);
-		
-		GeneralEnvelope env = new GeneralEnvelope(new double[] {cellxmin * xCellSize + x1, cellymin * yCellSize + y1}, new double[] {cellxmax * xCellSize + x1, cellymax * yCellSize + y1});
-		
-		//truncate requested envelope to coverage bounds
-		double xc = env.getMinimum(0);
-		if (xc < this.bounds.getMinimum(0)) {
-			xc = this.bounds.getMinimum(0);
-		}
-		
-		double yc = env.getMinimum(1);
-		if (yc < this.bounds.getMinimum(1)) {
-			yc = this.bounds.getMinimum(1);
-		}
-		
-		double xd = env.getMaximum(0);
-		if (xd > this.bounds.getMaximum(0)) {
-			xd = this.bounds.getMaximum(0);
+	
+	/**
+	 * Reads the DEM cells that intersect the given bounds, truncated to the
+	 * extent of the file.
+	 * 
+	 * @param cropBounds
+	 * @return
+	 * @throws IOException
+	 */
+	public GridCoverage2D getData(ReferencedEnvelope cropBounds) throws IOException {
+		//decoded immediately, the returned coverage does not read from the file
+		return read(getWindow(cropBounds), false);
+	}
+	
+	/**
+	 * Reads the DEM cells that intersect the given bounds, truncated to the extent of 
+	 * the file, into the window provided.  Only the internal tiles of the GeoTIFF that
+	 * intersect the bounds are read.
+	 * 
+	 * @param cropBounds
+	 * @param window the window to read into; if null a new window is created
+	 * @return the window
+	 * @throws IOException
+	 */
+	public DemWindow readWindow(ReferencedEnvelope cropBounds, DemWindow window) throws IOException {
+		if (window == null) window = new DemWindow();
+		
+		Rectangle cells = getWindow(cropBounds);
+		window.reset(cells.x, cells.y, cells.width, cells.height, 
+				bounds.getMinimum(0) + cells.x * xCellSize, 
+				bounds.getMaximum(1) - (cells.y + cells.height) * yCellSize);
+		if (window.isEmpty()) return window;
+		
+		double[] data = window.getData();
+		Arrays.fill(data, 0, cells.width * cells.height, noData.length > 0 ? noData[0] : Double.NaN);
+		
+		//the tiles of the coverage are decoded as they are requested from the
+		//stream shared by all callers, so the window is copied under the lock
+		synchronized (reader) {
+			GridCoverage2D coverage = read(cells, true);
+			try {
+				RenderedImage image = coverage.getRenderedImage();
+			
+				//file cell of the first image pixel; the reader may not return 
+				//exactly the window requested
+				Envelope covEnv = coverage.getEnvelope();
+				int covColumn = (int) Math.round((covEnv.getMinimum(0) - bounds.getMinimum(0)) / xCellSize);
+				int covRow = (int) Math.round((bounds.getMaximum(1) - covEnv.getMaximum(1)) / yCellSize);
+			
+				//requested window in image coordinates
+				Rectangle request = new Rectangle(image.getMinX() + cells.x - covColumn, image.getMinY() + cells.y - covRow, cells.width, cells.height);
+			
+				double[] row = new double[cells.width];
+				for (int ty = image.getMinTileY(); ty < image.getMinTileY() + image.getNumYTiles(); ty ++) {
+					for (int tx = image.getMinTileX(); tx < image.getMinTileX() + image.getNumXTiles(); tx ++) {
+						int tileX = tx * image.getTileWidth() + image.getTileGridXOffset();
+						int tileY = ty * image.getTileHeight() + image.getTileGridYOffset();
+						Rectangle overlap = request.intersection(new Rectangle(tileX, tileY, image.getTileWidth(), image.getTileHeight()));
+						if (overlap.isEmpty()) continue;
+					
+						Raster tile = image.getTile(tx, ty);
+						overlap = overlap.intersection(tile.getBounds());
+						if (overlap.isEmpty()) continue;
+					
+						for (int y = overlap.y; y < overlap.y + overlap.height; y ++) {
+							tile.getSamples(overlap.x, y, overlap.width, 1, 0, row);
+							System.arraycopy(row, 0, data, (y - request.y) * cells.width + (overlap.x - request.x), overlap.width);
+						}
+					}
+				}
+			}finally {
+				coverage.dispose(true);
+			}
 		}
-		double yd = env.getMaximum(1);
-		if (yd > this.bounds.getMaximum(1)) {
-			yd = this.bounds.getMaximum(1);
+		return window;
+	}
+	
+	/**
+	 * Computes the file cells that intersect the bounds.  Rows are numbered 
+	 * from the top of the file.
+	 */
+	private Rectangle getWindow(ReferencedEnvelope cropBounds) {
+		int cellxmin = (int)Math.floor((cropBounds.getMinX() - bounds.getMinimum(0)) / xCellSize);
+		int cellxmax = (int)Math.ceil((cropBounds.getMaxX() - bounds.getMinimum(0)) / xCellSize);
+		
+		int cellymin = (int)Math.floor((bounds.getMaximum(1) - cropBounds.getMaxY()) / yCellSize);
+		int cellymax = (int)Math.ceil((bounds.getMaximum(1) - cropBounds.getMinY()) / yCellSize);
+		
+		//truncate requested window to coverage bounds
+		cellxmin = Math.max(0, cellxmin);
+		cellymin = Math.max(0, cellymin);
+		cellxmax = Math.min(xcells, cellxmax);
+		cellymax = Math.min(ycells, cellymax);
+		
+		return new Rectangle(cellxmin, cellymin, Math.max(0, cellxmax - cellxmin), Math.max(0, cellymax - cellymin));
+	}
+	
+	/**
+	 * Reads the cells of the window at the native resolution.
+	 * 
+	 * @param deferred if true pixels are decoded as the image tiles are requested, 
+	 * which must be done while holding the reader lock
+	 */
+	private GridCoverage2D read(Rectangle cells, boolean deferred) throws IOException {
+		GeneralEnvelope env = new GeneralEnvelope(
+				new double[] {bounds.getMinimum(0) + cells.x * xCellSize, bounds.getMaximum(1) - (cells.y + cells.height) * yCellSize}, 
+				new double[] {bounds.getMinimum(0) + (cells.x + cells.width) * xCellSize, bounds.getMaximum(1) - cells.y * yCellSize});
+		env.setCoordinateReferenceSystem(crs);
+		
+		GridEnvelope range = new GridEnvelope2D(0, 0, cells.width, cells.height);
+		
+		ParameterValue<GridGeometry2D> gridGeometry = AbstractGridFormat.READ_GRIDGEOMETRY2D.createValue();
+		gridGeometry.setValue(new GridGeometry2D(range, env));
+		
+		ParameterValue<Boolean> imageRead = AbstractGridFormat.USE_JAI_IMAGEREAD.createValue();
+		imageRead.setValue(deferred);
+		
+		ParameterValue<OverviewPolicy> overviews = AbstractGridFormat.OVERVIEW_POLICY.createValue();
+		overviews.setValue(OverviewPolicy.IGNORE);
+		
+		synchronized (reader) {
+			return reader.read(coverageName, new GeneralParameterValue[] {gridGeometry, imageRead, overviews});
 		}
-		
-		GeneralEnvelope env2 = new GeneralEnvelope(new double[] {xc,yc}, new double[] {xd,yd});
-		
-		final GeneralEnvelope crop = new GeneralEnvelope( env2 );
-		param.parameter("Source").setValue(  coverage );
-		param.parameter("Envelope").setValue( crop );
-
-		GridCoverage2D cropped = (GridCoverage2D) processor.doOperation(param);
-		return cropped;
 	}
 	
 	@Override
 	public void close() {
-		this.coverage.dispose(true);
+		this.reader.dispose();
 	}	
 }
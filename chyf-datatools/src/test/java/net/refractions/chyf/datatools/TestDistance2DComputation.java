@@ -66,4 +66,40 @@ public class TestDistance2DComputation {
 		Assert.assertEquals("Invalid 2d max distance for catchment 5", 166.52822583574235, results.getResult("Catchment.5").getMax(), 0.000000001);
 		
 	}
+	
+	@Test
+	public void testDistanceTransformComputations() throws Exception {
+		Distance2DProcessor vector = new Distance2DProcessor(chyfData, CRS.decode("EPSG:3978"));
+		vector.setCellSize(10);
+		vector.doWork(new ProgressMonitor());
+		
+		Distance2DProcessor transform = new Distance2DProcessor(chyfData, CRS.decode("EPSG:3978"));
+		transform.setCellSize(10);
+		transform.setUseDistanceTransform(true);
+		transform.doWork(new ProgressMonitor());
+		
+		for (int i = 1; i <= 5; i ++) {
+			String fid = "Catchment." + i;
+			Assert.assertEquals("Invalid 2d mean distance for catchment " + i, vector.getResults().getResult(fid).getMean(), transform.getResults().getResult(fid).getMean(), 1.0);
+			Assert.assertEquals("Invalid 2d max distance for catchment " + i, vector.getResults().getResult(fid).getMax(), transform.getResults().getResult(fid).getMax(), 5.0);
+		}
+	}
+	
+	@Test
+	public void testParallelComputations() throws Exception {
+		Distance2DProcessor sequential = new Distance2DProcessor(chyfData, CRS.decode("EPSG:3978"));
+		sequential.setCellSize(100);
+		sequential.doWork(new ProgressMonitor());
+		
+		Distance2DProcessor parallel = new Distance2DProcessor(chyfData, CRS.decode("EPSG:3978"));
+		parallel.setCellSize(100);
+		parallel.setWorkers(4);
+		parallel.doWork(new ProgressMonitor());
+		
+		for (int i = 1; i <= 5; i ++) {
+			String fid = "Catchment." + i;
+			Assert.assertEquals("Invalid 2d mean distance for catchment " + i, sequential.getResults().getResult(fid).getMean(), parallel.getResults().getResult(fid).getMean(), 0.000000001);
+			Assert.assertEquals("Invalid 2d max distance for catchment " + i, sequential.getResults().getResult(fid).getMax(), parallel.getResults().getResult(fid).getMax(), 0.000000001);
+		}
+	}
 }
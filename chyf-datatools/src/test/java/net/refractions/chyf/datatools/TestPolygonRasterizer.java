@@ -0,0 +1,63 @@
+/*
+ * Copyright 2019 Government of Canada
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.refractions.chyf.datatools;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.GeometryFactory;
+import org.locationtech.jts.geom.Point;
+import org.locationtech.jts.geom.Polygon;
+import org.locationtech.jts.geom.prep.PreparedPolygon;
+import org.locationtech.jts.io.WKTReader;
+
+import net.refractions.chyf.datatools.processor.PolygonRasterizer;
+
+/**
+ * Tests the scanline polygon fill against point in polygon tests
+ * of the cell centers.
+ */
+public class TestPolygonRasterizer {
+
+	@Test
+	public void testFillMatchesContains() throws Exception {
+		String polywt = "POLYGON (( 530.9 137, 388.6 178.3, 427.8 343.3, 337.1 427.8, 130.9 493.8, 54.6 728.9, 238.1 854.7, 568.1 788.7, 588.7 665, 411.3 619.6, 522.7 549.5, 757.8 543.3, 821.7 444.3, 799 264.9, 735.1 151.5, 530.9 137 ), "
+				+ "(600.3 300.2, 700.7 300.2, 700.7 400.6, 600.3 400.6, 600.3 300.2))";
+		Polygon p = (Polygon) (new WKTReader()).read(polywt);
+		PreparedPolygon pp = new PreparedPolygon(p);
+
+		int width = 95;
+		int height = 110;
+		double xmin = -13.3;
+		double ymin = 21.7;
+		double cellsize = 9.7;
+
+		PolygonRasterizer raster = new PolygonRasterizer(width, height, xmin, ymin, cellsize, cellsize);
+		raster.fill(p, 3);
+
+		GeometryFactory gf = new GeometryFactory();
+		int filled = 0;
+		for (int x = 0; x < width; x ++) {
+			for (int y = 0; y < height; y ++) {
+				Point pnt = gf.createPoint(new Coordinate(xmin + (x + 0.5) * cellsize, ymin + (y + 0.5) * cellsize));
+				int expected = pp.contains(pnt) ? 3 : 0;
+				Assert.assertEquals("Invalid value for cell " + x + " " + y, expected, raster.getValue(x, y));
+				if (expected != 0) filled++;
+			}
+		}
+		Assert.assertTrue(filled > 0);
+	}
+}
@@ -18,6 +18,7 @@ package net.refractions.chyf;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.ExecutorService;
 
 import org.geotools.data.FeatureReader;
 import org.locationtech.jts.geom.Geometry;
@@ -29,6 +30,7 @@ import org.locationtech.jts.precision.GeometryPrecisionReducer;
 import org.opengis.feature.simple.SimpleFeature;
 import org.opengis.feature.simple.SimpleFeatureType;
 import org.opengis.feature.type.AttributeDescriptor;
+import org.opengis.referencing.crs.CoordinateReferenceSystem;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -53,10 +55,48 @@ public abstract class ChyfDataReader {
 
     protected List<Geometry> boundaries = new ArrayList<>();
 
+    /** number of features reprojected and precision reduced by a single task */
+    private static final int PREPARE_BATCH_SIZE = 256;
+    
+    private ExecutorService executor = null;
+    
     public abstract void read(HyGraphBuilder builder)  throws Exception ;
     
-	protected void readWaterbody(FeatureReader<SimpleFeatureType, SimpleFeature> reader, HyGraphBuilder gb) throws Exception {
+    /**
+     * Sets the executor used to reproject and precision reduce features.  If 
+     * not set this is done on the reading thread.
+     * 
+     * @param executor
+     */
+    public void setExecutor(ExecutorService executor) {
+    	this.executor = executor;
+    }
+    
+    /**
+     * Reprojects and precision reduces the geometries of the given features in batches
+     * on the executor, registering the work with the dataset.
+     */
+    protected void prepare(List<? extends StagedDataset.Feature> features, CoordinateReferenceSystem crs, StagedDataset dataset) {
+    	for (int start = 0; start < features.size(); start += PREPARE_BATCH_SIZE) {
+    		List<? extends StagedDataset.Feature> batch = features.subList(start, Math.min(features.size(), start + PREPARE_BATCH_SIZE));
+    		Runnable work = () -> {
+    			for (StagedDataset.Feature f : batch) {
+    				//features are not shared so can be reprojected in place
+    				Geometry g = GeotoolsGeometryReprojector.reprojectInPlace(f.geometry, crs, ChyfDatastore.BASE_CRS);
+    				f.geometry = GeometryPrecisionReducer.reduce(g, ChyfDatastore.PRECISION_MODEL);
+    			}
+    		};
+    		if (executor == null) {
+    			work.run();
+    		} else {
+    			dataset.addPending(executor.submit(work));
+    		}
+    	}
+    }
+    
+	protected void readWaterbody(FeatureReader<SimpleFeatureType, SimpleFeature> reader, StagedDataset dataset) throws Exception {
 
+		List<StagedDataset.Catchment> items = dataset.getWaterbodies();
 		while (reader.hasNext()) {
 			SimpleFeature feature = reader.next();
 			// System.out.print(feature.getID());
@@ -67,7 +107,6 @@ public abstract class ChyfDataReader {
 			}else if (g instanceof MultiPolygon) {
 				catchment = (Polygon) ((MultiPolygon)g).getGeometryN(0);
 			}
-			catchment = GeotoolsGeometryReprojector.reproject(catchment, reader.getFeatureType().getCoordinateReferenceSystem(), ChyfDatastore.BASE_CRS);
 			CatchmentType type = CatchmentType.UNKNOWN;
 			Object def = feature.getAttribute("DEFINITION");
 			Integer intValue = -1;
@@ -92,13 +131,12 @@ public abstract class ChyfDataReader {
 			}
 			double area = (double) feature.getAttribute("AREA");
 			
-			catchment = (Polygon) GeometryPrecisionReducer.reduce(catchment, ChyfDatastore.PRECISION_MODEL);
-			gb.addECatchment(type, area, catchment);
+			items.add(new StagedDataset.Catchment(catchment, type, area, null));
 		}
-
+		prepare(items, reader.getFeatureType().getCoordinateReferenceSystem(), dataset);
 	}
 
-	protected void readCatchment(FeatureReader<SimpleFeatureType, SimpleFeature> reader, HyGraphBuilder gb) throws Exception {
+	protected void readCatchment(FeatureReader<SimpleFeatureType, SimpleFeature> reader, StagedDataset dataset) throws Exception {
 		
 		
 		boolean[] hasAttribute = new boolean[ECatchment.ECatchmentStat.values().length];
@@ -110,6 +148,7 @@ public abstract class ChyfDataReader {
 			}
 		}
 				
+		List<StagedDataset.Catchment> items = dataset.getCatchments();
 		while (reader.hasNext()) {
 			SimpleFeature feature = reader.next();
 			Geometry g = (Geometry) feature.getDefaultGeometryProperty().getValue();
@@ -121,27 +160,21 @@ public abstract class ChyfDataReader {
 			}
 			double area = (double) feature.getAttribute("AREA");
 			
-			catchment = GeotoolsGeometryReprojector.reproject(catchment, reader.getFeatureType().getCoordinateReferenceSystem(), ChyfDatastore.BASE_CRS);
-			catchment = (Polygon) GeometryPrecisionReducer.reduce(catchment, ChyfDatastore.PRECISION_MODEL);
-			
-			ECatchment newCatchment = gb.addECatchment(CatchmentType.UNKNOWN, area, catchment);
-			if (newCatchment != null) {
-				//statistic attributes if applicable
-				for (int i = 0; i < hasAttribute.length; i ++) {
-					if (hasAttribute[i]) {
-						ECatchment.ECatchmentStat stat = ECatchment.ECatchmentStat.values()[i];
-						Double x = (Double)feature.getAttribute(stat.getFieldName());
-						if (x != null) {
-							stat.updateCatchment(newCatchment, x);
-						}
-					}
+			//statistic attributes if applicable
+			Double[] stats = new Double[hasAttribute.length];
+			for (int i = 0; i < hasAttribute.length; i ++) {
+				if (hasAttribute[i]) {
+					stats[i] = (Double)feature.getAttribute(ECatchment.ECatchmentStat.values()[i].getFieldName());
 				}
 			}
+			items.add(new StagedDataset.Catchment(catchment, CatchmentType.UNKNOWN, area, stats));
 		}
+		prepare(items, reader.getFeatureType().getCoordinateReferenceSystem(), dataset);
 	}
 
-	protected void readFlowpath(FeatureReader<SimpleFeatureType, SimpleFeature> reader, HyGraphBuilder gb) throws Exception {
+	protected void readFlowpath(FeatureReader<SimpleFeatureType, SimpleFeature> reader, StagedDataset dataset) throws Exception {
 		
+		List<StagedDataset.Flowpath> items = dataset.getFlowpaths();
 		while (reader.hasNext()) {
 			SimpleFeature feature = reader.next();
 			// System.out.print(feature.getID());
@@ -153,7 +186,6 @@ public abstract class ChyfDataReader {
 				flowPath = (LineString) ((MultiLineString)g).getGeometryN(0);
 			}
 			
-			flowPath = GeotoolsGeometryReprojector.reproject(flowPath, reader.getFeatureType().getCoordinateReferenceSystem(), ChyfDatastore.BASE_CRS);
 			FlowpathType type = FlowpathType.convert((String) feature.getAttribute("TYPE"));
 			String rankString = (String) feature.getAttribute("RANK");
 			Rank rank = Rank.convert(rankString);
@@ -166,19 +198,19 @@ public abstract class ChyfDataReader {
 			}
 			double length = (double) feature.getAttribute("LENGTH");
 			
-			flowPath = (LineString) GeometryPrecisionReducer.reduce(flowPath, ChyfDatastore.PRECISION_MODEL);
-			gb.addEFlowpath(type, rank, name, nameId, length, flowPath);
+			items.add(new StagedDataset.Flowpath(flowPath, type, rank, name, nameId, length));
 		}
+		prepare(items, reader.getFeatureType().getCoordinateReferenceSystem(), dataset);
 	}
 
-	protected void readBoundary(FeatureReader<SimpleFeatureType, SimpleFeature> reader, HyGraphBuilder gb) throws Exception {
+	protected void readBoundary(FeatureReader<SimpleFeatureType, SimpleFeature> reader, StagedDataset dataset) throws Exception {
+		List<StagedDataset.Feature> items = dataset.getBoundaryFeatures();
 		while (reader.hasNext()) {
 			SimpleFeature feature = reader.next();
 			Geometry g = (Geometry) feature.getDefaultGeometryProperty().getValue();
-			g = GeotoolsGeometryReprojector.reproject(g, reader.getFeatureType().getCoordinateReferenceSystem(), ChyfDatastore.BASE_CRS);
-			g = GeometryPrecisionReducer.reduce(g, ChyfDatastore.PRECISION_MODEL);
-			boundaries.add(g);
+			items.add(new StagedDataset.Feature(g));
 		}
+		prepare(items, reader.getFeatureType().getCoordinateReferenceSystem(), dataset);
 	}
 
 	public List<Geometry> getBoundaries(){
@@ -16,14 +16,20 @@
 package net.refractions.chyf;
 
 import java.io.File;
+import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
-import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.stream.Stream;
 
 import org.geotools.referencing.CRS;
@@ -37,6 +43,7 @@ import org.slf4j.LoggerFactory;
 
 import net.refractions.chyf.hygraph.HyGraph;
 import net.refractions.chyf.hygraph.HyGraphBuilder;
+import net.refractions.chyf.hygraph.HyGraphSnapshot;
 
 public class ChyfDatastore {
 
@@ -59,6 +66,11 @@ public class ChyfDatastore {
 	
 	public static final int MAX_RESULTS = 50000;
 	
+	/** number of threads used to reproject and precision reduce input features */
+	public static final int LOAD_THREADS = Runtime.getRuntime().availableProcessors();
+	/** maximum number of input datasets read at the same time */
+	public static final int MAX_READER_THREADS = 4;
+	
 	private HyGraph hyGraph;
 
 	/**
@@ -86,11 +98,35 @@ public class ChyfDatastore {
 	 * @param dataDir
 	 */
 	public ChyfDatastore(String dataDir) {
+		this(dataDir, null);
+	}
+
+	/**
+	 * Creates a new datastore reading input data from the data folder provided.  If a 
+	 * snapshot file is provided and it was written from the same input datasets the graph
+	 * is loaded from the snapshot, otherwise the graph is built from the input datasets 
+	 * and written to the snapshot file for the next start.
+	 *   
+	 * @param dataDir
+	 * @param snapshotFile the snapshot file, may be null
+	 */
+	public ChyfDatastore(String dataDir, String snapshotFile) {
 		try {
+			String checksum = null;
+			if (snapshotFile != null) {
+				checksum = HyGraphSnapshot.computeChecksum(Paths.get(dataDir), Paths.get(snapshotFile));
+				hyGraph = HyGraphSnapshot.read(Paths.get(snapshotFile), checksum);
+				if (hyGraph != null) {
+					logger.info("HyGraph loaded from snapshot " + snapshotFile);
+					return;
+				}
+			}
+			
 			//search for all possible input datasets
 			//these can either be geopackages or shapefiles
 			Path p = Paths.get(dataDir);
-			Set<String> inputs = new HashSet<>();
+			//sorted so the graph ids do not depend on the file system order
+			Set<String> inputs = new TreeSet<>();
 			try(Stream<Path> stream = Files.walk(p)){
 				for (Iterator<Path> iterator = stream.iterator(); iterator.hasNext();) {
 					Path item = iterator.next();
@@ -104,11 +140,35 @@ public class ChyfDatastore {
 			
 		    HyGraphBuilder gb = new HyGraphBuilder();
 		    List<Geometry> boundaries = new ArrayList<>();
-		    //add each of these datasets
-		    for (String in : inputs) {
-		    	boundaries.addAll(addDataset(in, gb));
+		    
+		    //datasets are read concurrently and their geometries prepared on a shared
+		    //pool, they are added to the builder one at a time in input order
+		    ExecutorService readerPool = Executors.newFixedThreadPool(Math.max(1, Math.min(inputs.size(), MAX_READER_THREADS)));
+		    ExecutorService preparePool = Executors.newFixedThreadPool(LOAD_THREADS);
+		    try {
+		    	List<Future<StagedDataset>> datasets = new ArrayList<>();
+		    	for (String in : inputs) {
+		    		datasets.add(readerPool.submit(createStageTask(in, preparePool)));
+		    	}
+		    	//add each of these datasets
+		    	for (Future<StagedDataset> f : datasets) {
+		    		StagedDataset dataset = getStaged(f);
+		    		dataset.addTo(gb);
+		    		boundaries.addAll(dataset.getBoundaries());
+		    	}
+		    } finally {
+		    	readerPool.shutdownNow();
+		    	preparePool.shutdownNow();
 		    }
 		    hyGraph = gb.build(boundaries);
+		    
+		    if (snapshotFile != null) {
+		    	try {
+		    		HyGraphSnapshot.write(hyGraph, Paths.get(snapshotFile), checksum);
+		    	}catch (IOException e) {
+		    		logger.warn("Unable to write HyGraph snapshot " + snapshotFile, e);
+		    	}
+		    }
 		}catch (Exception e) {
 			throw new RuntimeException(e);
 		}
@@ -118,17 +178,26 @@ public class ChyfDatastore {
 		return hyGraph;
 	}
 	
-	private List<Geometry> addDataset(String dataset, HyGraphBuilder gb) throws Exception {
+	private Callable<StagedDataset> createStageTask(String dataset, ExecutorService preparePool) throws Exception {
 		Path p = Paths.get(dataset);
 		if (Files.isDirectory(p)) {
 			ChyfShapeDataReader reader = new ChyfShapeDataReader(dataset);
-		    reader.read(gb);
-		    return reader.getBoundaries();
+			reader.setExecutor(preparePool);
+			return reader::stage;
 		}else if (p.toString().endsWith(".gpkg")) {
 			ChyfGeoPackageReader reader = new ChyfGeoPackageReader(p);
-		    reader.read(gb);
-		    return reader.getBoundaries();
+			reader.setExecutor(preparePool);
+			return reader::stage;
 		}
 		throw new Exception("No reader found for dataset: " + dataset);
 	}
+	
+	private StagedDataset getStaged(Future<StagedDataset> f) throws Exception {
+		try {
+			return f.get();
+		} catch (ExecutionException ex) {
+			if (ex.getCause() instanceof Exception) throw (Exception)ex.getCause();
+			throw ex;
+		}
+	}
 }
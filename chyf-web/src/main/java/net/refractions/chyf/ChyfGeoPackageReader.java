@@ -44,36 +44,50 @@ public class ChyfGeoPackageReader extends ChyfDataReader{
 	}
 	
 	public void read(HyGraphBuilder builder) throws Exception {
-			
+		StagedDataset dataset = stage();
+		dataset.addTo(builder);
+		boundaries.addAll(dataset.getBoundaries());
+	}
+	
+	/**
+	 * Reads the features of the geopackage, the geometries are prepared
+	 * on the executor if one is set.
+	 * 
+	 * @return the staged features
+	 */
+	public StagedDataset stage() throws Exception {
+		StagedDataset dataset = new StagedDataset(geopackageFile.toString());
 		GeoPackage reader = new GeoPackage(geopackageFile.toFile());
 		
 	    logger.info("Reading waterbodies");
 	    FeatureEntry items = reader.feature(WATERBODY_LAYER);
 		if (items == null) throw new Exception("No waterbody layer found in geopackage file");
 		try(FeatureReader<SimpleFeatureType, SimpleFeature> featureReader = reader.reader(items,  null,  null)){
-			super.readWaterbody(featureReader, builder);
+			super.readWaterbody(featureReader, dataset);
 		}
 	    
 		logger.info("Reading catchments");
 		items = reader.feature(CATCHMENT_LAYER);
 		if (items == null) throw new Exception("No Catchment layer found in geopackage file");
 		try(FeatureReader<SimpleFeatureType, SimpleFeature> featureReader = reader.reader(items,  null,  null)){
-			super.readCatchment(featureReader, builder);
+			super.readCatchment(featureReader, dataset);
 		}
 		
 		logger.info("Reading flowpaths");
 		items = reader.feature(FLOWPATH_LAYER);
 		if (items == null) throw new Exception("No Flowpath layer found in geopackage file");
 		try(FeatureReader<SimpleFeatureType, SimpleFeature> featureReader = reader.reader(items,  null,  null)){
-			super.readFlowpath(featureReader, builder);
+			super.readFlowpath(featureReader, dataset);
 		}
 		
 		logger.info("Reading boundary");
 		items = reader.feature(BOUNDARY_LAYER);
 		if (items == null) throw new Exception("No boundary layer found in geopackage file");
 		try(FeatureReader<SimpleFeatureType, SimpleFeature> featureReader = reader.reader(items,  null,  null)){
-			super.readBoundary(featureReader, builder);
+			super.readBoundary(featureReader, dataset);
 		}
 		
+		dataset.await();
+		return dataset;
 	}
 }
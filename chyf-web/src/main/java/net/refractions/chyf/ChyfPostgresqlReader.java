@@ -98,7 +98,7 @@ public class ChyfPostgresqlReader extends ChyfDataReader{
 					wCatchment = (Polygon) ((MultiPolygon)waterCatchment).getGeometryN(0);
 				}
 		    	CoordinateReferenceSystem wCatchmentCRS = GeotoolsGeometryReprojector.srsCodeToCRS(waterCatchment.getSRID());
-		    	wCatchment = (Polygon) GeotoolsGeometryReprojector.reproject(wCatchment, wCatchmentCRS, ChyfDatastore.BASE_CRS);
+		    	wCatchment = (Polygon) GeotoolsGeometryReprojector.reprojectInPlace(wCatchment, wCatchmentCRS, ChyfDatastore.BASE_CRS);
 			    CatchmentType type = CatchmentType.UNKNOWN;
 			    Object def = wb.getDefinition();
 			    Integer intValue = -1;
@@ -145,7 +145,7 @@ public class ChyfPostgresqlReader extends ChyfDataReader{
 				}
 				double area = c.getArea();
 				CoordinateReferenceSystem cCatchmentCRS = GeotoolsGeometryReprojector.srsCodeToCRS(catchment.getSRID());
-				cCatchment = GeotoolsGeometryReprojector.reproject(cCatchment, cCatchmentCRS, ChyfDatastore.BASE_CRS);
+				cCatchment = GeotoolsGeometryReprojector.reprojectInPlace(cCatchment, cCatchmentCRS, ChyfDatastore.BASE_CRS);
 				cCatchment = (Polygon) GeometryPrecisionReducer.reduce(cCatchment, ChyfDatastore.PRECISION_MODEL);
 				
 			    ECatchment newCatchment = gb.addECatchment(CatchmentType.UNKNOWN, area, cCatchment);
@@ -175,7 +175,7 @@ public class ChyfPostgresqlReader extends ChyfDataReader{
 					flowP = (LineString) ((MultiLineString)flowPath).getGeometryN(0);
 				}
 				CoordinateReferenceSystem flowPathCRS = GeotoolsGeometryReprojector.srsCodeToCRS(flowPath.getSRID());
-				flowP = GeotoolsGeometryReprojector.reproject(flowP, flowPathCRS, ChyfDatastore.BASE_CRS);
+				flowP = GeotoolsGeometryReprojector.reprojectInPlace(flowP, flowPathCRS, ChyfDatastore.BASE_CRS);
 				FlowpathType type = FlowpathType.convert(fp.getType());
 				String rankString = fp.getRank();
 			    Rank rank = Rank.convert(rankString);
@@ -206,7 +206,7 @@ public class ChyfPostgresqlReader extends ChyfDataReader{
 					boundary = (Polygon) ((MultiPolygon)gbound).getGeometryN(0);
 				}
 				CoordinateReferenceSystem boundaryCRS = GeotoolsGeometryReprojector.srsCodeToCRS(gbound.getSRID());
-				boundary = GeotoolsGeometryReprojector.reproject(boundary, boundaryCRS, ChyfDatastore.BASE_CRS);
+				boundary = GeotoolsGeometryReprojector.reprojectInPlace(boundary, boundaryCRS, ChyfDatastore.BASE_CRS);
 			    boundary = (Polygon) GeometryPrecisionReducer.reduce(boundary, ChyfDatastore.PRECISION_MODEL);
 			    boundaries.add(boundary);
 			}
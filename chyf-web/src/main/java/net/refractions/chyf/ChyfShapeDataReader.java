@@ -50,7 +50,20 @@ public class ChyfShapeDataReader extends ChyfDataReader {
 	}
 	
 	public void read(HyGraphBuilder builder) throws Exception {
+		StagedDataset dataset = stage();
+		dataset.addTo(builder);
+		boundaries.addAll(dataset.getBoundaries());
+	}
+	
+	/**
+	 * Reads the features of the shapefiles, the geometries are prepared
+	 * on the executor if one is set.
+	 * 
+	 * @return the staged features
+	 */
+	public StagedDataset stage() throws Exception {
 		String shapeDir = this.directory;
+		StagedDataset dataset = new StagedDataset(shapeDir);
 		
 	    Query query = new Query();
 	    
@@ -58,7 +71,7 @@ public class ChyfShapeDataReader extends ChyfDataReader {
 	    DataStore waterbodyDataStore = getShapeFileDataStore(shapeDir + WATERBODY_FILE);
 	    query.setTypeName(waterbodyDataStore.getTypeNames()[0]);
 	    try(FeatureReader<SimpleFeatureType, SimpleFeature> reader = waterbodyDataStore.getFeatureReader(query, null)){
-	    	super.readWaterbody(reader, builder);
+	    	super.readWaterbody(reader, dataset);
 	    }
 	    waterbodyDataStore.dispose();
 		
@@ -66,7 +79,7 @@ public class ChyfShapeDataReader extends ChyfDataReader {
 		DataStore catchmentDataStore = getShapeFileDataStore(shapeDir + CATCHMENT_FILE);
 		query.setTypeName(catchmentDataStore.getTypeNames()[0]);
 		try(FeatureReader<SimpleFeatureType, SimpleFeature> reader = catchmentDataStore.getFeatureReader(query, null)){
-	    	super.readCatchment(reader, builder);
+	    	super.readCatchment(reader, dataset);
 	    }
 	    catchmentDataStore.dispose();
 	    
@@ -74,7 +87,7 @@ public class ChyfShapeDataReader extends ChyfDataReader {
 		DataStore flowPathDataStore = getShapeFileDataStore(shapeDir + FLOWPATH_FILE);
 		query.setTypeName(flowPathDataStore.getTypeNames()[0]);
 		try(FeatureReader<SimpleFeatureType, SimpleFeature> reader = flowPathDataStore.getFeatureReader(query, null)){
-	    	super.readFlowpath(reader, builder);
+	    	super.readFlowpath(reader, dataset);
 	    }
 	    flowPathDataStore.dispose();
 	    
@@ -82,9 +95,12 @@ public class ChyfShapeDataReader extends ChyfDataReader {
 		DataStore boundaryDataStore = getShapeFileDataStore(shapeDir + BOUNDARY_FILE);
 		query.setTypeName(boundaryDataStore.getTypeNames()[0]);
 		try(FeatureReader<SimpleFeatureType, SimpleFeature> reader = boundaryDataStore.getFeatureReader(query, null)){
-	    	super.readBoundary(reader, builder);
+	    	super.readBoundary(reader, dataset);
 	    }
 	    boundaryDataStore.dispose();
+	    
+	    dataset.await();
+	    return dataset;
 	}
 	
 	
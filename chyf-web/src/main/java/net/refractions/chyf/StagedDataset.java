@@ -0,0 +1,174 @@
+/*
+ * Copyright 2019 Government of Canada
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.refractions.chyf;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.LineString;
+import org.locationtech.jts.geom.Polygon;
+
+import net.refractions.chyf.enumTypes.CatchmentType;
+import net.refractions.chyf.enumTypes.FlowpathType;
+import net.refractions.chyf.enumTypes.Rank;
+import net.refractions.chyf.hygraph.ECatchment;
+import net.refractions.chyf.hygraph.HyGraphBuilder;
+
+/**
+ * The features of a single input dataset after they have been read, reprojected
+ * and precision reduced, held until they are added to the HyGraphBuilder.
+ *
+ * Features are kept in the order they were read so the graph is built the same
+ * way regardless of how many threads were used to prepare the geometries.
+ */
+public class StagedDataset {
+
+	static class Feature {
+		Geometry geometry;
+
+		Feature(Geometry geometry) {
+			this.geometry = geometry;
+		}
+	}
+
+	static class Catchment extends Feature {
+		final CatchmentType type;
+		final double area;
+		final Double[] stats;
+
+		Catchment(Geometry geometry, CatchmentType type, double area, Double[] stats) {
+			super(geometry);
+			this.type = type;
+			this.area = area;
+			this.stats = stats;
+		}
+	}
+
+	static class Flowpath extends Feature {
+		final FlowpathType type;
+		final Rank rank;
+		final String name;
+		final UUID nameId;
+		final double length;
+
+		Flowpath(Geometry geometry, FlowpathType type, Rank rank, String name, UUID nameId, double length) {
+			super(geometry);
+			this.type = type;
+			this.rank = rank;
+			this.name = name;
+			this.nameId = nameId;
+			this.length = length;
+		}
+	}
+
+	private final String name;
+	private final List<Catchment> waterbodies = new ArrayList<>();
+	private final List<Catchment> catchments = new ArrayList<>();
+	private final List<Flowpath> flowpaths = new ArrayList<>();
+	private final List<Feature> boundaries = new ArrayList<>();
+	private final List<Future<?>> pending = Collections.synchronizedList(new ArrayList<>());
+
+	public StagedDataset(String name) {
+		this.name = name;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	List<Catchment> getWaterbodies() {
+		return waterbodies;
+	}
+
+	List<Catchment> getCatchments() {
+		return catchments;
+	}
+
+	List<Flowpath> getFlowpaths() {
+		return flowpaths;
+	}
+
+	List<Feature> getBoundaryFeatures() {
+		return boundaries;
+	}
+
+	/**
+	 * Registers geometry preparation work that must complete before
+	 * the features can be used.
+	 */
+	void addPending(Future<?> work) {
+		pending.add(work);
+	}
+
+	/**
+	 * Waits for all geometry preparation work to complete.
+	 */
+	public void await() throws Exception {
+		List<Future<?>> work;
+		synchronized(pending) {
+			work = new ArrayList<>(pending);
+			pending.clear();
+		}
+		for (Future<?> f : work) {
+			try {
+				f.get();
+			} catch (ExecutionException ex) {
+				if (ex.getCause() instanceof Exception) throw (Exception)ex.getCause();
+				throw ex;
+			}
+		}
+	}
+
+	public List<Geometry> getBoundaries(){
+		List<Geometry> items = new ArrayList<>(boundaries.size());
+		for (Feature f : boundaries) {
+			items.add(f.geometry);
+		}
+		return items;
+	}
+
+	/**
+	 * Adds the waterbodies, catchments and flowpaths to the builder in the
+	 * order they were read.
+	 *
+	 * @param gb
+	 */
+	public void addTo(HyGraphBuilder gb) throws Exception {
+		await();
+		for (Catchment c : waterbodies) {
+			gb.addECatchment(c.type, c.area, (Polygon) c.geometry);
+		}
+		for (Catchment c : catchments) {
+			ECatchment newCatchment = gb.addECatchment(c.type, c.area, (Polygon) c.geometry);
+			if (newCatchment != null && c.stats != null) {
+				//statistic attributes if applicable
+				for (int i = 0; i < c.stats.length; i ++) {
+					if (c.stats[i] != null) {
+						ECatchment.ECatchmentStat.values()[i].updateCatchment(newCatchment, c.stats[i]);
+					}
+				}
+			}
+		}
+		for (Flowpath f : flowpaths) {
+			gb.addEFlowpath(f.type, f.rank, f.name, f.nameId, f.length, (LineString) f.geometry);
+		}
+	}
+}
@@ -0,0 +1,232 @@
+/*
+ * Copyright 2019 Government of Canada
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.refractions.chyf.hygraph;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.operation.union.UnaryUnionOp;
+
+/**
+ * Caches the unioned upstream drainage area geometry at "hub" nexuses,
+ * confluences where the downstream flowpath has a Strahler order of at least
+ * the configured threshold.  Upstream drainage areas are built by unioning
+ * the cached hub geometries with the remaining elementary catchments that
+ * are not covered by a hub.
+ *
+ * The cache is populated lazily and bounded to a maximum number of hubs,
+ * evicting the least recently used.
+ */
+public class DrainageAreaCache {
+
+	public static final int DEFAULT_HUB_MIN_STRAHLER_ORDER = 4;
+	public static final int DEFAULT_MAX_ENTRIES = 1024;
+
+	private final HyGraph graph;
+	private final HyGraphTopology topology;
+	private final BitSet hubs;
+	private final Map<Integer, Geometry> cache;
+	// guarded by cache
+	private long evictions = 0;
+
+	public DrainageAreaCache(HyGraph graph, HyGraphTopology topology) {
+		this(graph, topology, DEFAULT_HUB_MIN_STRAHLER_ORDER, DEFAULT_MAX_ENTRIES);
+	}
+
+	/**
+	 * @param minStrahlerOrder confluences with a downstream flowpath of at least this order are hubs
+	 * @param maxEntries the maximum number of hub geometries kept
+	 */
+	public DrainageAreaCache(HyGraph graph, HyGraphTopology topology, int minStrahlerOrder, int maxEntries) {
+		this.graph = graph;
+		this.topology = topology;
+		this.cache = new LinkedHashMap<Integer, Geometry>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Integer, Geometry> eldest) {
+				if(size() <= maxEntries) return false;
+				evictions++;
+				return true;
+			}
+		};
+
+		int[] upOffsets = topology.getNexusUpOffsets();
+		int[] downOffsets = topology.getNexusDownOffsets();
+		int[] downFlowpaths = topology.getNexusDownFlowpaths();
+		hubs = new BitSet(topology.getNexusCount());
+		for(int n = 0; n < topology.getNexusCount(); n++) {
+			if(upOffsets[n + 1] - upOffsets[n] < 2) continue;
+			for(int k = downOffsets[n]; k < downOffsets[n + 1]; k++) {
+				Integer order = topology.eFlowpath(downFlowpaths[k]).getStrahlerOrder();
+				if(order != null && order >= minStrahlerOrder) {
+					hubs.set(n);
+					break;
+				}
+			}
+		}
+	}
+
+	public int getHubCount() {
+		return hubs.cardinality();
+	}
+
+	/**
+	 * @return the number of hub geometries currently cached
+	 */
+	public int size() {
+		synchronized(cache) {
+			return cache.size();
+		}
+	}
+
+	/**
+	 * @return the number of hub geometries evicted to stay within the maximum size
+	 */
+	public long getEvictionCount() {
+		synchronized(cache) {
+			return evictions;
+		}
+	}
+
+	public void clear() {
+		synchronized(cache) {
+			cache.clear();
+		}
+	}
+
+	private Geometry getCached(int nexus) {
+		synchronized(cache) {
+			return cache.get(nexus);
+		}
+	}
+
+	/**
+	 * Computes the union of the given catchment and all catchments upstream of it.
+	 *
+	 * @param eCatchment
+	 * @return the unioned geometry
+	 */
+	public Geometry getUpstreamGeometry(ECatchment eCatchment) {
+		int start = topology.indexOf(eCatchment);
+
+		// populate any missing hubs upstream, most upstream first, so each
+		// hub only has to union its own residual catchments
+		List<Integer> missing = findMissingHubs(start);
+		for(int i = missing.size() - 1; i >= 0; i--) {
+			int hub = missing.get(i);
+			if(getCached(hub) != null) continue;
+			Geometry g = union(-1, hub);
+			synchronized(cache) {
+				cache.put(hub, g);
+			}
+		}
+		return union(start, -1);
+	}
+
+	/*
+	 * Finds the hubs upstream of the catchment that are not yet cached
+	 * in the order they are reached walking upstream.
+	 */
+	private List<Integer> findMissingHubs(int start) {
+		List<Integer> missing = new ArrayList<>();
+		int[] catchmentOffsets = topology.getCatchmentUpOffsets();
+		int[] catchmentNexuses = topology.getCatchmentUpNexuses();
+		int[] flowOffsets = topology.getNexusUpOffsets();
+		int[] flowpaths = topology.getNexusUpFlowpaths();
+		try(TraversalState state = graph.beginTraversal()) {
+			state.markCatchment(start);
+			state.enqueue(start);
+			while(!state.isQueueEmpty()) {
+				int c = state.dequeue();
+				for(int j = catchmentOffsets[c]; j < catchmentOffsets[c + 1]; j++) {
+					int n = catchmentNexuses[j];
+					if(!state.markNexus(n)) continue;
+					if(hubs.get(n)) {
+						if(getCached(n) != null) continue;
+						missing.add(n);
+					}
+					for(int k = flowOffsets[n]; k < flowOffsets[n + 1]; k++) {
+						int up = topology.getFlowpathCatchment(flowpaths[k]);
+						if(up != HyGraphTopology.NONE && state.markCatchment(up)) {
+							state.enqueue(up);
+						}
+					}
+					int bank = topology.getNexusBankCatchment(n);
+					if(bank != HyGraphTopology.NONE && state.markCatchment(bank)) {
+						state.enqueue(bank);
+					}
+				}
+			}
+		}
+		return missing;
+	}
+
+	/*
+	 * Unions everything upstream of either the start catchment or the start
+	 * nexus, substituting cached hub geometries where available.
+	 */
+	private Geometry union(int startCatchment, int startNexus) {
+		List<Geometry> geoms = new ArrayList<>();
+		int[] catchmentOffsets = topology.getCatchmentUpOffsets();
+		int[] catchmentNexuses = topology.getCatchmentUpNexuses();
+		try(TraversalState state = graph.beginTraversal()) {
+			if(startCatchment != -1) {
+				state.markCatchment(startCatchment);
+				state.enqueue(startCatchment);
+				geoms.add(topology.eCatchment(startCatchment).getPolygon());
+			} else {
+				state.markNexus(startNexus);
+				expand(startNexus, state, geoms);
+			}
+			while(!state.isQueueEmpty()) {
+				int c = state.dequeue();
+				for(int j = catchmentOffsets[c]; j < catchmentOffsets[c + 1]; j++) {
+					int n = catchmentNexuses[j];
+					if(!state.markNexus(n)) continue;
+					Geometry cached = hubs.get(n) ? getCached(n) : null;
+					if(cached != null) {
+						geoms.add(cached);
+					} else {
+						expand(n, state, geoms);
+					}
+				}
+			}
+		}
+		return UnaryUnionOp.union(geoms);
+	}
+
+	private void expand(int n, TraversalState state, List<Geometry> geoms) {
+		int[] flowOffsets = topology.getNexusUpOffsets();
+		int[] flowpaths = topology.getNexusUpFlowpaths();
+		for(int k = flowOffsets[n]; k < flowOffsets[n + 1]; k++) {
+			int up = topology.getFlowpathCatchment(flowpaths[k]);
+			if(up != HyGraphTopology.NONE && state.markCatchment(up)) {
+				state.enqueue(up);
+				geoms.add(topology.eCatchment(up).getPolygon());
+			}
+		}
+		int bank = topology.getNexusBankCatchment(n);
+		if(bank != HyGraphTopology.NONE && state.markCatchment(bank)) {
+			state.enqueue(bank);
+			geoms.add(topology.eCatchment(bank).getPolygon());
+		}
+	}
+}
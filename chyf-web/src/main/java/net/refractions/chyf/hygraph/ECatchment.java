@@ -19,7 +19,13 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 
+import org.locationtech.jts.algorithm.locate.IndexedPointInAreaLocator;
+import org.locationtech.jts.algorithm.locate.PointOnGeometryLocator;
+import org.locationtech.jts.algorithm.locate.SimplePointInAreaLocator;
+import org.locationtech.jts.geom.Coordinate;
+
 import org.locationtech.jts.geom.Envelope;
+import org.locationtech.jts.geom.Location;
 import org.locationtech.jts.geom.Point;
 import org.locationtech.jts.geom.Polygon;
 
@@ -121,6 +127,13 @@ public class ECatchment implements SpatiallyIndexable {
 		}
 	}
 	
+	/** polygons with fewer vertices than this are tested directly rather than indexed */
+	private static final int INDEXED_LOCATOR_MIN_POINTS = 64;
+	/** maximum number of indexed polygons kept in memory */
+	private static final int MAX_CACHED_LOCATORS = 2048;
+	
+	private static volatile LocatorCache locators = new LocatorCache(MAX_CACHED_LOCATORS);
+	
 	private final int id;
 	private final double area;
 	private final Polygon polygon;
@@ -133,6 +146,10 @@ public class ECatchment implements SpatiallyIndexable {
 	private List<EFlowpath> flowpaths;
 	private List<Nexus> upNexuses; 
 	private List<Nexus> downNexuses; 
+	private HyGraphTopology topology = null;
+	/** indexed locator for large polygons, created on first use and released by the locator cache */
+	private volatile PointOnGeometryLocator locator = null;
+	private volatile boolean locatorUsed = false;
 	
 	private double minElevation = Double.NaN;
 	private double maxElevation = Double.NaN;
@@ -228,6 +245,69 @@ public class ECatchment implements SpatiallyIndexable {
 		return polygon.distance(p);
 	}
 
+	/**
+	 * Tests if the point is in the interior of the catchment polygon, equivalent to
+	 * getPolygon().contains(p).  Large polygons are tested using an indexed locator
+	 * which is created on first use and kept in a bounded cache.
+	 */
+	public boolean contains(Point p) {
+		return locate(p) == Location.INTERIOR;
+	}
+
+	/**
+	 * Tests if the point is in the interior or on the boundary of the catchment polygon, 
+	 * equivalent to getPolygon().covers(p).
+	 */
+	public boolean covers(Point p) {
+		return locate(p) != Location.EXTERIOR;
+	}
+
+	private int locate(Point p) {
+		Coordinate c = p.getCoordinate();
+		if(c == null || !polygon.getEnvelopeInternal().contains(c)) {
+			return Location.EXTERIOR;
+		}
+		if(polygon.getNumPoints() < INDEXED_LOCATOR_MIN_POINTS) {
+			return SimplePointInAreaLocator.locate(c, polygon);
+		}
+		PointOnGeometryLocator l = locator;
+		if(l == null) {
+			// concurrent callers may each build a locator, any of them can be kept
+			l = new IndexedPointInAreaLocator(polygon);
+			locator = l;
+			locators.add(this);
+		} else {
+			locatorUsed = true;
+		}
+		return l.locate(c);
+	}
+
+	boolean hasLocator() {
+		return locator != null;
+	}
+
+	void releaseLocator() {
+		locator = null;
+		locatorUsed = false;
+	}
+
+	/**
+	 * @return true if the locator was used since the flag was last cleared
+	 */
+	boolean clearLocatorUsed() {
+		boolean used = locatorUsed;
+		locatorUsed = false;
+		return used;
+	}
+
+	static LocatorCache getLocatorCache() {
+		return locators;
+	}
+
+	static void setLocatorCache(LocatorCache cache) {
+		locators = cache;
+	}
+
 	public void addFlowpath(EFlowpath flowpath) {
 		if(flowpath.getRank() != Rank.UNKNOWN 
 				&& (rank == Rank.UNKNOWN || (flowpath.getRank().ordinal() < rank.ordinal()))) {
@@ -241,21 +321,43 @@ public class ECatchment implements SpatiallyIndexable {
 	}	
 
 	public void addUpNexus(Nexus nexus) {
+		if(topology != null) {
+			throw new IllegalStateException("ECatchment " + id + " is already part of a built HyGraph.");
+		}
 		upNexuses.add(nexus);
 	}
 
 	public void addDownNexus(Nexus nexus) {
+		if(topology != null) {
+			throw new IllegalStateException("ECatchment " + id + " is already part of a built HyGraph.");
+		}
 		downNexuses.add(nexus);
 	}
 	
 	public List<Nexus> getUpNexuses() {
+		if(topology != null) {
+			return topology.upNexuses(id - 1);
+		}
 		return Collections.unmodifiableList(upNexuses);
 	}
 
 	public List<Nexus> getDownNexuses() {
+		if(topology != null) {
+			return topology.downNexuses(id - 1);
+		}
 		return Collections.unmodifiableList(downNexuses);
 	}
 
+	/**
+	 * Switches the up/down nexus lists to views over the compact topology
+	 * and releases the per-catchment lists.
+	 */
+	void bindTopology(HyGraphTopology topology) {
+		this.topology = topology;
+		this.upNexuses = null;
+		this.downNexuses = null;
+	}
+
 	public double getMinElevation() {
 		return this.minElevation;
 	}
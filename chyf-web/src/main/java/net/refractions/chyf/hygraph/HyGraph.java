@@ -17,11 +17,14 @@ package net.refractions.chyf.hygraph;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.NoSuchElementException;
 import java.util.Set;
 
 import org.locationtech.jts.geom.Envelope;
@@ -35,10 +38,7 @@ import org.slf4j.LoggerFactory;
 
 import net.refractions.chyf.ChyfDatastore;
 import net.refractions.chyf.enumTypes.CatchmentType;
-import net.refractions.chyf.enumTypes.NexusType;
 import net.refractions.chyf.hygraph.ECatchment.ECatchmentStat;
-import net.refractions.chyf.indexing.BboxIntersectsFilter;
-import net.refractions.chyf.indexing.ECatchmentContainsPointFilter;
 import net.refractions.chyf.indexing.Filter;
 import net.refractions.chyf.indexing.RTree;
 import net.refractions.chyf.indexing.SpatiallyIndexable;
@@ -52,11 +52,31 @@ public class HyGraph {
 	private RTree<Nexus> nexusIndex;
 	private RTree<EFlowpath> eFlowpathIndex;
 	private RTree<ECatchment> eCatchmentIndex;
+	private HyGraphTopology topology;
+	private ReachabilityIndex eFlowpathReachability;
+	private DrainageAreaCache drainageAreaCache;
+	private final ThreadLocal<TraversalState> traversalStates = new ThreadLocal<>();
 
 	public HyGraph(Nexus[] nexuses, EFlowpath[] eFlowpaths, ECatchment[] eCatchments) {
+		this(nexuses, eFlowpaths, eCatchments, HyGraphTopology.build(nexuses, eFlowpaths, eCatchments));
+	}
+
+	public HyGraph(Nexus[] nexuses, EFlowpath[] eFlowpaths, ECatchment[] eCatchments, HyGraphTopology topology) {
+		this(nexuses, eFlowpaths, eCatchments, topology,
+				new RTree<Nexus>(Arrays.asList(nexuses)),
+				new RTree<EFlowpath>(Arrays.asList(eFlowpaths)),
+				new RTree<ECatchment>(Arrays.asList(eCatchments)));
+	}
+
+	/**
+	 * Creates the graph with prebuilt spatial indexes, used when loading a snapshot.
+	 */
+	HyGraph(Nexus[] nexuses, EFlowpath[] eFlowpaths, ECatchment[] eCatchments, HyGraphTopology topology,
+			RTree<Nexus> nexusIndex, RTree<EFlowpath> eFlowpathIndex, RTree<ECatchment> eCatchmentIndex) {
 		this.nexuses = nexuses;
 		this.eFlowpaths = eFlowpaths;
 		this.eCatchments = eCatchments;
+		this.topology = topology;
 
 		// Sort the terminal nodes first for easy access
 		// Actually don't as this ruins the id-based array access 
@@ -74,9 +94,41 @@ public class HyGraph {
 //			}
 //		});
 
-		nexusIndex = new RTree<Nexus>(Arrays.asList(nexuses));
-		eFlowpathIndex = new RTree<EFlowpath>(Arrays.asList(eFlowpaths));
-		eCatchmentIndex = new RTree<ECatchment>(Arrays.asList(eCatchments));
+		this.nexusIndex = nexusIndex;
+		this.eFlowpathIndex = eFlowpathIndex;
+		this.eCatchmentIndex = eCatchmentIndex;
+		eFlowpathReachability = buildEFlowpathReachability(topology);
+		drainageAreaCache = new DrainageAreaCache(this, topology);
+	}
+
+	DrainageAreaCache getDrainageAreaCache() {
+		return drainageAreaCache;
+	}
+
+	/**
+	 * Replaces the cache used to build upstream drainage areas, for example 
+	 * to use a different hub threshold or capacity.
+	 */
+	void setDrainageAreaCache(DrainageAreaCache drainageAreaCache) {
+		this.drainageAreaCache = drainageAreaCache;
+	}
+
+	private static ReachabilityIndex buildEFlowpathReachability(HyGraphTopology topology) {
+		// flowpath -> downstream flowpaths through the downstream nexus
+		int[] nexusOffsets = topology.getNexusDownOffsets();
+		int[] nexusFlowpaths = topology.getNexusDownFlowpaths();
+		int size = topology.getEFlowpathCount();
+		int[] offsets = new int[size + 1];
+		for(int f = 0; f < size; f++) {
+			int n = topology.getFlowpathToNexus(f);
+			offsets[f + 1] = offsets[f] + nexusOffsets[n + 1] - nexusOffsets[n];
+		}
+		int[] targets = new int[offsets[size]];
+		for(int f = 0; f < size; f++) {
+			int n = topology.getFlowpathToNexus(f);
+			System.arraycopy(nexusFlowpaths, nexusOffsets[n], targets, offsets[f], nexusOffsets[n + 1] - nexusOffsets[n]);
+		}
+		return new ReachabilityIndex(size, offsets, targets);
 	}
 	
 	public Nexus getNexus(int nexusId) {
@@ -86,6 +138,38 @@ public class HyGraph {
 		return null;
 	}
 
+	public HyGraphTopology getTopology() {
+		return topology;
+	}
+
+	RTree<Nexus> getNexusIndex() {
+		return nexusIndex;
+	}
+
+	RTree<EFlowpath> getEFlowpathIndex() {
+		return eFlowpathIndex;
+	}
+
+	RTree<ECatchment> getECatchmentIndex() {
+		return eCatchmentIndex;
+	}
+
+	/**
+	 * Returns the traversal scratch space of the current thread, ready for
+	 * a new traversal. A fresh instance is returned if the pooled one is
+	 * already in use by an enclosing traversal. Close it when done.
+	 */
+	public TraversalState beginTraversal() {
+		TraversalState state = traversalStates.get();
+		if(state == null) {
+			state = new TraversalState(topology);
+			traversalStates.set(state);
+		} else if(state.isInUse()) {
+			state = new TraversalState(topology);
+		}
+		return state.begin();
+	}
+
 	public EFlowpath getEFlowpath(int eflowpathId) {
 		if(eflowpathId > 0 && eflowpathId <= eFlowpaths.length) {
 			return eFlowpaths[eflowpathId-1];
@@ -102,11 +186,9 @@ public class HyGraph {
 	 * 		is not contained in any elementary catchment
 	 */
 	public EFlowpath getEFlowpath(Point point) {
-		List<ECatchment> possibleCatchments = eCatchmentIndex.search(point, 1, null, 
-				new ECatchmentContainsPointFilter(point));
+		ECatchment c = getECatchment(point);
 		EFlowpath flowpath = null;
-		if(possibleCatchments.size() > 0) {
-			ECatchment c = possibleCatchments.get(0);
+		if(c != null) {
 			List<EFlowpath> possibleFlowpaths = c.getFlowpaths();
 			switch(possibleFlowpaths.size()) {
 				case 0:
@@ -155,9 +237,10 @@ public class HyGraph {
 	}
 
 	public ECatchment getECatchment(Point point) {
-		List<ECatchment> eCatchments = findECatchments(point, 1, 0.0, new ECatchmentContainsPointFilter(point));
-		if(eCatchments.size() > 0) {
-			return eCatchments.get(0);
+		for(ECatchment c : eCatchmentIndex.iterate(point.getEnvelopeInternal())) {
+			if(c.contains(point)) {
+				return c;
+			}
 		}
 		return null;
 	}
@@ -170,13 +253,8 @@ public class HyGraph {
 	 * @return
 	 */
 	public List<ECatchment> findECatchments(Polygon p) {
-		Envelope e = p.getEnvelopeInternal();
-		double distance = Math.sqrt( (e.getWidth() * e.getWidth()) + (e.getHeight() * e.getHeight())) / 2;
-		BboxIntersectsFilter<ECatchment> filter = new BboxIntersectsFilter<>(e);
-		Point center = p.getFactory().createPoint(e.centre());
-		
 		List<ECatchment> items = new ArrayList<>();
-		for (ECatchment cat : eCatchmentIndex.search(center, 1000, distance, filter)) {
+		for (ECatchment cat : eCatchmentIndex.iterate(p.getEnvelopeInternal())) {
 			if (cat.getPolygon().relate(p, "2********")) {
 				items.add(cat);
 			}	
@@ -190,15 +268,43 @@ public class HyGraph {
 	 * @return
 	 */
 	public List<EFlowpath> findEFlowpaths(Envelope e, Filter<EFlowpath> filter) {
-		double distance = Math.sqrt( (e.getWidth() * e.getWidth()) + (e.getHeight() * e.getHeight())) / 2;
-		BboxIntersectsFilter<EFlowpath> bboxfilter = new BboxIntersectsFilter<>(e);
-		Point center = eFlowpaths[0].getLineString().getFactory().createPoint(e.centre());
-		Filter<EFlowpath> combined = item->filter.pass(item) && bboxfilter.pass(item);
-		List<EFlowpath> items = new ArrayList<>();
-		for (EFlowpath cat : eFlowpathIndex.search(center, 1000, distance, combined)) {
-			items.add(cat);
-		}
-		return items;
+		return findEFlowpaths(e, Integer.MAX_VALUE, filter);
+	}
+	
+	/**
+	 * Finds flow paths whose envelopes intersect the given envelope
+	 * 
+	 * @param e
+	 * @param maxResults
+	 * @param filter optional filter
+	 * @return
+	 */
+	public List<EFlowpath> findEFlowpaths(Envelope e, int maxResults, Filter<EFlowpath> filter) {
+		return eFlowpathIndex.search(e, maxResults, filter);
+	}
+	
+	/**
+	 * Finds ecatchments whose envelopes intersect the given envelope
+	 * 
+	 * @param e
+	 * @param maxResults
+	 * @param filter optional filter
+	 * @return
+	 */
+	public List<ECatchment> findECatchments(Envelope e, int maxResults, Filter<ECatchment> filter) {
+		return eCatchmentIndex.search(e, maxResults, filter);
+	}
+	
+	/**
+	 * Finds nexuses within the given envelope
+	 * 
+	 * @param e
+	 * @param maxResults
+	 * @param filter optional filter
+	 * @return
+	 */
+	public List<Nexus> findNexuses(Envelope e, int maxResults, Filter<Nexus> filter) {
+		return nexusIndex.search(e, maxResults, filter);
 	}
 	
 	public List<ECatchment> findECatchments(Point p, int maxResults, Double maxDistance, Filter<ECatchment> f) {
@@ -214,24 +320,26 @@ public class HyGraph {
 	}
 
 	public List<EFlowpath> getUpstreamEFlowpaths(EFlowpath eFlowpath, int maxResults) {
-		if(eFlowpath == null) {
-			return Collections.emptyList();
+		return getConnectedEFlowpaths(eFlowpath, maxResults, true);
+	}
+
+	/**
+	 * Determines if the downstream flowpath can be reached by following the
+	 * flow network downstream from the upstream flowpath.
+	 * 
+	 * @param upstream the flowpath to start from
+	 * @param downstream the flowpath to reach
+	 * @return true if upstream flows into downstream
+	 */
+	public boolean isUpstreamOf(EFlowpath upstream, EFlowpath downstream) {
+		int up = topology.indexOf(upstream);
+		int down = topology.indexOf(downstream);
+		if(up == HyGraphTopology.NONE || down == HyGraphTopology.NONE) {
+			return false;
+		}
+		try(TraversalState state = beginTraversal()) {
+			return eFlowpathReachability.isUpstreamOf(up, down, state);
 		}
-		HashSet<EFlowpath> resultSet = new HashSet<EFlowpath>(maxResults);
-		List<EFlowpath> results = new ArrayList<EFlowpath>(maxResults);
-		results.add(eFlowpath);
-		resultLoop:
-			for(int i = 0; i < results.size(); i++) {
-				for(EFlowpath upstream: results.get(i).getFromNode().getUpFlows()) {
-					if(resultSet.add(upstream)) {
-						results.add(upstream);
-						if(results.size() >= maxResults) {
-							break resultLoop;
-						}
-					}
-				}
-			}
-		return results;
 	}
 
 	/**
@@ -296,51 +404,84 @@ public class HyGraph {
 	}
 		
 	public Collection<EFlowpath> getDownstreamEFlowpaths(EFlowpath eFlowpath, int maxResults) {
+		return getConnectedEFlowpaths(eFlowpath, maxResults, false);
+	}
+
+	private List<EFlowpath> getConnectedEFlowpaths(EFlowpath eFlowpath, int maxResults, boolean upstream) {
 		if(eFlowpath == null) {
 			return Collections.emptyList();
 		}
-		HashSet<EFlowpath> resultSet = new HashSet<EFlowpath>(maxResults);
-		List<EFlowpath> results = new ArrayList<EFlowpath>(maxResults);
+		int start = topology.indexOf(eFlowpath);
+		if(start == HyGraphTopology.NONE) {
+			return Collections.singletonList(eFlowpath);
+		}
+		int[] offsets = upstream ? topology.getNexusUpOffsets() : topology.getNexusDownOffsets();
+		int[] neighbours = upstream ? topology.getNexusUpFlowpaths() : topology.getNexusDownFlowpaths();
+		int size = Math.min(ChyfDatastore.MAX_RESULTS, maxResults);
+		List<EFlowpath> results = new ArrayList<EFlowpath>(size);
 		results.add(eFlowpath);
-		resultLoop:
-			for(int i = 0; i < results.size(); i++) {
-				for(EFlowpath downstream: results.get(i).getToNode().getDownFlows()) {
-					if(resultSet.add(downstream)) {
-						results.add(downstream);
-						if(results.size() >= maxResults) {
-							break resultLoop;
+		try(TraversalState state = beginTraversal()) {
+			state.enqueue(start);
+			resultLoop:
+				while(!state.isQueueEmpty()) {
+					int f = state.dequeue();
+					int n = upstream ? topology.getFlowpathFromNexus(f) : topology.getFlowpathToNexus(f);
+					for(int k = offsets[n]; k < offsets[n+1]; k++) {
+						int next = neighbours[k];
+						if(state.markFlowpath(next)) {
+							results.add(topology.eFlowpath(next));
+							state.enqueue(next);
+							if(results.size() >= maxResults) {
+								break resultLoop;
+							}
 						}
 					}
 				}
-			}
+		}
 		return results;
 	}
 
 	public List<ECatchment> getUpstreamECatchments(ECatchment eCatchment, int maxResults) {
+		return getConnectedECatchments(eCatchment, maxResults, true);
+	}
+
+	public List<ECatchment> getDownstreamECatchments(ECatchment eCatchment, int maxResults) {
+		return getConnectedECatchments(eCatchment, maxResults, false);
+	}
+
+	private List<ECatchment> getConnectedECatchments(ECatchment eCatchment, int maxResults, boolean upstream) {
 		if(eCatchment == null) {
 			return Collections.emptyList();
 		}
+		int[] nexusOffsets = upstream ? topology.getCatchmentUpOffsets() : topology.getCatchmentDownOffsets();
+		int[] nexusNeighbours = upstream ? topology.getCatchmentUpNexuses() : topology.getCatchmentDownNexuses();
+		int[] flowOffsets = upstream ? topology.getNexusUpOffsets() : topology.getNexusDownOffsets();
+		int[] flowNeighbours = upstream ? topology.getNexusUpFlowpaths() : topology.getNexusDownFlowpaths();
 		int size = Math.min(ChyfDatastore.MAX_RESULTS, maxResults);
-		HashSet<ECatchment> resultSet = new HashSet<ECatchment>(size);
-		List<ECatchment> results = new ArrayList<ECatchment>(size);
+		ArrayList<ECatchment> results = new ArrayList<ECatchment>(size);
 		results.add(eCatchment);
-		resultLoop:
-			for(int i = 0; i < results.size(); i++) {
-				for(Nexus n: results.get(i).getUpNexuses()) {
-					for(EFlowpath f: n.getUpFlows()) {
-						if(f.getCatchment() != null) {
-							if(resultSet.add(f.getCatchment())) {
-								results.add(f.getCatchment());
+		try(TraversalState state = beginTraversal()) {
+			state.enqueue(topology.indexOf(eCatchment));
+			resultLoop:
+				while(!state.isQueueEmpty()) {
+					int c = state.dequeue();
+					for(int j = nexusOffsets[c]; j < nexusOffsets[c+1]; j++) {
+						int n = nexusNeighbours[j];
+						for(int k = flowOffsets[n]; k < flowOffsets[n+1]; k++) {
+							int next = topology.getFlowpathCatchment(flowNeighbours[k]);
+							if(next != HyGraphTopology.NONE && state.markCatchment(next)) {
+								results.add(topology.eCatchment(next));
+								state.enqueue(next);
 								if(results.size() >= maxResults) {
 									break resultLoop;
 								}
 							}
 						}
-					}
-					if(n.getType() == NexusType.BANK) {
-						if(n.getBankCatchment() != null) {
-							if(resultSet.add(n.getBankCatchment())) {
-								results.add(n.getBankCatchment());
+						if(upstream) {
+							int bank = topology.getNexusBankCatchment(n);
+							if(bank != HyGraphTopology.NONE && state.markCatchment(bank)) {
+								results.add(topology.eCatchment(bank));
+								state.enqueue(bank);
 								if(results.size() >= maxResults) {
 									break resultLoop;
 								}
@@ -348,38 +489,161 @@ public class HyGraph {
 						}
 					}
 				}
-			}
+		}
 		return results;
 	}
 
-	public List<ECatchment> getDownstreamECatchments(ECatchment eCatchment, int maxResults) {
+	/**
+	 * Lazy version of getUpstreamEFlowpaths, the network is traversed
+	 * as the results are iterated so results can be streamed out
+	 * without being collected first.
+	 */
+	public Iterable<EFlowpath> iterateUpstreamEFlowpaths(EFlowpath eFlowpath, int maxResults) {
+		return iterateEFlowpaths(eFlowpath, maxResults, true);
+	}
+
+	/**
+	 * Lazy version of getDownstreamEFlowpaths
+	 * @see #iterateUpstreamEFlowpaths(EFlowpath, int)
+	 */
+	public Iterable<EFlowpath> iterateDownstreamEFlowpaths(EFlowpath eFlowpath, int maxResults) {
+		return iterateEFlowpaths(eFlowpath, maxResults, false);
+	}
+
+	/**
+	 * Lazy version of getUpstreamECatchments
+	 * @see #iterateUpstreamEFlowpaths(EFlowpath, int)
+	 */
+	public Iterable<ECatchment> iterateUpstreamECatchments(ECatchment eCatchment, int maxResults) {
+		return iterateECatchments(eCatchment, maxResults, true);
+	}
+
+	/**
+	 * Lazy version of getDownstreamECatchments
+	 * @see #iterateUpstreamEFlowpaths(EFlowpath, int)
+	 */
+	public Iterable<ECatchment> iterateDownstreamECatchments(ECatchment eCatchment, int maxResults) {
+		return iterateECatchments(eCatchment, maxResults, false);
+	}
+
+	private Iterable<EFlowpath> iterateEFlowpaths(EFlowpath eFlowpath, int maxResults, boolean upstream) {
+		if(eFlowpath == null) {
+			return Collections.emptyList();
+		}
+		int start = topology.indexOf(eFlowpath);
+		if(start == HyGraphTopology.NONE) {
+			return Collections.singletonList(eFlowpath);
+		}
+		int[] offsets = upstream ? topology.getNexusUpOffsets() : topology.getNexusDownOffsets();
+		int[] neighbours = upstream ? topology.getNexusUpFlowpaths() : topology.getNexusDownFlowpaths();
+		return () -> new LazyTraversal<EFlowpath>(start, maxResults) {
+			@Override
+			protected void expand(int f) {
+				int n = upstream ? topology.getFlowpathFromNexus(f) : topology.getFlowpathToNexus(f);
+				for(int k = offsets[n]; k < offsets[n+1]; k++) {
+					visit(neighbours[k]);
+				}
+			}
+
+			@Override
+			protected EFlowpath get(int f) {
+				return topology.eFlowpath(f);
+			}
+		};
+	}
+
+	private Iterable<ECatchment> iterateECatchments(ECatchment eCatchment, int maxResults, boolean upstream) {
 		if(eCatchment == null) {
 			return Collections.emptyList();
 		}
-		int size = Math.min(ChyfDatastore.MAX_RESULTS, maxResults);
-		HashSet<ECatchment> resultSet = new HashSet<ECatchment>(size);
-		ArrayList<ECatchment> results = new ArrayList<ECatchment>(size);
-		results.add(eCatchment);
-		resultLoop:
-			for(int i = 0; i < results.size(); i++) {
-				for(Nexus n: results.get(i).getDownNexuses()) {
-					for(EFlowpath f: n.getDownFlows()) {
-						if(f.getCatchment() != null) {
-							if(resultSet.add(f.getCatchment())) {
-								results.add(f.getCatchment());
-								if(results.size() >= maxResults) {
-									break resultLoop;
-								}
-							}
+		int[] nexusOffsets = upstream ? topology.getCatchmentUpOffsets() : topology.getCatchmentDownOffsets();
+		int[] nexusNeighbours = upstream ? topology.getCatchmentUpNexuses() : topology.getCatchmentDownNexuses();
+		int[] flowOffsets = upstream ? topology.getNexusUpOffsets() : topology.getNexusDownOffsets();
+		int[] flowNeighbours = upstream ? topology.getNexusUpFlowpaths() : topology.getNexusDownFlowpaths();
+		return () -> new LazyTraversal<ECatchment>(topology.indexOf(eCatchment), maxResults) {
+			@Override
+			protected void expand(int c) {
+				for(int j = nexusOffsets[c]; j < nexusOffsets[c+1]; j++) {
+					int n = nexusNeighbours[j];
+					for(int k = flowOffsets[n]; k < flowOffsets[n+1]; k++) {
+						int next = topology.getFlowpathCatchment(flowNeighbours[k]);
+						if(next != HyGraphTopology.NONE) {
+							visit(next);
+						}
+					}
+					if(upstream) {
+						int bank = topology.getNexusBankCatchment(n);
+						if(bank != HyGraphTopology.NONE) {
+							visit(bank);
 						}
 					}
 				}
 			}
-		return results;
+
+			@Override
+			protected ECatchment get(int c) {
+				return topology.eCatchment(c);
+			}
+		};
+	}
+
+	/**
+	 * Breadth first traversal that only expands as far as is
+	 * needed to produce the next result.  Results are returned in the
+	 * same order as the eager traversal methods.  The visited set is a
+	 * BitSet so its memory is proportional to the area traversed.
+	 */
+	private static abstract class LazyTraversal<T> implements Iterator<T> {
+		private final BitSet visited = new BitSet();
+		private final int maxResults;
+		private int[] queue = new int[64];
+		private int tail = 0;
+		private int expanded = 0;
+		private int returned = 0;
+
+		LazyTraversal(int start, int maxResults) {
+			this.maxResults = maxResults;
+			queue[tail++] = start;
+		}
+
+		protected abstract void expand(int index);
+
+		protected abstract T get(int index);
+
+		protected void visit(int index) {
+			if(visited.get(index)) return;
+			visited.set(index);
+			if(tail == queue.length) {
+				queue = Arrays.copyOf(queue, queue.length * 2);
+			}
+			queue[tail++] = index;
+		}
+
+		@Override
+		public boolean hasNext() {
+			if(returned >= maxResults) return false;
+			while(returned >= tail && expanded < tail) {
+				expand(queue[expanded++]);
+			}
+			return returned < tail;
+		}
+
+		@Override
+		public T next() {
+			if(!hasNext()) {
+				throw new NoSuchElementException();
+			}
+			return get(queue[returned++]);
+		}
 	}
 
 	public DrainageArea getUpstreamDrainageArea(ECatchment eCatchment, boolean removeHoles) {
-		return buildDrainageArea(getUpstreamECatchments(eCatchment, Integer.MAX_VALUE), removeHoles);
+		List<ECatchment> catchments = getUpstreamECatchments(eCatchment, Integer.MAX_VALUE);
+		if(eCatchment == null) {
+			return buildDrainageArea(catchments, removeHoles);
+		}
+		// the geometry is assembled from cached hub drainage areas
+		return buildDrainageArea(catchments, drainageAreaCache.getUpstreamGeometry(eCatchment), removeHoles);
 	}
 
 	public DrainageArea getDownstreamDrainageArea(ECatchment eCatchment, boolean removeHoles) {
@@ -389,16 +653,25 @@ public class HyGraph {
 	
 	public DrainageArea buildDrainageArea(Collection<ECatchment> catchments, boolean removeHoles) {
 		List<Geometry> geoms = new ArrayList<Geometry>(catchments.size());
+		for(ECatchment c : catchments) {			
+			geoms.add(c.getPolygon());
+		}
+		return buildDrainageArea(catchments, UnaryUnionOp.union(geoms), removeHoles);
+	}
+
+	/**
+	 * Builds a drainage area from the catchments where the unioned 
+	 * geometry of the catchments has already been computed.
+	 */
+	private DrainageArea buildDrainageArea(Collection<ECatchment> catchments, Geometry g, boolean removeHoles) {
 		double area = 0;
 		
 		StatisticMerger statMerger = new StatisticMerger();
 		for(ECatchment c : catchments) {			
-			geoms.add(c.getPolygon());
 			area += c.getArea();
 			statMerger.addCatchment(c);
 		}
 
-		Geometry g = UnaryUnionOp.union(geoms);
 		DrainageArea da = new DrainageArea(g, area);
 		if(removeHoles) {
 			da = removeHoles(da, statMerger);		
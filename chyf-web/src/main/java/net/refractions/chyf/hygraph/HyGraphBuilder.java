@@ -16,12 +16,14 @@
 package net.refractions.chyf.hygraph;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.EnumMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 import java.util.UUID;
+import java.util.stream.IntStream;
 
 import org.locationtech.jts.geom.Coordinate;
 import org.locationtech.jts.geom.Geometry;
@@ -33,11 +35,24 @@ import org.locationtech.jts.index.quadtree.Quadtree;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import gnu.trove.map.hash.TLongObjectHashMap;
+
 import net.refractions.chyf.enumTypes.CatchmentType;
 import net.refractions.chyf.enumTypes.FlowpathType;
 import net.refractions.chyf.enumTypes.NexusType;
 import net.refractions.chyf.enumTypes.Rank;
+import net.refractions.chyf.indexing.RTree;
 
+/**
+ * Builds a HyGraph from catchments and flowpaths.
+ * 
+ * Catchments are added (and checked for duplicates) as they are read.  Flowpaths
+ * are only collected as they are added; when the graph is built the catchments are
+ * indexed once and the containing catchment of each flowpath is found in parallel.
+ * Nexuses and flowpath ids are then assigned in the order the flowpaths were added 
+ * so the graph is the same regardless of the number of threads used.
+ *
+ */
 public class HyGraphBuilder {
 	static final Logger logger = LoggerFactory.getLogger(HyGraphBuilder.class.getCanonicalName());
 
@@ -48,7 +63,13 @@ public class HyGraphBuilder {
 	private List<EFlowpath> eFlowpaths;
 	private List<ECatchment> eCatchments;
 	private Quadtree nexusIndex;
+	//nexuses by the key of their coordinate; if two coordinates have the same
+	//key only the first nexus is in this map, the other is only in the nexusIndex
+	private TLongObjectHashMap<Nexus> nexusesByKey;
 	private Quadtree eCatchmentIndex;
+	private List<PendingFlowpath> pendingFlowpaths;
+	//index of the complete set of catchments; created in build
+	private RTree<ECatchment> catchmentIndex;
 
 	public HyGraphBuilder() {
 		this(1000);
@@ -59,7 +80,9 @@ public class HyGraphBuilder {
 		eFlowpaths = new ArrayList<EFlowpath>(capacity);
 		eCatchments = new ArrayList<ECatchment>(capacity);
 		nexusIndex = new Quadtree();
+		nexusesByKey = new TLongObjectHashMap<Nexus>(capacity);
 		eCatchmentIndex = new Quadtree();
+		pendingFlowpaths = new ArrayList<PendingFlowpath>(capacity);
 	}
 	
 	/**
@@ -73,23 +96,68 @@ public class HyGraphBuilder {
 	 */
 	public HyGraph build(Collection<Geometry> boundaries) {
 		//outputUniqueNames();
+		addPendingFlowpaths();
 		classifyNexuses(boundaries);
-		//findCycles();
+		for (List<EFlowpath> cycle : findCycles()) {
+			StringBuilder ids = new StringBuilder();
+			for (EFlowpath f : cycle) {
+				if (ids.length() > 0) ids.append(", ");
+				ids.append(f.getId());
+			}
+			logger.warn("Cycle found in flowpaths: " + ids);
+		}
 		StreamOrderCalculator.calcOrders(eFlowpaths, nexuses);
 		classifyCatchments();
 		
-		return new HyGraph(nexuses.toArray(new Nexus[nexuses.size()]), 
-				eFlowpaths.toArray(new EFlowpath[eFlowpaths.size()]),
-				eCatchments.toArray(new ECatchment[eCatchments.size()]));
+		Nexus[] nexusArray = nexuses.toArray(new Nexus[nexuses.size()]);
+		EFlowpath[] eFlowpathArray = eFlowpaths.toArray(new EFlowpath[eFlowpaths.size()]);
+		ECatchment[] eCatchmentArray = eCatchments.toArray(new ECatchment[eCatchments.size()]);
+		// compact the topology once it is complete, the objects become views over it
+		HyGraphTopology topology = HyGraphTopology.build(nexusArray, eFlowpathArray, eCatchmentArray);
+		return new HyGraph(nexusArray, eFlowpathArray, eCatchmentArray, topology);
 	}
 	
+	/**
+	 * Adds a flowpath to the graph.  The flowpath is not linked to its
+	 * nexuses and catchment until the graph is built.
+	 * 
+	 * @return null; the flowpath is created when the graph is built
+	 */
 	public EFlowpath addEFlowpath(FlowpathType type, Rank rank, String name, UUID nameId, double length, LineString lineString) {
-		return addEFlowpath(getNexus(lineString.getStartPoint()), getNexus(lineString.getEndPoint()), 
-				length, type, rank, name, nameId, getECatchment(lineString, type), lineString);
+		pendingFlowpaths.add(new PendingFlowpath(type, rank, name, nameId, length, lineString));
+		return null;
+	}
+
+	/**
+	 * Creates all the flowpaths that have been added since the last build.
+	 */
+	private void addPendingFlowpaths() {
+		PendingFlowpath[] pending = pendingFlowpaths.toArray(new PendingFlowpath[pendingFlowpaths.size()]);
+		pendingFlowpaths.clear();
+		catchmentIndex = new RTree<ECatchment>(eCatchments);
+		
+		// the geometry predicates only depend on the flowpath and catchments so 
+		// can be evaluated independently for each flowpath
+		IntStream range = IntStream.range(0, pending.length);
+		if (pending.length > 1) range = range.parallel();
+		range.forEach(i -> {
+			PendingFlowpath p = pending[i];
+			p.catchment = getECatchment(p.lineString, p.type);
+			if (p.catchment != null) {
+				p.fromTouches = p.catchment.getPolygon().touches(p.lineString.getStartPoint());
+				p.toTouches = p.catchment.getPolygon().touches(p.lineString.getEndPoint());
+			}
+		});
+		
+		// nexuses and ids are assigned in the order the flowpaths were added
+		for (PendingFlowpath p : pending) {
+			addEFlowpath(getNexus(p.lineString.getStartPoint()), getNexus(p.lineString.getEndPoint()), 
+					p.length, p.type, p.rank, p.name, p.nameId, p.catchment, p.fromTouches, p.toTouches, p.lineString);
+		}
 	}
 
 	private EFlowpath addEFlowpath(Nexus fromNexus, Nexus toNexus, double length, FlowpathType type, Rank rank, String name,
-			UUID nameId, ECatchment catchment, LineString lineString) {
+			UUID nameId, ECatchment catchment, boolean fromTouches, boolean toTouches, LineString lineString) {
 		
 		EFlowpath eFlowpath = new EFlowpath(nextEdgeId++, fromNexus, toNexus, length, type, rank, name, nameId,
 			catchment, lineString);
@@ -107,10 +175,10 @@ public class HyGraphBuilder {
 				}
 			}
 			catchment.addFlowpath(eFlowpath);
-			if(catchment.getPolygon().touches(fromNexus.getPoint())) {
+			if(fromTouches) {
 				catchment.addUpNexus(fromNexus);
 			}
-			if(catchment.getPolygon().touches(toNexus.getPoint())) {
+			if(toTouches) {
 				catchment.addDownNexus(toNexus);
 			}
 			
@@ -118,7 +186,7 @@ public class HyGraphBuilder {
 			logger.warn("EFlowpath " + eFlowpath.getId() + " is not contained by any catchment.");
 		}
 		
-		return null;
+		return eFlowpath;
 	}
 
 	public ECatchment addECatchment(CatchmentType type, Double area, Polygon polygon) {
@@ -148,14 +216,19 @@ public class HyGraphBuilder {
 		return eCatchment;
 	}
 
+	/**
+	 * Finds the catchment containing the flowpath; where there is more than one 
+	 * the catchment with the lowest id is used.
+	 */
 	private ECatchment getECatchment(LineString lineString, FlowpathType type) {
-		@SuppressWarnings("unchecked")
-		List<ECatchment> possibleCatchments = eCatchmentIndex.query(lineString.getEnvelopeInternal());
+		List<ECatchment> possibleCatchments = catchmentIndex.search(lineString.getEnvelopeInternal());
 		ECatchment c = null;
 		int count = 0;
 		for(ECatchment catchment : possibleCatchments) {
 			if(catchment.getPolygon().contains(lineString)) {
-				c = catchment;
+				if(c == null || catchment.getId() < c.getId()) {
+					c = catchment;
+				}
 				count++;
 			}
 		}
@@ -171,20 +244,35 @@ public class HyGraphBuilder {
 		if(FlowpathType.BANK == type) {
 			Point p = lineString.getEndPoint();
 			for(ECatchment catchment : possibleCatchments) {
-				if(catchment.getPolygon().contains(p)) {
-					return catchment;
+				if(catchment.getPolygon().contains(p) && (c == null || catchment.getId() < c.getId())) {
+					c = catchment;
 				}
 			}			
 		}
-		return null;
+		return c;
 	}
 	
-	private Nexus getNexus(Point point) {
+	/**
+	 * Finds the nexus with exactly the same x/y as the point, creating it
+	 * if there isn't one.  Coordinates are already reduced to the datastore precision
+	 * model so matching end points are identical.
+	 */
+	Nexus getNexus(Point point) {
+		Coordinate c = point.getCoordinate();
+		Nexus node = nexusesByKey.get(coordinateKey(c));
+		if(node == null) {
+			// no nexus has this key so none can have this coordinate
+			return addNexus(point);
+		}
+		if(node.getPoint().getCoordinate().equals2D(c)) {
+			return node;
+		}
+		// another coordinate has the same key; fall back to the spatial index
 		@SuppressWarnings("unchecked")
 		List<Nexus> possibleNodes = nexusIndex.query(point.getEnvelopeInternal());
-		for(Nexus node : possibleNodes) {
-			if(point.equals(node.getPoint())) {
-				return node;
+		for(Nexus n : possibleNodes) {
+			if(n.getPoint().getCoordinate().equals2D(c)) {
+				return n;
 			}
 		}
 		return addNexus(point);
@@ -194,9 +282,23 @@ public class HyGraphBuilder {
 		Nexus node = new Nexus(nextNexusId++, point);
 		nexuses.add(node);
 		nexusIndex.insert(node.getPoint().getEnvelopeInternal(),node);
+		nexusesByKey.putIfAbsent(coordinateKey(point.getCoordinate()), node);
 		return node;
 	}
 
+	/**
+	 * Packs the bits of the x and y ordinates into a single hash key.  Equal
+	 * coordinates always have the same key but different coordinates may also
+	 * share a key.
+	 */
+	static long coordinateKey(Coordinate c) {
+		// adding 0.0 turns -0.0 into 0.0 which is equal as a coordinate
+		long x = Double.doubleToLongBits(c.x + 0.0);
+		long y = Double.doubleToLongBits(c.y + 0.0);
+		// nearby coordinates differ in the low bits, so move those of y to the high end
+		return x ^ Long.rotateLeft(y, 32);
+	}
+
 	private void classifyNexuses(Collection<Geometry> boundaries) {
 		
 		//build an index of out all boundary coordinates
@@ -208,59 +310,62 @@ public class HyGraphBuilder {
 			}
 		});
 		
-		for(Nexus n : nexuses) {
-			if(n.getUpFlows().size() == 0) {
-				if(n.getDownFlows().size() == 1 
-						&& n.getDownFlows().get(0).getType() == FlowpathType.BANK) {
-					n.setType(NexusType.BANK);
-				} else { 
-					n.setType(NexusType.HEADWATER);
-				}
-			} else if(n.getDownFlows().size() == 0) {
-				n.setType(NexusType.TERMINAL_ISOLATED);
-				if (boundaryPoints.contains(n.getPoint().getCoordinate())) {
-					n.setType(NexusType.TERMINAL_BOUNDARY);
-				}
-			} else {
-				// count up how many of each type of flowpath we have going each direction
-				EnumMap<FlowpathType,Integer> upTypes = new EnumMap<FlowpathType,Integer>(FlowpathType.class);
-				EnumMap<FlowpathType,Integer> downTypes = new EnumMap<FlowpathType,Integer>(FlowpathType.class);
-				for(FlowpathType t : FlowpathType.values()) {
-					upTypes.put(t, 0);
-					downTypes.put(t, 0);
-				}
-				for(EFlowpath f : n.getUpFlows()) {
-					upTypes.put(f.getType(), upTypes.get(f.getType())+1);
-				}
-				for(EFlowpath f : n.getDownFlows()) {
-					downTypes.put(f.getType(), downTypes.get(f.getType())+1);
-				}
-				if(upTypes.get(FlowpathType.INFERRED) == 1 && n.getUpFlows().size() == 1 
-						&& downTypes.get(FlowpathType.INFERRED) == 1 && n.getDownFlows().size() == 1) {
-					// just two inferred
-					//if this is on a boundary of a catchment then it should be type water
-					//if it is in the middle of a catchment then it should be type inferred
-					List<ECatchment> items = eCatchmentIndex.query(n.getEnvelope());
-					int cnt = 0;
-					for (ECatchment c : items) {
-						if (c.getPolygon().intersects(n.getPoint())) {
-							cnt ++;
-						}
-					}
-					if (cnt > 1) {
-						n.setType(NexusType.WATER);
-					}else {
-						n.setType(NexusType.INFERRED);
+		// each nexus is classified from its own flowpaths only
+		nexuses.parallelStream().forEach(n -> classifyNexus(n, boundaryPoints));
+	}
+	
+	private void classifyNexus(Nexus n, Set<Coordinate> boundaryPoints) {
+		if(n.getUpFlows().size() == 0) {
+			if(n.getDownFlows().size() == 1 
+					&& n.getDownFlows().get(0).getType() == FlowpathType.BANK) {
+				n.setType(NexusType.BANK);
+			} else { 
+				n.setType(NexusType.HEADWATER);
+			}
+		} else if(n.getDownFlows().size() == 0) {
+			n.setType(NexusType.TERMINAL_ISOLATED);
+			if (boundaryPoints.contains(n.getPoint().getCoordinate())) {
+				n.setType(NexusType.TERMINAL_BOUNDARY);
+			}
+		} else {
+			// count up how many of each type of flowpath we have going each direction
+			EnumMap<FlowpathType,Integer> upTypes = new EnumMap<FlowpathType,Integer>(FlowpathType.class);
+			EnumMap<FlowpathType,Integer> downTypes = new EnumMap<FlowpathType,Integer>(FlowpathType.class);
+			for(FlowpathType t : FlowpathType.values()) {
+				upTypes.put(t, 0);
+				downTypes.put(t, 0);
+			}
+			for(EFlowpath f : n.getUpFlows()) {
+				upTypes.put(f.getType(), upTypes.get(f.getType())+1);
+			}
+			for(EFlowpath f : n.getDownFlows()) {
+				downTypes.put(f.getType(), downTypes.get(f.getType())+1);
+			}
+			if(upTypes.get(FlowpathType.INFERRED) == 1 && n.getUpFlows().size() == 1 
+					&& downTypes.get(FlowpathType.INFERRED) == 1 && n.getDownFlows().size() == 1) {
+				// just two inferred
+				//if this is on a boundary of a catchment then it should be type water
+				//if it is in the middle of a catchment then it should be type inferred
+				List<ECatchment> items = catchmentIndex.search(n.getEnvelope());
+				int cnt = 0;
+				for (ECatchment c : items) {
+					if (c.getPolygon().intersects(n.getPoint())) {
+						cnt ++;
 					}
-				} else if(upTypes.get(FlowpathType.INFERRED) + upTypes.get(FlowpathType.BANK) == n.getUpFlows().size()
-						&& downTypes.get(FlowpathType.INFERRED) + downTypes.get(FlowpathType.BANK)== n.getDownFlows().size()) {
-					// all inferred and bank
+				}
+				if (cnt > 1) {
+					n.setType(NexusType.WATER);
+				}else {
 					n.setType(NexusType.INFERRED);
-				} else {
-					// TODO could check for other wierd/unexpected combinations of up/downflows
-					// but for now we will assume this is a regular flowpath nexus
-					n.setType(NexusType.FLOWPATH);
 				}
+			} else if(upTypes.get(FlowpathType.INFERRED) + upTypes.get(FlowpathType.BANK) == n.getUpFlows().size()
+					&& downTypes.get(FlowpathType.INFERRED) + downTypes.get(FlowpathType.BANK)== n.getDownFlows().size()) {
+				// all inferred and bank
+				n.setType(NexusType.INFERRED);
+			} else {
+				// TODO could check for other wierd/unexpected combinations of up/downflows
+				// but for now we will assume this is a regular flowpath nexus
+				n.setType(NexusType.FLOWPATH);
 			}
 		}
 	}
@@ -330,38 +435,97 @@ public class HyGraphBuilder {
 		}
 	}
 
-	private boolean findCycles() {
-		System.out.print("Finding cycles...");
-		boolean[] checked = new boolean[eFlowpaths.size()];
-		for(int i = 0; i < checked.length; i++) {
-			checked[i] = false;
+	/**
+	 * Finds all the strongly connected components of the flowpath network
+	 * that contain a cycle, using an iterative version of Tarjan's algorithm so 
+	 * every flowpath and connection is visited once.
+	 * 
+	 * @return the flowpaths of each cycle
+	 */
+	List<List<EFlowpath>> findCycles() {
+		int cnt = eFlowpaths.size();
+		// flowpath ids are not dense as flowpaths without a catchment are skipped 
+		int[] position = new int[nextEdgeId];
+		for (int i = 0; i < cnt; i ++) {
+			position[eFlowpaths.get(i).getId()] = i;
 		}
-		for(EFlowpath f : eFlowpaths) {
-			if(f.getId() % 100 == 0) {
-				System.out.print(f.getId() + "..");
-			}
-			if(findCycles(f, new HashSet<EFlowpath>(), checked)) {
-				return true;
-			}
+		
+		// the flowpaths downstream of flowpath i are 
+		// downstream[downstreamStart[i]] .. downstream[downstreamStart[i+1]-1]
+		int[] downstreamStart = new int[cnt + 1];
+		for (int i = 0; i < cnt; i ++) {
+			downstreamStart[i + 1] = downstreamStart[i] + eFlowpaths.get(i).getToNode().getDownFlows().size();
 		}
-		return false;
-	}
-	
-	private boolean findCycles(EFlowpath f, HashSet<EFlowpath> visited, boolean[] checked) {
-		if(checked[f.getId()-1]) return false;
-		if(visited.contains(f)) {
-			System.out.println("Cycle found: " + f.getId());
-			return true;
+		int[] downstream = new int[downstreamStart[cnt]];
+		for (int i = 0; i < cnt; i ++) {
+			int k = downstreamStart[i];
+			for (EFlowpath d : eFlowpaths.get(i).getToNode().getDownFlows()) {
+				downstream[k++] = position[d.getId()];
+			}
 		}
-		visited.add(f);
-		for(EFlowpath u: f.getFromNode().getUpFlows()) {
-			if(findCycles(u, visited, checked)) {
-				return true;
+		
+		List<List<EFlowpath>> cycles = new ArrayList<>();
+		int[] index = new int[cnt];
+		Arrays.fill(index, -1);
+		int[] low = new int[cnt];
+		boolean[] onStack = new boolean[cnt];
+		int[] stack = new int[cnt];
+		int sp = 0;
+		// the depth first search path and the next connection to visit for each
+		int[] path = new int[cnt];
+		int[] next = new int[cnt];
+		int pp = 0;
+		int counter = 0;
+		
+		for (int s = 0; s < cnt; s ++) {
+			if (index[s] != -1) continue;
+			
+			index[s] = low[s] = counter++;
+			stack[sp++] = s;
+			onStack[s] = true;
+			path[pp] = s;
+			next[pp++] = downstreamStart[s];
+			
+			while (pp > 0) {
+				int v = path[pp - 1];
+				if (next[pp - 1] < downstreamStart[v + 1]) {
+					int w = downstream[next[pp - 1]++];
+					if (index[w] == -1) {
+						index[w] = low[w] = counter++;
+						stack[sp++] = w;
+						onStack[w] = true;
+						path[pp] = w;
+						next[pp++] = downstreamStart[w];
+					} else if (onStack[w]) {
+						low[v] = Math.min(low[v], index[w]);
+					}
+					continue;
+				}
+				
+				// all downstream flowpaths of v are done
+				pp--;
+				if (pp > 0) {
+					int u = path[pp - 1];
+					low[u] = Math.min(low[u], low[v]);
+				}
+				if (low[v] != index[v]) continue;
+				
+				// v is the root of a component
+				List<EFlowpath> component = new ArrayList<>();
+				int w;
+				do {
+					w = stack[--sp];
+					onStack[w] = false;
+					component.add(eFlowpaths.get(w));
+				} while (w != v);
+				
+				EFlowpath f = eFlowpaths.get(v);
+				if (component.size() > 1 || f.getToNode() == f.getFromNode()) {
+					cycles.add(component);
+				}
 			}
 		}
-		checked[f.getId()-1] = true;
-		visited.remove(f);
-		return false;
+		return cycles;
 	}
 	
 	private void outputUniqueNames() {
@@ -378,4 +542,30 @@ public class HyGraphBuilder {
 			System.out.println("\"" + name + "\",");
 		}
 	}
+	
+	/**
+	 * A flowpath that has been added but not yet linked into the graph.
+	 */
+	private static class PendingFlowpath {
+		final FlowpathType type;
+		final Rank rank;
+		final String name;
+		final UUID nameId;
+		final double length;
+		final LineString lineString;
+		
+		//resolved when the graph is built
+		ECatchment catchment;
+		boolean fromTouches;
+		boolean toTouches;
+		
+		PendingFlowpath(FlowpathType type, Rank rank, String name, UUID nameId, double length, LineString lineString) {
+			this.type = type;
+			this.rank = rank;
+			this.name = name;
+			this.nameId = nameId;
+			this.length = length;
+			this.lineString = lineString;
+		}
+	}
 }
@@ -0,0 +1,576 @@
+/*
+ * Copyright 2019 Government of Canada
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.refractions.chyf.hygraph;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.UUID;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.CoordinateSequence;
+import org.locationtech.jts.geom.GeometryFactory;
+import org.locationtech.jts.geom.LineString;
+import org.locationtech.jts.geom.LinearRing;
+import org.locationtech.jts.geom.Polygon;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import net.refractions.chyf.ChyfDatastore;
+import net.refractions.chyf.enumTypes.CatchmentType;
+import net.refractions.chyf.enumTypes.FlowpathType;
+import net.refractions.chyf.enumTypes.NexusType;
+import net.refractions.chyf.enumTypes.Rank;
+import net.refractions.chyf.hygraph.ECatchment.ECatchmentStat;
+import net.refractions.chyf.indexing.RTree;
+
+/**
+ * Reads and writes a built HyGraph as a versioned binary snapshot so the
+ * service can start without re-reading and re-matching the source datasets.
+ *
+ * The snapshot contains the coordinates of all features, their attributes,
+ * stream orders and catchment statistics, the compressed topology arrays and
+ * the node arrays of the spatial indexes. It is tagged with a checksum of the
+ * source datasets and is ignored if the checksum or format version does not match.
+ */
+public class HyGraphSnapshot {
+	static final Logger logger = LoggerFactory.getLogger(HyGraphSnapshot.class.getCanonicalName());
+
+	private static final int MAGIC = 0x43485946; // "CHYF"
+	private static final int VERSION = 1;
+
+	private static final int BUFFER_SIZE = 1 << 20;
+	private static final int NULL_ENUM = -1;
+
+	private static final int SOURCES_MAGIC = 0x43485352; // "CHSR"
+	private static final String SOURCES_SUFFIX = ".sources";
+
+	private static final String[] DATASET_EXTENSIONS = {".gpkg", ".shp", ".shx", ".dbf", ".prj", ".cpg"};
+
+	private HyGraphSnapshot() {
+	}
+
+	/**
+	 * Computes a checksum over the source datasets: the geopackages and the
+	 * shapefile components (.shp, .shx, .dbf, .prj, .cpg) in the data folder, and
+	 * the base projection and precision model. Each file contributes its relative
+	 * path, size and a hash of its content, so copied data with new modification
+	 * times still matches. The snapshot file and its temporary files are never
+	 * included even if they are written to the data folder.
+	 * 
+	 * The content hashes are kept in a file next to the snapshot together with
+	 * the size and modification time of each file. A file is only read again if
+	 * its size or modification time has changed.
+	 *
+	 * @param dataDir the folder containing the source datasets
+	 * @param snapshotFile the snapshot file, may be null
+	 * @return the hex encoded checksum
+	 */
+	public static String computeChecksum(Path dataDir, Path snapshotFile) throws IOException {
+		MessageDigest digest = newDigest();
+		Path snapshot = snapshotFile == null ? null : snapshotFile.toAbsolutePath().normalize();
+		List<Path> files;
+		try(Stream<Path> stream = Files.walk(dataDir)) {
+			files = stream.filter(Files::isRegularFile)
+					.filter(HyGraphSnapshot::isDatasetFile)
+					.filter(f -> !isSnapshotFile(f, snapshot))
+					.sorted().collect(Collectors.toList());
+		}
+		Path sourcesFile = snapshot == null ? null : snapshot.resolveSibling(snapshot.getFileName() + SOURCES_SUFFIX);
+		Map<String, SourceFile> previous = readSources(sourcesFile);
+		Map<String, SourceFile> current = new HashMap<>();
+		digest.update(("EPSG:" + ChyfDatastore.BASE_SRS + ";" + ChyfDatastore.PRECISION_MODEL.getScale() + "\n").getBytes(StandardCharsets.UTF_8));
+		for(Path file : files) {
+			String path = dataDir.relativize(file).toString();
+			long size = Files.size(file);
+			long modified = Files.getLastModifiedTime(file).toMillis();
+			SourceFile source = previous.get(path);
+			if(source == null || source.size != size || source.modified != modified) {
+				source = new SourceFile(path, size, modified, hashContent(file));
+			}
+			current.put(path, source);
+			String entry = path + ";" + size + ";" + source.hash + "\n";
+			digest.update(entry.getBytes(StandardCharsets.UTF_8));
+		}
+		if(sourcesFile != null && !current.equals(previous)) {
+			writeSources(sourcesFile, current);
+		}
+		return toHex(digest.digest());
+	}
+
+	private static class SourceFile {
+		final String path;
+		final long size;
+		final long modified;
+		final String hash;
+
+		SourceFile(String path, long size, long modified, String hash) {
+			this.path = path;
+			this.size = size;
+			this.modified = modified;
+			this.hash = hash;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if(!(o instanceof SourceFile)) {
+				return false;
+			}
+			SourceFile other = (SourceFile)o;
+			return path.equals(other.path) && size == other.size && modified == other.modified && hash.equals(other.hash);
+		}
+
+		@Override
+		public int hashCode() {
+			return path.hashCode();
+		}
+	}
+
+	private static Map<String, SourceFile> readSources(Path file) {
+		Map<String, SourceFile> sources = new HashMap<>();
+		if(file == null || !Files.isRegularFile(file)) {
+			return sources;
+		}
+		try(DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+			if(in.readInt() != SOURCES_MAGIC) {
+				return sources;
+			}
+			int count = in.readInt();
+			for(int i = 0; i < count; i++) {
+				SourceFile source = new SourceFile(in.readUTF(), in.readLong(), in.readLong(), in.readUTF());
+				sources.put(source.path, source);
+			}
+		} catch (IOException e) {
+			// the hashes are recomputed from the source datasets
+			logger.warn("Unable to read source dataset hashes " + file, e);
+			sources.clear();
+		}
+		return sources;
+	}
+
+	private static void writeSources(Path file, Map<String, SourceFile> sources) {
+		try {
+			Path dir = file.getParent();
+			Files.createDirectories(dir);
+			Path tmp = Files.createTempFile(dir, file.getFileName().toString(), ".tmp");
+			try {
+				try(DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+					out.writeInt(SOURCES_MAGIC);
+					out.writeInt(sources.size());
+					for(SourceFile source : sources.values()) {
+						out.writeUTF(source.path);
+						out.writeLong(source.size);
+						out.writeLong(source.modified);
+						out.writeUTF(source.hash);
+					}
+				}
+				Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			} finally {
+				Files.deleteIfExists(tmp);
+			}
+		} catch (IOException e) {
+			// only costs re-reading the source datasets on the next start
+			logger.warn("Unable to write source dataset hashes " + file, e);
+		}
+	}
+
+	private static boolean isDatasetFile(Path file) {
+		String name = file.getFileName().toString().toLowerCase(Locale.ROOT);
+		for(String ext : DATASET_EXTENSIONS) {
+			if(name.endsWith(ext)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static boolean isSnapshotFile(Path file, Path snapshot) {
+		if(snapshot == null) {
+			return false;
+		}
+		Path f = file.toAbsolutePath().normalize();
+		if(f.equals(snapshot)) {
+			return true;
+		}
+		// temporary files created by write(...) next to the snapshot
+		String name = f.getFileName().toString();
+		return f.getParent().equals(snapshot.getParent())
+				&& name.startsWith(snapshot.getFileName().toString()) && name.endsWith(".tmp");
+	}
+
+	private static String hashContent(Path file) throws IOException {
+		MessageDigest digest = newDigest();
+		byte[] buffer = new byte[BUFFER_SIZE];
+		try(InputStream in = Files.newInputStream(file)) {
+			int n;
+			while((n = in.read(buffer)) > 0) {
+				digest.update(buffer, 0, n);
+			}
+		}
+		return toHex(digest.digest());
+	}
+
+	private static MessageDigest newDigest() {
+		try {
+			return MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static String toHex(byte[] bytes) {
+		StringBuilder sb = new StringBuilder();
+		for(byte b : bytes) {
+			sb.append(String.format("%02x", b));
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Reads the snapshot if it exists and was written from the same source datasets.
+	 *
+	 * @param file the snapshot file
+	 * @param checksum the checksum of the current source datasets
+	 * @return the graph, or null if there is no valid snapshot
+	 */
+	public static HyGraph read(Path file, String checksum) {
+		if(!Files.isRegularFile(file)) {
+			return null;
+		}
+		try(DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), BUFFER_SIZE))) {
+			if(in.readInt() != MAGIC) {
+				logger.warn("Ignoring HyGraph snapshot " + file + ": not a snapshot file.");
+				return null;
+			}
+			int version = in.readInt();
+			if(version != VERSION) {
+				logger.info("Ignoring HyGraph snapshot " + file + ": version " + version + " is not supported.");
+				return null;
+			}
+			if(!in.readUTF().equals(checksum)) {
+				logger.info("Ignoring HyGraph snapshot " + file + ": source datasets have changed.");
+				return null;
+			}
+			return readGraph(in);
+		} catch (IOException | RuntimeException e) {
+			logger.warn("Unable to read HyGraph snapshot " + file, e);
+			return null;
+		}
+	}
+
+	/**
+	 * Writes the snapshot, replacing any existing file only once the
+	 * snapshot has been completely written.
+	 *
+	 * @param graph the graph to write
+	 * @param file the snapshot file
+	 * @param checksum the checksum of the source datasets the graph was built from
+	 */
+	public static void write(HyGraph graph, Path file, String checksum) throws IOException {
+		Path dir = file.toAbsolutePath().getParent();
+		Files.createDirectories(dir);
+		Path tmp = Files.createTempFile(dir, file.getFileName().toString(), ".tmp");
+		try {
+			try(DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp), BUFFER_SIZE))) {
+				out.writeInt(MAGIC);
+				out.writeInt(VERSION);
+				out.writeUTF(checksum);
+				writeGraph(graph, out);
+			}
+			Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			Files.deleteIfExists(tmp);
+		}
+	}
+
+	private static void writeGraph(HyGraph graph, DataOutputStream out) throws IOException {
+		HyGraphTopology topology = graph.getTopology();
+		int nexusCount = topology.getNexusCount();
+		int flowpathCount = topology.getEFlowpathCount();
+		int catchmentCount = topology.getECatchmentCount();
+		out.writeInt(nexusCount);
+		out.writeInt(flowpathCount);
+		out.writeInt(catchmentCount);
+
+		for(int i = 0; i < nexusCount; i++) {
+			Nexus n = topology.nexus(i);
+			out.writeInt(n.getId());
+			out.writeDouble(n.getPoint().getX());
+			out.writeDouble(n.getPoint().getY());
+			writeEnum(out, n.getType());
+			out.writeInt(n.getBankCatchment() == null ? HyGraphTopology.NONE : topology.indexOf(n.getBankCatchment()));
+		}
+
+		for(int i = 0; i < catchmentCount; i++) {
+			ECatchment c = topology.eCatchment(i);
+			out.writeInt(c.getId());
+			writeEnum(out, c.getType());
+			writeEnum(out, c.getRank());
+			out.writeDouble(c.getArea());
+			writeString(out, c.getName());
+			writeInteger(out, c.getStrahlerOrder());
+			writeInteger(out, c.getHortonOrder());
+			writeInteger(out, c.getHackOrder());
+			for(ECatchmentStat stat : ECatchmentStat.values()) {
+				out.writeDouble(stat.getValue(c));
+			}
+			Polygon p = c.getPolygon();
+			out.writeInt(p.getNumInteriorRing());
+			writeCoordinates(out, p.getExteriorRing().getCoordinateSequence());
+			for(int r = 0; r < p.getNumInteriorRing(); r++) {
+				writeCoordinates(out, p.getInteriorRingN(r).getCoordinateSequence());
+			}
+		}
+
+		for(int i = 0; i < flowpathCount; i++) {
+			EFlowpath f = topology.eFlowpath(i);
+			out.writeInt(f.getId());
+			out.writeInt(topology.getFlowpathFromNexus(i));
+			out.writeInt(topology.getFlowpathToNexus(i));
+			out.writeInt(topology.getFlowpathCatchment(i));
+			out.writeDouble(f.getLength());
+			writeEnum(out, f.getType());
+			writeEnum(out, f.getRank());
+			writeString(out, f.getName());
+			writeString(out, f.getNameId() == null ? null : f.getNameId().toString());
+			writeInteger(out, f.getStrahlerOrder());
+			writeInteger(out, f.getHortonOrder());
+			writeInteger(out, f.getHackOrder());
+			writeCoordinates(out, f.getLineString().getCoordinateSequence());
+		}
+
+		// catchment flowpath lists, in their original order
+		for(int i = 0; i < catchmentCount; i++) {
+			List<EFlowpath> flowpaths = topology.eCatchment(i).getFlowpaths();
+			out.writeInt(flowpaths.size());
+			for(EFlowpath f : flowpaths) {
+				out.writeInt(topology.indexOf(f));
+			}
+		}
+
+		writeIntArray(out, topology.getNexusUpOffsets());
+		writeIntArray(out, topology.getNexusUpFlowpaths());
+		writeIntArray(out, topology.getNexusDownOffsets());
+		writeIntArray(out, topology.getNexusDownFlowpaths());
+		writeIntArray(out, topology.getCatchmentUpOffsets());
+		writeIntArray(out, topology.getCatchmentUpNexuses());
+		writeIntArray(out, topology.getCatchmentDownOffsets());
+		writeIntArray(out, topology.getCatchmentDownNexuses());
+
+		graph.getNexusIndex().write(out, topology::indexOf);
+		graph.getEFlowpathIndex().write(out, topology::indexOf);
+		graph.getECatchmentIndex().write(out, topology::indexOf);
+	}
+
+	private static HyGraph readGraph(DataInputStream in) throws IOException {
+		GeometryFactory gf = ChyfDatastore.GEOMETRY_FACTORY;
+		Nexus[] nexuses = new Nexus[in.readInt()];
+		EFlowpath[] eFlowpaths = new EFlowpath[in.readInt()];
+		ECatchment[] eCatchments = new ECatchment[in.readInt()];
+
+		int[] bankCatchments = new int[nexuses.length];
+		for(int i = 0; i < nexuses.length; i++) {
+			int id = in.readInt();
+			double x = in.readDouble();
+			double y = in.readDouble();
+			Nexus n = new Nexus(id, gf.createPoint(new Coordinate(x, y)));
+			n.setType(readEnum(in, NexusType.values()));
+			bankCatchments[i] = in.readInt();
+			nexuses[i] = n;
+		}
+
+		Rank[] catchmentRanks = new Rank[eCatchments.length];
+		for(int i = 0; i < eCatchments.length; i++) {
+			int id = in.readInt();
+			CatchmentType type = readEnum(in, CatchmentType.values());
+			catchmentRanks[i] = readEnum(in, Rank.values());
+			double area = in.readDouble();
+			String name = readString(in);
+			Integer strahler = readInteger(in);
+			Integer horton = readInteger(in);
+			Integer hack = readInteger(in);
+			double[] stats = new double[ECatchmentStat.values().length];
+			for(int s = 0; s < stats.length; s++) {
+				stats[s] = in.readDouble();
+			}
+			LinearRing[] holes = new LinearRing[in.readInt()];
+			LinearRing shell = gf.createLinearRing(readCoordinates(in));
+			for(int r = 0; r < holes.length; r++) {
+				holes[r] = gf.createLinearRing(readCoordinates(in));
+			}
+			ECatchment c = new ECatchment(id, type, area, gf.createPolygon(shell, holes));
+			c.setName(name);
+			c.setStrahlerOrder(strahler);
+			c.setHortonOrder(horton);
+			c.setHackOrder(hack);
+			for(int s = 0; s < stats.length; s++) {
+				ECatchmentStat.values()[s].updateCatchment(c, stats[s]);
+			}
+			eCatchments[i] = c;
+		}
+		for(int i = 0; i < nexuses.length; i++) {
+			if(bankCatchments[i] != HyGraphTopology.NONE) {
+				nexuses[i].setBankCatchment(eCatchments[bankCatchments[i]]);
+			}
+		}
+
+		for(int i = 0; i < eFlowpaths.length; i++) {
+			int id = in.readInt();
+			Nexus from = nexuses[in.readInt()];
+			Nexus to = nexuses[in.readInt()];
+			int catchment = in.readInt();
+			double length = in.readDouble();
+			FlowpathType type = readEnum(in, FlowpathType.values());
+			Rank rank = readEnum(in, Rank.values());
+			String name = readString(in);
+			String nameId = readString(in);
+			Integer strahler = readInteger(in);
+			Integer horton = readInteger(in);
+			Integer hack = readInteger(in);
+			LineString line = gf.createLineString(readCoordinates(in));
+			EFlowpath f = new EFlowpath(id, from, to, length, type, rank, name, nameId == null ? null : UUID.fromString(nameId),
+					catchment == HyGraphTopology.NONE ? null : eCatchments[catchment], line);
+			f.setStrahlerOrder(strahler);
+			f.setHortonOrder(horton);
+			f.setHackOrder(hack);
+			eFlowpaths[i] = f;
+		}
+
+		for(int i = 0; i < eCatchments.length; i++) {
+			int count = in.readInt();
+			for(int k = 0; k < count; k++) {
+				eCatchments[i].addFlowpath(eFlowpaths[in.readInt()]);
+			}
+			// the rank may have been set explicitly rather than derived from the flowpaths
+			eCatchments[i].setRank(catchmentRanks[i]);
+		}
+
+		int[] offsets = readIntArray(in);
+		int[] values = readIntArray(in);
+		for(int i = 0; i < nexuses.length; i++) {
+			for(int k = offsets[i]; k < offsets[i + 1]; k++) {
+				nexuses[i].addUpFlow(eFlowpaths[values[k]]);
+			}
+		}
+		offsets = readIntArray(in);
+		values = readIntArray(in);
+		for(int i = 0; i < nexuses.length; i++) {
+			for(int k = offsets[i]; k < offsets[i + 1]; k++) {
+				nexuses[i].addDownFlow(eFlowpaths[values[k]]);
+			}
+		}
+		offsets = readIntArray(in);
+		values = readIntArray(in);
+		for(int i = 0; i < eCatchments.length; i++) {
+			for(int k = offsets[i]; k < offsets[i + 1]; k++) {
+				eCatchments[i].addUpNexus(nexuses[values[k]]);
+			}
+		}
+		offsets = readIntArray(in);
+		values = readIntArray(in);
+		for(int i = 0; i < eCatchments.length; i++) {
+			for(int k = offsets[i]; k < offsets[i + 1]; k++) {
+				eCatchments[i].addDownNexus(nexuses[values[k]]);
+			}
+		}
+
+		RTree<Nexus> nexusIndex = RTree.read(in, i -> nexuses[i]);
+		RTree<EFlowpath> eFlowpathIndex = RTree.read(in, i -> eFlowpaths[i]);
+		RTree<ECatchment> eCatchmentIndex = RTree.read(in, i -> eCatchments[i]);
+
+		HyGraphTopology topology = HyGraphTopology.build(nexuses, eFlowpaths, eCatchments);
+		return new HyGraph(nexuses, eFlowpaths, eCatchments, topology, nexusIndex, eFlowpathIndex, eCatchmentIndex);
+	}
+
+	private static void writeCoordinates(DataOutputStream out, CoordinateSequence seq) throws IOException {
+		out.writeInt(seq.size());
+		for(int i = 0; i < seq.size(); i++) {
+			out.writeDouble(seq.getX(i));
+			out.writeDouble(seq.getY(i));
+		}
+	}
+
+	private static Coordinate[] readCoordinates(DataInputStream in) throws IOException {
+		Coordinate[] coords = new Coordinate[in.readInt()];
+		for(int i = 0; i < coords.length; i++) {
+			double x = in.readDouble();
+			double y = in.readDouble();
+			coords[i] = new Coordinate(x, y);
+		}
+		return coords;
+	}
+
+	private static void writeIntArray(DataOutputStream out, int[] values) throws IOException {
+		out.writeInt(values.length);
+		for(int v : values) {
+			out.writeInt(v);
+		}
+	}
+
+	private static int[] readIntArray(DataInputStream in) throws IOException {
+		int[] values = new int[in.readInt()];
+		for(int i = 0; i < values.length; i++) {
+			values[i] = in.readInt();
+		}
+		return values;
+	}
+
+	private static void writeEnum(DataOutputStream out, Enum<?> value) throws IOException {
+		out.writeInt(value == null ? NULL_ENUM : value.ordinal());
+	}
+
+	private static <E extends Enum<E>> E readEnum(DataInputStream in, E[] values) throws IOException {
+		int ordinal = in.readInt();
+		return ordinal == NULL_ENUM ? null : values[ordinal];
+	}
+
+	private static void writeString(DataOutputStream out, String value) throws IOException {
+		out.writeBoolean(value != null);
+		if(value != null) {
+			out.writeUTF(value);
+		}
+	}
+
+	private static String readString(DataInputStream in) throws IOException {
+		return in.readBoolean() ? in.readUTF() : null;
+	}
+
+	private static void writeInteger(DataOutputStream out, Integer value) throws IOException {
+		out.writeBoolean(value != null);
+		if(value != null) {
+			out.writeInt(value);
+		}
+	}
+
+	private static Integer readInteger(DataInputStream in) throws IOException {
+		return in.readBoolean() ? in.readInt() : null;
+	}
+}
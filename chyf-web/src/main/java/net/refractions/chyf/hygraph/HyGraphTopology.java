@@ -0,0 +1,304 @@
+/*
+ * Copyright 2019 Government of Canada
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.refractions.chyf.hygraph;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.RandomAccess;
+
+import net.refractions.chyf.enumTypes.NexusType;
+
+/**
+ * Compressed sparse row representation of the HyGraph topology.
+ *
+ * All references are stored as array positions (not ids) into the nexus,
+ * flowpath and catchment arrays of the graph. The neighbours of element i
+ * are found in the neighbour array between offsets[i] and offsets[i+1].
+ *
+ * Once built the Nexus and ECatchment objects are bound to the topology
+ * and their up/down lists become read-only views over these arrays.
+ */
+public class HyGraphTopology {
+
+	public static final int NONE = -1;
+
+	private static final Comparator<EFlowpath> FLOWPATH_ID_ORDER = Comparator.comparingInt(EFlowpath::getId);
+
+	private final Nexus[] nexuses;
+	private final EFlowpath[] eFlowpaths;
+	private final ECatchment[] eCatchments;
+
+	private final int[] nexusUpOffsets;
+	private final int[] nexusUpFlowpaths;
+	private final int[] nexusDownOffsets;
+	private final int[] nexusDownFlowpaths;
+	private final int[] nexusBankCatchment;
+
+	private final int[] catchmentUpOffsets;
+	private final int[] catchmentUpNexuses;
+	private final int[] catchmentDownOffsets;
+	private final int[] catchmentDownNexuses;
+
+	private final int[] flowpathFromNexus;
+	private final int[] flowpathToNexus;
+	private final int[] flowpathCatchment;
+
+	// true when every flowpath id equals its array position + 1
+	private final boolean denseFlowpathIds;
+
+	private HyGraphTopology(Nexus[] nexuses, EFlowpath[] eFlowpaths, ECatchment[] eCatchments) {
+		this.nexuses = nexuses;
+		this.eFlowpaths = eFlowpaths;
+		this.eCatchments = eCatchments;
+
+		boolean dense = true;
+		for(int i = 0; i < eFlowpaths.length; i++) {
+			if(eFlowpaths[i].getId() != i + 1) {
+				dense = false;
+				break;
+			}
+		}
+		denseFlowpathIds = dense;
+
+		flowpathFromNexus = new int[eFlowpaths.length];
+		flowpathToNexus = new int[eFlowpaths.length];
+		flowpathCatchment = new int[eFlowpaths.length];
+		for(int i = 0; i < eFlowpaths.length; i++) {
+			EFlowpath f = eFlowpaths[i];
+			flowpathFromNexus[i] = f.getFromNode().getId() - 1;
+			flowpathToNexus[i] = f.getToNode().getId() - 1;
+			flowpathCatchment[i] = f.getCatchment() == null ? NONE : f.getCatchment().getId() - 1;
+		}
+
+		nexusUpOffsets = new int[nexuses.length + 1];
+		nexusDownOffsets = new int[nexuses.length + 1];
+		nexusBankCatchment = new int[nexuses.length];
+		for(int i = 0; i < nexuses.length; i++) {
+			nexusUpOffsets[i + 1] = nexusUpOffsets[i] + nexuses[i].getUpFlows().size();
+			nexusDownOffsets[i + 1] = nexusDownOffsets[i] + nexuses[i].getDownFlows().size();
+			ECatchment bank = nexuses[i].getBankCatchment();
+			nexusBankCatchment[i] = (bank == null || nexuses[i].getType() != NexusType.BANK) ? NONE : bank.getId() - 1;
+		}
+		nexusUpFlowpaths = new int[nexusUpOffsets[nexuses.length]];
+		nexusDownFlowpaths = new int[nexusDownOffsets[nexuses.length]];
+		for(int i = 0; i < nexuses.length; i++) {
+			int k = nexusUpOffsets[i];
+			for(EFlowpath f : nexuses[i].getUpFlows()) {
+				nexusUpFlowpaths[k++] = indexOf(f);
+			}
+			k = nexusDownOffsets[i];
+			for(EFlowpath f : nexuses[i].getDownFlows()) {
+				nexusDownFlowpaths[k++] = indexOf(f);
+			}
+		}
+
+		catchmentUpOffsets = new int[eCatchments.length + 1];
+		catchmentDownOffsets = new int[eCatchments.length + 1];
+		for(int i = 0; i < eCatchments.length; i++) {
+			catchmentUpOffsets[i + 1] = catchmentUpOffsets[i] + eCatchments[i].getUpNexuses().size();
+			catchmentDownOffsets[i + 1] = catchmentDownOffsets[i] + eCatchments[i].getDownNexuses().size();
+		}
+		catchmentUpNexuses = new int[catchmentUpOffsets[eCatchments.length]];
+		catchmentDownNexuses = new int[catchmentDownOffsets[eCatchments.length]];
+		for(int i = 0; i < eCatchments.length; i++) {
+			int k = catchmentUpOffsets[i];
+			for(Nexus n : eCatchments[i].getUpNexuses()) {
+				catchmentUpNexuses[k++] = n.getId() - 1;
+			}
+			k = catchmentDownOffsets[i];
+			for(Nexus n : eCatchments[i].getDownNexuses()) {
+				catchmentDownNexuses[k++] = n.getId() - 1;
+			}
+		}
+	}
+
+	/**
+	 * Builds the compressed topology from the fully linked graph objects
+	 * and binds the objects to it, releasing their per-object lists.
+	 *
+	 * @return the topology
+	 */
+	public static HyGraphTopology build(Nexus[] nexuses, EFlowpath[] eFlowpaths, ECatchment[] eCatchments) {
+		HyGraphTopology topology = new HyGraphTopology(nexuses, eFlowpaths, eCatchments);
+		for(Nexus n : nexuses) {
+			n.bindTopology(topology);
+		}
+		for(ECatchment c : eCatchments) {
+			c.bindTopology(topology);
+		}
+		return topology;
+	}
+
+	public int getNexusCount() {
+		return nexuses.length;
+	}
+
+	public int getEFlowpathCount() {
+		return eFlowpaths.length;
+	}
+
+	public int getECatchmentCount() {
+		return eCatchments.length;
+	}
+
+	/**
+	 * @return the array position of the given flowpath, or NONE if it is not part of the graph
+	 */
+	public int indexOf(EFlowpath f) {
+		if(denseFlowpathIds) {
+			int i = f.getId() - 1;
+			return (i >= 0 && i < eFlowpaths.length) ? i : NONE;
+		}
+		int i = Arrays.binarySearch(eFlowpaths, f, FLOWPATH_ID_ORDER);
+		return i < 0 ? NONE : i;
+	}
+
+	public int indexOf(Nexus n) {
+		return n.getId() - 1;
+	}
+
+	public int indexOf(ECatchment c) {
+		return c.getId() - 1;
+	}
+
+	public Nexus nexus(int index) {
+		return nexuses[index];
+	}
+
+	public EFlowpath eFlowpath(int index) {
+		return eFlowpaths[index];
+	}
+
+	public ECatchment eCatchment(int index) {
+		return eCatchments[index];
+	}
+
+	public int[] getNexusUpOffsets() {
+		return nexusUpOffsets;
+	}
+
+	public int[] getNexusUpFlowpaths() {
+		return nexusUpFlowpaths;
+	}
+
+	public int[] getNexusDownOffsets() {
+		return nexusDownOffsets;
+	}
+
+	public int[] getNexusDownFlowpaths() {
+		return nexusDownFlowpaths;
+	}
+
+	public int getNexusBankCatchment(int nexus) {
+		return nexusBankCatchment[nexus];
+	}
+
+	public int[] getCatchmentUpOffsets() {
+		return catchmentUpOffsets;
+	}
+
+	public int[] getCatchmentUpNexuses() {
+		return catchmentUpNexuses;
+	}
+
+	public int[] getCatchmentDownOffsets() {
+		return catchmentDownOffsets;
+	}
+
+	public int[] getCatchmentDownNexuses() {
+		return catchmentDownNexuses;
+	}
+
+	public int getFlowpathFromNexus(int flowpath) {
+		return flowpathFromNexus[flowpath];
+	}
+
+	public int getFlowpathToNexus(int flowpath) {
+		return flowpathToNexus[flowpath];
+	}
+
+	public int getFlowpathCatchment(int flowpath) {
+		return flowpathCatchment[flowpath];
+	}
+
+	List<EFlowpath> upFlows(int nexus) {
+		return new FlowpathView(nexusUpFlowpaths, nexusUpOffsets[nexus], nexusUpOffsets[nexus + 1]);
+	}
+
+	List<EFlowpath> downFlows(int nexus) {
+		return new FlowpathView(nexusDownFlowpaths, nexusDownOffsets[nexus], nexusDownOffsets[nexus + 1]);
+	}
+
+	List<Nexus> upNexuses(int catchment) {
+		return new NexusView(catchmentUpNexuses, catchmentUpOffsets[catchment], catchmentUpOffsets[catchment + 1]);
+	}
+
+	List<Nexus> downNexuses(int catchment) {
+		return new NexusView(catchmentDownNexuses, catchmentDownOffsets[catchment], catchmentDownOffsets[catchment + 1]);
+	}
+
+	private class FlowpathView extends AbstractList<EFlowpath> implements RandomAccess {
+		private final int[] values;
+		private final int start;
+		private final int end;
+
+		FlowpathView(int[] values, int start, int end) {
+			this.values = values;
+			this.start = start;
+			this.end = end;
+		}
+
+		@Override
+		public EFlowpath get(int index) {
+			if(index < 0 || index >= end - start) {
+				throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size());
+			}
+			return eFlowpaths[values[start + index]];
+		}
+
+		@Override
+		public int size() {
+			return end - start;
+		}
+	}
+
+	private class NexusView extends AbstractList<Nexus> implements RandomAccess {
+		private final int[] values;
+		private final int start;
+		private final int end;
+
+		NexusView(int[] values, int start, int end) {
+			this.values = values;
+			this.start = start;
+			this.end = end;
+		}
+
+		@Override
+		public Nexus get(int index) {
+			if(index < 0 || index >= end - start) {
+				throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size());
+			}
+			return nexuses[values[start + index]];
+		}
+
+		@Override
+		public int size() {
+			return end - start;
+		}
+	}
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright 2019 Government of Canada
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License.
+ */
+package net.refractions.chyf.hygraph;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Bounds the number of catchments holding an indexed point-in-polygon locator.
+ *
+ * The locators are kept by the catchments themselves so lookups do not take a
+ * lock.  This keeps a ring of the catchments that built a locator and releases
+ * the locator of the catchment in a slot when the slot is reused.  A catchment
+ * whose locator was used since the hand last passed it gets a second chance
+ * (clock replacement), so frequently used locators are kept.  Under concurrent
+ * use the bound is approximate.
+ */
+class LocatorCache {
+
+	private final AtomicReferenceArray<ECatchment> slots;
+	private final AtomicInteger hand = new AtomicInteger();
+	private final AtomicLong evictions = new AtomicLong();
+
+	/**
+	 * @param capacity the maximum number of catchments holding a locator
+	 */
+	LocatorCache(int capacity) {
+		this.slots = new AtomicReferenceArray<>(capacity);
+	}
+
+	/**
+	 * Registers a catchment that has just built its locator, releasing
+	 * the locator of another catchment if the cache is full.
+	 */
+	void add(ECatchment c) {
+		int capacity = slots.length();
+		// after two passes every used flag has been cleared
+		for(int attempt = 0; ; attempt++) {
+			int i = Math.floorMod(hand.getAndIncrement(), capacity);
+			ECatchment old = slots.get(i);
+			if(old != null && old != c && attempt < 2 * capacity && old.clearLocatorUsed()) {
+				continue;
+			}
+			if(slots.compareAndSet(i, old, c)) {
+				if(old != null && old != c) {
+					old.releaseLocator();
+					evictions.incrementAndGet();
+				}
+				return;
+			}
+		}
+	}
+
+	/**
+	 * @return the number of locators released to make room for others
+	 */
+	long getEvictionCount() {
+		return evictions.get();
+	}
+}
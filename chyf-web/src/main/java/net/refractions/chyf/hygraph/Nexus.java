@@ -32,6 +32,7 @@ public class Nexus implements SpatiallyIndexable{
 	private final int id;
 	private final Point point;
 	private NexusType type = NexusType.UNKNOWN;
+	private HyGraphTopology topology = null;
 
 	public Nexus(int id, Point point) {
 		this.id = id;
@@ -43,21 +44,43 @@ public class Nexus implements SpatiallyIndexable{
 	}
 
 	public void addUpFlow(EFlowpath edge) {
+		if(topology != null) {
+			throw new IllegalStateException("Nexus " + id + " is already part of a built HyGraph.");
+		}
 		upFlows.add(edge);
 	}
 
 	public void addDownFlow(EFlowpath edge) {
+		if(topology != null) {
+			throw new IllegalStateException("Nexus " + id + " is already part of a built HyGraph.");
+		}
 		downFlows.add(edge);
 	}
 
 	public List<EFlowpath> getUpFlows(){
+		if(topology != null) {
+			return topology.upFlows(id - 1);
+		}
 		return Collections.unmodifiableList(upFlows);
 	}
 
 	public List<EFlowpath> getDownFlows() {
+		if(topology != null) {
+			return topology.downFlows(id - 1);
+		}
 		return Collections.unmodifiableList(downFlows);
 	}
 
+	/**
+	 * Switches the up/down flow lists to views over the compact topology
+	 * and releases the per-nexus lists.
+	 */
+	void bindTopology(HyGraphTopology topology) {
+		this.topology = topology;
+		this.upFlows = null;
+		this.downFlows = null;
+	}
+
 	public ECatchment getBankCatchment() {
 		return bankCatchment;
 	}
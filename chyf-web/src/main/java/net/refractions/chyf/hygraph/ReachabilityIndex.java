@@ -0,0 +1,177 @@
+/*
+ * Copyright 2019 Government of Canada
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.refractions.chyf.hygraph;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * Pre/post order interval labelling of a directed flow graph
+ * used to answer downstream reachability queries.
+ *
+ * A spanning forest is built by walking upstream from every node with
+ * no downstream edges. A node is upstream of another if its interval is
+ * nested within the other's. Nodes with more than one downstream
+ * edge (braided/secondary flows) are flagged along with everything
+ * upstream of them; for these nodes a negative tree answer falls back
+ * to a search which is pruned again as soon as it reaches unflagged nodes.
+ * Nodes that cannot reach any terminal node (cycles) are not labelled
+ * and always use the fallback search.
+ */
+public class ReachabilityIndex {
+
+	private final int[] downOffsets;
+	private final int[] downTargets;
+	private final int[] pre;
+	private final int[] post;
+	// set if the node or any node on its tree path downstream has a non-tree downstream edge
+	private final BitSet braided;
+	// reused by fallback searches that are not given a traversal
+	private final ThreadLocal<TraversalState> scratch = new ThreadLocal<>();
+
+	/**
+	 * @param size number of nodes
+	 * @param downOffsets the CSR offsets (size+1) into downTargets
+	 * @param downTargets the downstream neighbours of each node
+	 */
+	public ReachabilityIndex(int size, int[] downOffsets, int[] downTargets) {
+		this.downOffsets = downOffsets;
+		this.downTargets = downTargets;
+		this.pre = new int[size];
+		this.post = new int[size];
+		this.braided = new BitSet(size);
+		Arrays.fill(pre, -1);
+		Arrays.fill(post, -1);
+
+		// reverse the adjacency to walk upstream
+		int[] upOffsets = new int[size + 1];
+		for(int i = 0; i < downTargets.length; i++) {
+			upOffsets[downTargets[i] + 1]++;
+		}
+		for(int i = 0; i < size; i++) {
+			upOffsets[i + 1] += upOffsets[i];
+		}
+		int[] upSources = new int[downTargets.length];
+		int[] fill = Arrays.copyOf(upOffsets, size);
+		for(int n = 0; n < size; n++) {
+			for(int k = downOffsets[n]; k < downOffsets[n + 1]; k++) {
+				upSources[fill[downTargets[k]]++] = n;
+			}
+		}
+
+		int[] stack = new int[Math.max(size, 1)];
+		int[] position = new int[size];
+		int counter = 0;
+		for(int root = 0; root < size; root++) {
+			if(downOffsets[root + 1] != downOffsets[root]) continue;
+			int top = 0;
+			stack[top] = root;
+			position[root] = upOffsets[root];
+			pre[root] = counter++;
+			while(top >= 0) {
+				int node = stack[top];
+				if(position[node] < upOffsets[node + 1]) {
+					int up = upSources[position[node]++];
+					if(pre[up] == -1) {
+						pre[up] = counter++;
+						position[up] = upOffsets[up];
+						if(braided.get(node) || downOffsets[up + 1] - downOffsets[up] > 1) {
+							braided.set(up);
+						}
+						stack[++top] = up;
+					}
+				} else {
+					post[node] = counter++;
+					top--;
+				}
+			}
+		}
+	}
+
+	public int size() {
+		return pre.length;
+	}
+
+	private boolean isLabelled(int node) {
+		return pre[node] != -1;
+	}
+
+	private boolean isTreeAncestor(int down, int up) {
+		return pre[down] < pre[up] && post[up] < post[down];
+	}
+
+	/**
+	 * @return true if down can be reached by following downstream edges from up
+	 */
+	public boolean isUpstreamOf(int up, int down) {
+		if(up == down) return false;
+		Boolean tree = treeAnswer(up, down);
+		if(tree != null) return tree;
+
+		TraversalState state = scratch.get();
+		if(state == null) {
+			state = new TraversalState(0, pre.length, 0);
+			scratch.set(state);
+		}
+		try(TraversalState s = state.begin()) {
+			return search(up, down, s);
+		}
+	}
+
+	/**
+	 * Same as {@link #isUpstreamOf(int, int)} for an index over flowpath
+	 * topology positions; the fallback search uses the flowpath stamps
+	 * and queue of the given traversal, which must be begun and not 
+	 * otherwise in use for the duration of the call.
+	 */
+	public boolean isUpstreamOf(int up, int down, TraversalState state) {
+		if(up == down) return false;
+		Boolean tree = treeAnswer(up, down);
+		if(tree != null) return tree;
+		return search(up, down, state);
+	}
+
+	/**
+	 * @return the answer from the tree labels or null if a search is required
+	 */
+	private Boolean treeAnswer(int up, int down) {
+		if(!isLabelled(up)) return null;
+		if(isLabelled(down) && isTreeAncestor(down, up)) return Boolean.TRUE;
+		if(!braided.get(up)) return Boolean.FALSE;
+		return null;
+	}
+
+	private boolean search(int up, int down, TraversalState state) {
+		boolean labelled = isLabelled(down);
+		state.enqueue(up);
+		state.markFlowpath(up);
+		while(!state.isQueueEmpty()) {
+			int node = state.dequeue();
+			for(int k = downOffsets[node]; k < downOffsets[node + 1]; k++) {
+				int next = downTargets[k];
+				if(next == down) return true;
+				if(!state.markFlowpath(next)) continue;
+				if(isLabelled(next)) {
+					if(labelled && isTreeAncestor(down, next)) return true;
+					// everything downstream of next is on its tree path
+					if(!braided.get(next)) continue;
+				}
+				state.enqueue(next);
+			}
+		}
+		return false;
+	}
+}
@@ -1,7 +1,10 @@
 package net.refractions.chyf.hygraph;
 
 import java.util.ArrayList;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.stream.IntStream;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -11,171 +14,294 @@ import net.refractions.chyf.enumTypes.NexusType;
 import net.refractions.chyf.enumTypes.Rank;
 import net.refractions.util.StopWatch;
 
+/**
+ * Computes the strahler, horton and hack orders of the primary, non-bank
+ * flowpaths that drain to a terminal nexus.
+ *
+ * The orders are computed without recursion: strahler orders and mainstems
+ * are computed from the headwaters down (each flowpath once all its upstream
+ * flowpaths are done) and horton and hack orders are then pushed from the
+ * terminal flowpaths up.  Basins that do not share any flowpaths are
+ * processed in parallel.
+ *
+ * Where a flowpath drains into more than one primary flowpath its horton and
+ * hack orders are taken from the first downstream flowpath reached from the terminal.
+ *
+ */
 public class StreamOrderCalculator {
 	static final Logger logger = LoggerFactory.getLogger(StreamOrderCalculator.class.getCanonicalName());
 
+	//the flowpaths being ordered, in the order they were found from the terminals
+	private final List<EFlowpath> flowpaths = new ArrayList<>();
+	private final Map<EFlowpath, Integer> index = new IdentityHashMap<>();
+
+	//primary upstream flowpaths of each flowpath (in up flow order); flowpath i
+	//has upstream flowpaths upstream[upstreamStart[i]] .. upstream[upstreamStart[i+1]-1]
+	private int[] upstreamStart;
+	private int[] upstream;
+	//same for downstream
+	private int[] downstreamStart;
+	private int[] downstream;
+
+	//position of each flowpath within its basin
+	private int[] basinPosition;
+	private boolean[] terminal;
+	private int[] strahler;
+	private int[] horton;
+	private int[] hack;
+	private int[] mainstem;
+	private double[] mainstemLength;
+
 	public static void calcOrders(List<EFlowpath> eFlowpaths, List<Nexus> nexuses) {
 		logger.info("Calculating Stream Orders");
 		StopWatch sw = new StopWatch();
 		sw.start();
-		
+
 		// reset all stream orders to null everywhere
 		for(EFlowpath f : eFlowpaths) {
 			f.setStrahlerOrder(null);
 			f.setHortonOrder(null);
 			f.setHackOrder(null);
 		}
-		
-		// loop through nexuses and start from each terminal nexus
+
+		(new StreamOrderCalculator()).calculate(nexuses);
+
+		sw.stop();
+		logger.info("Stream Orders calculated in " + sw.getElapsedTime() + "ms");
+	}
+
+	private static boolean isOrdered(EFlowpath f) {
+		// secondary flows and bank flowpaths are not ordered
+		return f.getRank() == Rank.PRIMARY && f.getType() != FlowpathType.BANK;
+	}
+
+	private void calculate(List<Nexus> nexuses) {
+		// start from each terminal nexus and find all the flowpaths upstream
 		for(Nexus n : nexuses) {
 			if(n.getType().isTerminal()) {
 				for(EFlowpath f : n.getUpFlows()) {
-					calcStrahlerOrder(f);
-					MainstemmedFlowpath mf = new MainstemmedFlowpath(f);
-					mf.assignHortonOrder(null);
-					if (n.getType() == NexusType.TERMINAL_ISOLATED) {
-						mf.assignHackOrder(1001);
-					}else {
-						mf.assignHackOrder(1);
-					}
+					if (isOrdered(f)) add(f);
 				}
 			}
-		}  
-		
-		sw.stop();
-		logger.info("Stream Orders calculated in " + sw.getElapsedTime() + "ms");
-	}
-	
-	private static Integer calcStrahlerOrder(EFlowpath f) {
-		// skip eFlowpaths that are already done, secondary flows, or bank flowpaths
-		if(f.getStrahlerOrder() != null || f.getRank() != Rank.PRIMARY || f.getType() == FlowpathType.BANK) {
-			return f.getStrahlerOrder();
-		}
-		
-		Integer maxUpflow = null;
-		Integer order = 1;
-		for(EFlowpath u : f.getFromNode().getUpFlows()) {
-			Integer upOrder = calcStrahlerOrder(u);
-			if(upOrder != null) {
-				if(maxUpflow == null || upOrder > maxUpflow) {
-					maxUpflow = upOrder; 
-				} else if(maxUpflow == upOrder) {
-					order = maxUpflow + 1;
-				}
+		}
+		int roots = flowpaths.size();
+
+		// breadth first so the upstream flowpaths of i are added after
+		// those of i-1
+		List<Integer> ups = new ArrayList<>();
+		List<Integer> upStarts = new ArrayList<>();
+		for (int i = 0; i < flowpaths.size(); i ++) {
+			upStarts.add(ups.size());
+			for (EFlowpath u : flowpaths.get(i).getFromNode().getUpFlows()) {
+				if (isOrdered(u)) ups.add(add(u));
 			}
 		}
-		if(maxUpflow != null && maxUpflow > order) {
-			order = maxUpflow;
+		upStarts.add(ups.size());
+
+		int cnt = flowpaths.size();
+		upstreamStart = upStarts.stream().mapToInt(Integer::intValue).toArray();
+		upstream = ups.stream().mapToInt(Integer::intValue).toArray();
+
+		// invert for the downstream flowpaths
+		downstreamStart = new int[cnt + 1];
+		for (int u : upstream) downstreamStart[u + 1]++;
+		for (int i = 0; i < cnt; i ++) downstreamStart[i + 1] += downstreamStart[i];
+		downstream = new int[upstream.length];
+		int[] fill = new int[cnt];
+		for (int i = 0; i < cnt; i ++) {
+			for (int k = upstreamStart[i]; k < upstreamStart[i + 1]; k ++) {
+				int u = upstream[k];
+				downstream[downstreamStart[u] + fill[u]++] = i;
+			}
+		}
+
+		terminal = new boolean[cnt];
+		for (int i = 0; i < roots; i ++) terminal[i] = true;
+		strahler = new int[cnt];
+		horton = new int[cnt];
+		hack = new int[cnt];
+		mainstem = new int[cnt];
+		mainstemLength = new double[cnt];
+
+		// independent basins; the flowpaths of each are in the order found
+		int[][] basins = findBasins();
+		IntStream range = IntStream.range(0, basins.length);
+		if (basins.length > 1) range = range.parallel();
+		range.forEach(b -> calculate(basins[b]));
+
+		// orders of zero were not computed (flowpaths in or downstream of a cycle)
+		int skipped = 0;
+		for (int i = 0; i < cnt; i ++) {
+			EFlowpath f = flowpaths.get(i);
+			if (strahler[i] == 0) {
+				skipped++;
+				continue;
+			}
+			f.setStrahlerOrder(strahler[i]);
+			if (horton[i] > 0) f.setHortonOrder(horton[i]);
+			if (hack[i] > 0) f.setHackOrder(hack[i]);
+		}
+		if (skipped > 0) {
+			logger.warn(skipped + " flowpaths are in or downstream of a cycle; stream orders not computed for these flowpaths");
 		}
-		f.setStrahlerOrder(order);
-		return order;
 	}
 
-}
+	private int add(EFlowpath f) {
+		Integer i = index.get(f);
+		if (i == null) {
+			i = flowpaths.size();
+			flowpaths.add(f);
+			index.put(f, i);
+		}
+		return i;
+	}
 
+	/**
+	 * Groups the flowpaths into sets that are not connected to each other.
+	 */
+	private int[][] findBasins() {
+		int cnt = flowpaths.size();
+		int[] parent = new int[cnt];
+		for (int i = 0; i < cnt; i ++) parent[i] = i;
+		for (int i = 0; i < cnt; i ++) {
+			for (int k = upstreamStart[i]; k < upstreamStart[i + 1]; k ++) {
+				int a = find(parent, i);
+				int b = find(parent, upstream[k]);
+				if (a != b) parent[Math.max(a, b)] = Math.min(a, b);
+			}
+		}
 
-class MainstemmedFlowpath {
-	final EFlowpath f;
-	MainstemmedFlowpath mainstem = null;
-	double length = 0;
-	ArrayList<MainstemmedFlowpath> upflows; 
-	
-	MainstemmedFlowpath(EFlowpath f) {
+		int[] basin = new int[cnt];
+		int[] size = new int[cnt];
+		int basinCnt = 0;
+		for (int i = 0; i < cnt; i ++) {
+			int r = find(parent, i);
+			// the root of each set is its smallest member so it is seen first
+			if (r == i) basin[i] = basinCnt++;
+			else basin[i] = basin[r];
+			size[basin[i]]++;
+		}
+		int[][] basins = new int[basinCnt][];
+		for (int b = 0; b < basinCnt; b ++) basins[b] = new int[size[b]];
+		int[] fill = new int[basinCnt];
+		basinPosition = new int[cnt];
+		for (int i = 0; i < cnt; i ++) {
+			basinPosition[i] = fill[basin[i]]++;
+			basins[basin[i]][basinPosition[i]] = i;
+		}
+		return basins;
+	}
 
-		this.f = f;
+	private static int find(int[] parent, int i) {
+		while (parent[i] != i) {
+			parent[i] = parent[parent[i]];
+			i = parent[i];
+		}
+		return i;
+	}
 
-		upflows = new ArrayList<MainstemmedFlowpath>(f.getFromNode().getUpFlows().size());
-		for(EFlowpath u : f.getFromNode().getUpFlows()) {
-			if(u.getRank() == Rank.PRIMARY) {		
-				upflows.add(new MainstemmedFlowpath(u));
+	private void calculate(int[] basin) {
+		// strahler order and mainstem, from the headwaters down
+		int[] pending = new int[basin.length];
+		int[] queue = new int[basin.length];
+		int head = 0;
+		int tail = 0;
+		for (int k = 0; k < basin.length; k ++) {
+			int i = basin[k];
+			pending[k] = upstreamStart[i + 1] - upstreamStart[i];
+			if (pending[k] == 0) queue[tail++] = i;
+		}
+		while (head < tail) {
+			int i = queue[head++];
+			calculateStrahler(i);
+			for (int k = downstreamStart[i]; k < downstreamStart[i + 1]; k ++) {
+				int d = downstream[k];
+				if (--pending[basinPosition[d]] == 0) queue[tail++] = d;
 			}
 		}
-		
-		assignMainstem();
-		
-		length = f.getLength();
-		if(mainstem != null) {
-			length += mainstem.length;
+
+		// horton and hack orders, from the terminals up
+		boolean[] assigned = new boolean[basin.length];
+		head = 0;
+		tail = 0;
+		for (int k = 0; k < basin.length; k ++) {
+			int i = basin[k];
+			if (!terminal[i]) continue;
+			horton[i] = strahler[i];
+			hack[i] = flowpaths.get(i).getToNode().getType() == NexusType.TERMINAL_ISOLATED ? 1001 : 1;
+			assigned[k] = true;
+			queue[tail++] = i;
+		}
+		while (head < tail) {
+			int i = queue[head++];
+			for (int k = upstreamStart[i]; k < upstreamStart[i + 1]; k ++) {
+				int u = upstream[k];
+				if (assigned[basinPosition[u]]) continue;
+				assigned[basinPosition[u]] = true;
+				if (mainstem[i] == u) {
+					horton[u] = horton[i];
+					hack[u] = hack[i];
+				}else {
+					horton[u] = strahler[u];
+					hack[u] = hack[i] + 1;
+				}
+				queue[tail++] = u;
+			}
 		}
 	}
-	
-	void assignMainstem() {
-		MainstemmedFlowpath sameNameBest = null;
-		MainstemmedFlowpath someNameBest = null;
-		MainstemmedFlowpath noNameBest = null;
-		for(MainstemmedFlowpath u : upflows) {
-			// banks and secondaries can't be mainstems
-			if(u.f.getStrahlerOrder() == null) continue;
-			if(u.f.getName() == null || u.f.getName().isEmpty() || u.f.getName().equals(" ")) {
-				if(noNameBest == null || u.length > noNameBest.length) {
+
+	/**
+	 * Computes the strahler order and mainstem of the flowpath; all
+	 * upstream flowpaths must already be computed.
+	 */
+	private void calculateStrahler(int i) {
+		EFlowpath f = flowpaths.get(i);
+
+		int maxUpflow = 0;
+		int order = 1;
+		int sameNameBest = -1;
+		int someNameBest = -1;
+		int noNameBest = -1;
+		for (int k = upstreamStart[i]; k < upstreamStart[i + 1]; k ++) {
+			int u = upstream[k];
+
+			int upOrder = strahler[u];
+			if (maxUpflow == 0 || upOrder > maxUpflow) {
+				maxUpflow = upOrder;
+			} else if (maxUpflow == upOrder) {
+				order = maxUpflow + 1;
+			}
+
+			String name = flowpaths.get(u).getName();
+			if (name == null || name.isEmpty() || name.equals(" ")) {
+				if (noNameBest == -1 || mainstemLength[u] > mainstemLength[noNameBest]) {
 					noNameBest = u;
 				}
-			} else if(u.f.getName().equals(f.getName())) {
-				if(sameNameBest == null || u.length > sameNameBest.length) {
+			} else if (name.equals(f.getName())) {
+				if (sameNameBest == -1 || mainstemLength[u] > mainstemLength[sameNameBest]) {
 					sameNameBest = u;
 				}
 			} else {
-				if(someNameBest == null || u.length > someNameBest.length) {
+				if (someNameBest == -1 || mainstemLength[u] > mainstemLength[someNameBest]) {
 					someNameBest = u;
 				}
 			}
 		}
-		if(sameNameBest != null) {
-			mainstem = sameNameBest;
-		} else if(someNameBest != null) {
-			mainstem = someNameBest;
-		} else {
-			mainstem = noNameBest;
+		if (maxUpflow > order) {
+			order = maxUpflow;
 		}
-	}
+		strahler[i] = order;
 
-	void assignHortonOrder(Integer order) {
-		// don't assign to secondaries or banks
-		if(f.getStrahlerOrder() == null) return;
-		if(order == null) {
-			f.setHortonOrder(f.getStrahlerOrder());
+		if (sameNameBest != -1) {
+			mainstem[i] = sameNameBest;
+		} else if (someNameBest != -1) {
+			mainstem[i] = someNameBest;
 		} else {
-			f.setHortonOrder(order);
-		}
-		for(MainstemmedFlowpath u : upflows) {
-			if(mainstem == u) {
-				u.assignHortonOrder(f.getHortonOrder());
-			} else {
-				u.assignHortonOrder(null);
-			}
-		}
-	}
-	
-	/**
-	 * "Bottom up" hierarchy that allocates the number "1" to the river with its mouth at the sea
-	 * @param order : The hack order (river's number must be 1)
-	 * @return The hack order
-	 */
-	Integer assignHackOrder(Integer order) {
-		
-		// skip eFlowpaths that are already done, secondary flows, or bank flowpaths
-		if(f.getHackOrder() != null || f.getRank() != Rank.PRIMARY || f.getType() == FlowpathType.BANK) {
-			return f.getHackOrder();
-		}
-		
-		// set the first element to the number 1
- 		if(f.getToNode().getType().isTerminal()) {
- 			//isolated edges get hack order of 1001
- 			if (f.getToNode().getType() == NexusType.TERMINAL_ISOLATED) {
-				f.setHackOrder(1001);
-			}else {
-				f.setHackOrder(1);
-			}
+			mainstem[i] = noNameBest;
 		}
-		
-		for(MainstemmedFlowpath u: upflows) {
-			if(mainstem == u) {
-				u.f.setHackOrder(u.assignHackOrder(order));
-			} else {			
-				u.f.setHackOrder(u.assignHackOrder(order + 1));
-			}
+		mainstemLength[i] = f.getLength();
+		if (mainstem[i] != -1) {
+			mainstemLength[i] += mainstemLength[mainstem[i]];
 		}
-		return order;
 	}
-	
-}
\ No newline at end of file
+}
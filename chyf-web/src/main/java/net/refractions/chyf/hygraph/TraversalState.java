@@ -0,0 +1,138 @@
+/*
+ * Copyright 2019 Government of Canada
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.refractions.chyf.hygraph;
+
+import java.util.Arrays;
+
+/**
+ * Reusable scratch space for graph traversals.  Visited flags for nexuses,
+ * flowpaths and catchments are stored as epoch stamps in arrays indexed by
+ * topology position so starting a new traversal does not require clearing
+ * them.  Instances are pooled per thread by the HyGraph, obtain one with
+ * {@link HyGraph#beginTraversal()} and close it when done.
+ */
+public class TraversalState implements AutoCloseable {
+
+	private final int[] nexusStamps;
+	private final int[] flowpathStamps;
+	private final int[] catchmentStamps;
+	private int epoch = 0;
+	private boolean inUse = false;
+
+	private int[] queue = new int[64];
+	private int head = 0;
+	private int tail = 0;
+
+	TraversalState(HyGraphTopology topology) {
+		this(topology.getNexusCount(), topology.getEFlowpathCount(), topology.getECatchmentCount());
+	}
+
+	TraversalState(int nexusCount, int flowpathCount, int catchmentCount) {
+		nexusStamps = new int[nexusCount];
+		flowpathStamps = new int[flowpathCount];
+		catchmentStamps = new int[catchmentCount];
+	}
+
+	boolean isInUse() {
+		return inUse;
+	}
+
+	TraversalState begin() {
+		inUse = true;
+		head = 0;
+		tail = 0;
+		if(epoch == Integer.MAX_VALUE) {
+			Arrays.fill(nexusStamps, 0);
+			Arrays.fill(flowpathStamps, 0);
+			Arrays.fill(catchmentStamps, 0);
+			epoch = 0;
+		}
+		epoch++;
+		return this;
+	}
+
+	@Override
+	public void close() {
+		inUse = false;
+	}
+
+	/**
+	 * Marks the nexus at the given topology position as visited.
+	 *
+	 * @return true if the nexus had not yet been visited in this traversal
+	 */
+	public boolean markNexus(int index) {
+		if(nexusStamps[index] == epoch) return false;
+		nexusStamps[index] = epoch;
+		return true;
+	}
+
+	public boolean isNexusMarked(int index) {
+		return nexusStamps[index] == epoch;
+	}
+
+	/**
+	 * Marks the flowpath at the given topology position as visited.
+	 *
+	 * @return true if the flowpath had not yet been visited in this traversal
+	 */
+	public boolean markFlowpath(int index) {
+		if(flowpathStamps[index] == epoch) return false;
+		flowpathStamps[index] = epoch;
+		return true;
+	}
+
+	public boolean isFlowpathMarked(int index) {
+		return flowpathStamps[index] == epoch;
+	}
+
+	/**
+	 * Marks the catchment at the given topology position as visited.
+	 *
+	 * @return true if the catchment had not yet been visited in this traversal
+	 */
+	public boolean markCatchment(int index) {
+		if(catchmentStamps[index] == epoch) return false;
+		catchmentStamps[index] = epoch;
+		return true;
+	}
+
+	public boolean isCatchmentMarked(int index) {
+		return catchmentStamps[index] == epoch;
+	}
+
+	public void enqueue(int value) {
+		if(tail == queue.length) {
+			if(head > 0) {
+				System.arraycopy(queue, head, queue, 0, tail - head);
+				tail -= head;
+				head = 0;
+			}
+			if(tail == queue.length) {
+				queue = Arrays.copyOf(queue, queue.length * 2);
+			}
+		}
+		queue[tail++] = value;
+	}
+
+	public boolean isQueueEmpty() {
+		return head == tail;
+	}
+
+	public int dequeue() {
+		return queue[head++];
+	}
+}
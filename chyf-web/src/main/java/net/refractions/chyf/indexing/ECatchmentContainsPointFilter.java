@@ -29,7 +29,7 @@ public class ECatchmentContainsPointFilter implements Filter<ECatchment> {
 
 	@Override
 	public boolean pass(ECatchment eCatchment) {
-		return eCatchment.getPolygon().contains(point);
+		return eCatchment.contains(point);
 	}
 
 }
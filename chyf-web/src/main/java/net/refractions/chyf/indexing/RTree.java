@@ -15,13 +15,21 @@
  */
 package net.refractions.chyf.indexing;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.Iterator;
 import java.util.List;
+import java.util.NoSuchElementException;
 import java.util.PriorityQueue;
 import java.util.Queue;
+import java.util.function.IntFunction;
+import java.util.function.ToIntFunction;
 
 import net.refractions.chyf.indexing.Filter;
 
@@ -51,8 +59,16 @@ public class RTree<T extends SpatiallyIndexable> {
 
 	private static final int PAGE_SIZE = 10;
 	
+	private static final byte EMPTY_NODE = 0;
+	private static final byte BRANCH_NODE = 1;
+	private static final byte LEAF_NODE = 2;
+	
 	private SpatiallyIndexable[] nodes;
 
+	private RTree(SpatiallyIndexable[] nodes) {
+		this.nodes = nodes;
+	}
+
 	public RTree(Collection<T> items) {
 		int height = (int)Math.ceil(Math.log10(items.size())/Math.log10(PAGE_SIZE));
 		int numBranches = (int)Math.round((Math.pow(PAGE_SIZE, height) - 1) / (PAGE_SIZE - 1));
@@ -91,6 +107,91 @@ public class RTree<T extends SpatiallyIndexable> {
 		return queueToOrderedList(searchInternal(query, nResults, maxDistance, filter));
 	}
 	
+	/**
+	 * Finds all items with envelopes intersecting the query envelope.
+	 */
+	public List<T> search(Envelope query) {
+		return search(query, Integer.MAX_VALUE, null);
+	}
+	
+	/**
+	 * Finds items with envelopes intersecting the query envelope that pass
+	 * the filter, stopping once maxResults have been found. The results
+	 * are in index order, not ordered by distance.
+	 */
+	public List<T> search(Envelope query, int maxResults, Filter<? super T> filter) {
+		List<T> results = new ArrayList<T>();
+		Iterator<T> it = iterate(query).iterator();
+		while(results.size() < maxResults && it.hasNext()) {
+			T item = it.next();
+			if(filter == null || filter.pass(item)) {
+				results.add(item);
+			}
+		}
+		return results;
+	}
+	
+	/**
+	 * Lazily iterates over all items with envelopes intersecting the query envelope,
+	 * only descending into branches that intersect the query.
+	 */
+	public Iterable<T> iterate(Envelope query) {
+		return () -> new EnvelopeIterator(query);
+	}
+	
+	private class EnvelopeIterator implements Iterator<T> {
+		private final Envelope query;
+		private int[] stack = new int[32];
+		private int top = -1;
+		private T next = null;
+		
+		EnvelopeIterator(Envelope query) {
+			this.query = query;
+			if(nodes.length > 0 && nodes[0] != null && query.intersects(nodes[0].getEnvelope())) {
+				stack[++top] = 0;
+			}
+			advance();
+		}
+		
+		@SuppressWarnings("unchecked")
+		private void advance() {
+			next = null;
+			while(top >= 0) {
+				int node = stack[top--];
+				int firstChild = (node * PAGE_SIZE) + 1;
+				if(firstChild >= nodes.length) {
+					// leaf node, the envelope has already been checked
+					next = (T)nodes[node];
+					return;
+				}
+				// push in reverse so children are visited in order
+				for(int i = Math.min((node + 1) * PAGE_SIZE, nodes.length - 1); i >= firstChild; i--) {
+					if(nodes[i] != null && query.intersects(nodes[i].getEnvelope())) {
+						if(top + 1 == stack.length) {
+							stack = Arrays.copyOf(stack, stack.length * 2);
+						}
+						stack[++top] = i;
+					}
+				}
+			}
+		}
+		
+		@Override
+		public boolean hasNext() {
+			return next != null;
+		}
+		
+		@Override
+		public T next() {
+			if(next == null) {
+				throw new NoSuchElementException();
+			}
+			T item = next;
+			advance();
+			return item;
+		}
+	}
+	
 	@SuppressWarnings("unchecked")
 	private Queue<PrioNode<T>> searchInternal(
 			Point query, Integer nResults, Double maxDistance, Filter<? super T> filter) {
@@ -221,6 +322,59 @@ public class RTree<T extends SpatiallyIndexable> {
 		return storeIndex;
 	}
 
+	/**
+	 * Writes the node array of the tree, leaf items are written as the
+	 * integer returned by the itemIndex function.
+	 */
+	@SuppressWarnings("unchecked")
+	public void write(DataOutput out, ToIntFunction<? super T> itemIndex) throws IOException {
+		out.writeInt(nodes.length);
+		for(int i = 0; i < nodes.length; i++) {
+			SpatiallyIndexable node = nodes[i];
+			if(node == null) {
+				out.writeByte(EMPTY_NODE);
+			} else if(node instanceof IndexableEnvelope) {
+				Envelope env = node.getEnvelope();
+				out.writeByte(BRANCH_NODE);
+				// a null envelope is written as NaN
+				out.writeDouble(env.isNull() ? Double.NaN : env.getMinX());
+				out.writeDouble(env.isNull() ? Double.NaN : env.getMinY());
+				out.writeDouble(env.isNull() ? Double.NaN : env.getMaxX());
+				out.writeDouble(env.isNull() ? Double.NaN : env.getMaxY());
+			} else {
+				out.writeByte(LEAF_NODE);
+				out.writeInt(itemIndex.applyAsInt((T)node));
+			}
+		}
+	}
+
+	/**
+	 * Reads a tree written by {@link #write(DataOutput, ToIntFunction)}
+	 * without having to re-sort the items.
+	 */
+	public static <T extends SpatiallyIndexable> RTree<T> read(DataInput in, IntFunction<? extends T> items) throws IOException {
+		SpatiallyIndexable[] nodes = new SpatiallyIndexable[in.readInt()];
+		for(int i = 0; i < nodes.length; i++) {
+			byte kind = in.readByte();
+			if(kind == BRANCH_NODE) {
+				IndexableEnvelope env = new IndexableEnvelope();
+				double minX = in.readDouble();
+				double minY = in.readDouble();
+				double maxX = in.readDouble();
+				double maxY = in.readDouble();
+				if(!Double.isNaN(minX)) {
+					env.init(minX, maxX, minY, maxY);
+				}
+				nodes[i] = env;
+			} else if(kind == LEAF_NODE) {
+				nodes[i] = items.apply(in.readInt());
+			} else if(kind != EMPTY_NODE) {
+				throw new IOException("Invalid RTree node type: " + kind);
+			}
+		}
+		return new RTree<T>(nodes);
+	}
+
 	public String toString() {
 		StringBuilder sb = new StringBuilder();
 		buildString(0, sb, "");
@@ -0,0 +1,66 @@
+/*
+ * Copyright 2019 Government of Canada
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License.
+ */
+package net.refractions.chyf.pourpoint;
+
+import java.util.Arrays;
+
+/**
+ * Square matrix of distances between pourpoints.  Values are stored
+ * row by row in a single primitive array; missing values are NaN.
+ */
+public class DistanceMatrix {
+
+	private int size;
+	private double[] values;
+	
+	DistanceMatrix(int size) {
+		this.size = size;
+		this.values = new double[size * size];
+		Arrays.fill(values, Double.NaN);
+	}
+	
+	public int getSize() {
+		return this.size;
+	}
+	
+	/**
+	 * @return the distance or NaN if there is no distance between the items
+	 */
+	public double get(int row, int column) {
+		return values[row * size + column];
+	}
+	
+	public boolean hasValue(int row, int column) {
+		return !Double.isNaN(get(row, column));
+	}
+	
+	void set(int row, int column, double value) {
+		values[row * size + column] = value;
+	}
+	
+	/**
+	 * @return a copy of the matrix with null for missing values
+	 */
+	public Double[][] toArray() {
+		Double[][] array = new Double[size][size];
+		for (int i = 0; i < size; i ++) {
+			for (int j = 0; j < size; j ++) {
+				if (hasValue(i, j)) array[i][j] = get(i, j);
+			}
+		}
+		return array;
+	}
+}
@@ -0,0 +1,420 @@
+/*
+ * Copyright 2019 Government of Canada
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.refractions.chyf.pourpoint;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+import gnu.trove.map.hash.TIntIntHashMap;
+import net.refractions.chyf.enumTypes.Rank;
+import net.refractions.chyf.hygraph.EFlowpath;
+import net.refractions.chyf.hygraph.HyGraph;
+import net.refractions.chyf.hygraph.HyGraphTopology;
+import net.refractions.chyf.hygraph.Nexus;
+import net.refractions.chyf.hygraph.TraversalState;
+
+/**
+ * Walks downstream from the flowpaths of all pourpoints together to find
+ * the distances between pourpoints.
+ *
+ * The first pass finds the flowpaths downstream of the pourpoints and which
+ * pourpoints reach each of them, merging at confluences.  A flowpath is only
+ * followed further while another pourpoint can still be reached from it or, when
+ * the point relationship tree is required, while not all pourpoints have merged
+ * into it.  The second pass computes the distances for each pourpoint over
+ * these flowpaths in upstream to downstream order.
+ *
+ * Flowpaths and nexuses are numbered in the order they are found and all
+ * values are stored in arrays indexed by these numbers.
+ */
+class DownstreamSweep {
+
+	private static final int NONE = -1;
+
+	private final HyGraph graph;
+	private final HyGraphTopology topology;
+	private final List<Pourpoint> points;
+	private final int pointCnt;
+
+	//topology index -> walk number
+	private final TIntIntHashMap flowpathSlots = new TIntIntHashMap(64, 0.5f, NONE, NONE);
+	private final TIntIntHashMap nexusSlots = new TIntIntHashMap(64, 0.5f, NONE, NONE);
+
+	private EFlowpath[] flowpaths = new EFlowpath[64];
+	private int flowpathCnt = 0;
+	private int nexusCnt = 0;
+	private int[] fromNexus = new int[64];
+	private int[] toNexus = new int[64];
+
+	//the pourpoints that reach each flowpath, and those that
+	//reach it along primary flowpaths
+	private BitSet[] reached = new BitSet[64];
+	private BitSet[] primary = new BitSet[64];
+	//the last pourpoint that starts at each flowpath
+	private int[] startPoint = new int[64];
+	private boolean[] queued = new boolean[64];
+	private boolean[] visited = new boolean[64];
+	private int[] queue = new int[64];
+	private int head = 0;
+	private int tail = 0;
+
+	//the nexuses at the start or end of any pourpoint flowpath are numbered
+	//first; the pourpoint relationships and distances are only read from these
+	private int targetCnt;
+	//topology index of each flowpath that can reach a target nexus
+	private BitSet reachesTarget;
+
+	//values at each target nexus for each pourpoint; NaN if the
+	//pourpoint does not reach the nexus; -1 is the start nexus of the pourpoint
+	private double[] targetMin;
+	private double[] targetMax;
+	private double[] targetPrimary;
+
+	DownstreamSweep(HyGraph graph, List<Pourpoint> points) {
+		this.graph = graph;
+		this.topology = graph.getTopology();
+		this.points = points;
+		this.pointCnt = points.size();
+	}
+
+	/**
+	 *
+	 * @param mergeAll if the walk should continue until all pourpoints
+	 * have merged, required for the point relationship tree
+	 */
+	void compute(boolean mergeAll) {
+		List<Nexus> targets = findTargets();
+		findReachesTarget(targets);
+		int[] order = findFlowpaths(mergeAll);
+		computeDistances(order);
+	}
+
+	private List<Nexus> findTargets() {
+		List<Nexus> targets = new ArrayList<>();
+		for (Pourpoint p : points) {
+			for (EFlowpath f : p.getDownstreamFlowpaths()) {
+				if (addNexus(f.getFromNode()) == targets.size()) targets.add(f.getFromNode());
+				if (addNexus(f.getToNode()) == targets.size()) targets.add(f.getToNode());
+			}
+		}
+		targetCnt = targets.size();
+		return targets;
+	}
+
+	/**
+	 * Walks upstream from the target nexuses once to find every flowpath
+	 * a target nexus can be reached from.
+	 */
+	private void findReachesTarget(List<Nexus> targets) {
+		reachesTarget = new BitSet(topology.getEFlowpathCount());
+		int[] upOffsets = topology.getNexusUpOffsets();
+		int[] upFlowpaths = topology.getNexusUpFlowpaths();
+		try (TraversalState state = graph.beginTraversal()) {
+			for (Nexus n : targets) {
+				int index = topology.indexOf(n);
+				if (state.markNexus(index)) state.enqueue(index);
+			}
+			while (!state.isQueueEmpty()) {
+				int n = state.dequeue();
+				for (int k = upOffsets[n]; k < upOffsets[n + 1]; k ++) {
+					int f = upFlowpaths[k];
+					reachesTarget.set(f);
+					int from = topology.getFlowpathFromNexus(f);
+					if (state.markNexus(from)) state.enqueue(from);
+				}
+			}
+		}
+	}
+
+	private int addNexus(Nexus n) {
+		int index = topology.indexOf(n);
+		int slot = nexusSlots.get(index);
+		if (slot == NONE) {
+			slot = nexusCnt++;
+			nexusSlots.put(index, slot);
+		}
+		return slot;
+	}
+
+	private int flowpathSlot(EFlowpath f) {
+		return flowpathSlots.get(topology.indexOf(f));
+	}
+
+	private int addFlowpath(EFlowpath f) {
+		int index = topology.indexOf(f);
+		int slot = flowpathSlots.get(index);
+		if (slot != NONE) return slot;
+
+		slot = flowpathCnt++;
+		if (slot == flowpaths.length) {
+			int size = slot * 2;
+			flowpaths = Arrays.copyOf(flowpaths, size);
+			fromNexus = Arrays.copyOf(fromNexus, size);
+			toNexus = Arrays.copyOf(toNexus, size);
+			reached = Arrays.copyOf(reached, size);
+			primary = Arrays.copyOf(primary, size);
+			startPoint = Arrays.copyOf(startPoint, size);
+			queued = Arrays.copyOf(queued, size);
+			visited = Arrays.copyOf(visited, size);
+		}
+		flowpathSlots.put(index, slot);
+		flowpaths[slot] = f;
+		fromNexus[slot] = addNexus(f.getFromNode());
+		toNexus[slot] = addNexus(f.getToNode());
+		reached[slot] = new BitSet(pointCnt);
+		primary[slot] = new BitSet(pointCnt);
+		startPoint[slot] = NONE;
+		return slot;
+	}
+
+	/**
+	 * Finds the flowpaths downstream of the pourpoints and the pourpoints that
+	 * reach each.
+	 *
+	 * @return the flowpaths in upstream to downstream order
+	 */
+	private int[] findFlowpaths(boolean mergeAll) {
+		for (int i = 0; i < pointCnt; i ++) {
+			for (EFlowpath f : points.get(i).getDownstreamFlowpaths()) {
+				int slot = addFlowpath(f);
+				reached[slot].set(i);
+				primary[slot].set(i);
+				startPoint[slot] = i;
+				enqueue(slot);
+			}
+		}
+
+		while (head < tail) {
+			int slot = queue[head++];
+			queued[slot] = false;
+
+			EFlowpath f = flowpaths[slot];
+			boolean changed = !visited[slot];
+			visited[slot] = true;
+			for (EFlowpath u : f.getFromNode().getUpFlows()) {
+				int up = flowpathSlot(u);
+				if (up == NONE) continue;
+				changed |= or(reached[slot], reached[up]);
+				if (f.getRank() == Rank.PRIMARY) {
+					changed |= or(primary[slot], primary[up]);
+				}
+			}
+			if (!changed) continue;
+
+			boolean expand;
+			int merged = primary[slot].cardinality();
+			if (mergeAll && merged > 0 && merged < pointCnt) {
+				expand = true;
+			} else {
+				expand = reachesTarget.get(topology.indexOf(f));
+			}
+
+			//downstream flowpaths already found need to be updated with the
+			//new pourpoints, others are only added if the walk continues
+			for (EFlowpath d : f.getToNode().getDownFlows()) {
+				int down = flowpathSlot(d);
+				if (down == NONE) {
+					if (!expand) continue;
+					down = addFlowpath(d);
+				}
+				enqueue(down);
+			}
+		}
+		return topologicalOrder();
+	}
+
+	private void enqueue(int slot) {
+		if (queued[slot]) return;
+		queued[slot] = true;
+		if (tail == queue.length) {
+			if (head > 0) {
+				System.arraycopy(queue, head, queue, 0, tail - head);
+				tail -= head;
+				head = 0;
+			}
+			if (tail == queue.length) {
+				queue = Arrays.copyOf(queue, queue.length * 2);
+			}
+		}
+		queue[tail++] = slot;
+	}
+
+	private static boolean or(BitSet into, BitSet from) {
+		int before = into.cardinality();
+		into.or(from);
+		return into.cardinality() != before;
+	}
+
+	/**
+	 * Orders the flowpaths found so every flowpath comes after all the
+	 * flowpaths upstream of it.  Flowpaths in cycles are added at the end.
+	 */
+	private int[] topologicalOrder() {
+		int[] pending = new int[flowpathCnt];
+		for (int i = 0; i < flowpathCnt; i ++) {
+			for (EFlowpath u : flowpaths[i].getFromNode().getUpFlows()) {
+				if (flowpathSlot(u) != NONE) pending[i]++;
+			}
+		}
+		int[] order = new int[flowpathCnt];
+		int head = 0;
+		int tail = 0;
+		for (int i = 0; i < flowpathCnt; i ++) {
+			if (pending[i] == 0) order[tail++] = i;
+		}
+		while (head < tail) {
+			EFlowpath f = flowpaths[order[head++]];
+			for (EFlowpath d : f.getToNode().getDownFlows()) {
+				int down = flowpathSlot(d);
+				if (down != NONE && --pending[down] == 0) order[tail++] = down;
+			}
+		}
+		for (int i = 0; i < flowpathCnt && tail < flowpathCnt; i ++) {
+			if (pending[i] > 0) order[tail++] = i;
+		}
+		return order;
+	}
+
+	private void computeDistances(int[] order) {
+		targetMin = new double[targetCnt * pointCnt];
+		targetMax = new double[targetCnt * pointCnt];
+		targetPrimary = new double[targetCnt * pointCnt];
+		Arrays.fill(targetPrimary, Double.NaN);
+
+		double[] min = new double[nexusCnt];
+		double[] max = new double[nexusCnt];
+		double[] primaryDistance = new double[flowpathCnt];
+		boolean[] started = new boolean[flowpathCnt];
+
+		for (int p = 0; p < pointCnt; p ++) {
+			Arrays.fill(min, Double.NaN);
+			Arrays.fill(max, Double.NaN);
+			Arrays.fill(primaryDistance, Double.NaN);
+			Arrays.fill(started, false);
+
+			//the first flowpath of the pourpoint from each nexus
+			//is where distances are measured from
+			for (EFlowpath f : points.get(p).getDownstreamFlowpaths()) {
+				int slot = flowpathSlot(f);
+				if (Double.isNaN(min[fromNexus[slot]])) {
+					min[fromNexus[slot]] = max[fromNexus[slot]] = -1;
+					min[toNexus[slot]] = max[toNexus[slot]] = 0;
+					started[slot] = true;
+				}
+				primaryDistance[slot] = 0;
+			}
+
+			for (int slot : order) {
+				if (!reached[slot].get(p)) continue;
+				EFlowpath f = flowpaths[slot];
+				double length = f.getLength();
+
+				if (!started[slot]) {
+					int from = fromNexus[slot];
+					int to = toNexus[slot];
+					if (!Double.isNaN(min[from])) {
+						if (min[from] <= 0) {
+							update(min, max, to, length, length);
+						} else {
+							update(min, max, to, min[from] + length, max[from] + length);
+						}
+					}
+				}
+
+				if (Double.isNaN(primaryDistance[slot]) && f.getRank() == Rank.PRIMARY) {
+					for (EFlowpath u : f.getFromNode().getUpFlows()) {
+						int up = flowpathSlot(u);
+						if (up != NONE && !Double.isNaN(primaryDistance[up])) {
+							primaryDistance[slot] = primaryDistance[up] + length;
+							break;
+						}
+					}
+				}
+
+				int to = toNexus[slot];
+				if (to < targetCnt && !Double.isNaN(primaryDistance[slot])) {
+					//the pourpoint's own start flowpath takes precedence
+					int i = to * pointCnt + p;
+					if (targetPrimary[i] != 0) targetPrimary[i] = primaryDistance[slot];
+				}
+			}
+
+			for (int t = 0; t < targetCnt; t ++) {
+				targetMin[t * pointCnt + p] = min[t];
+				targetMax[t * pointCnt + p] = max[t];
+			}
+		}
+	}
+
+	private static void update(double[] min, double[] max, int nexus, double dmin, double dmax) {
+		if (Double.isNaN(min[nexus])) {
+			min[nexus] = dmin;
+			max[nexus] = dmax;
+		} else {
+			if (dmin < min[nexus]) min[nexus] = dmin;
+			if (dmax > max[nexus]) max[nexus] = dmax;
+		}
+	}
+
+	/**
+	 * @return the number of pourpoint start and end nexuses
+	 */
+	int getTargetCount() {
+		return targetCnt;
+	}
+
+	/**
+	 * @return the minimum distance from pourpoint p to the target nexus, -1 if
+	 * the nexus is the start of the pourpoint or NaN if the pourpoint does
+	 * not reach the nexus
+	 */
+	double getMinDistance(int target, int p) {
+		return targetMin[target * pointCnt + p];
+	}
+
+	double getMaxDistance(int target, int p) {
+		return targetMax[target * pointCnt + p];
+	}
+
+	/**
+	 * @return the distance along primary flowpaths from pourpoint p to the
+	 * target nexus or NaN if the pourpoint does not reach it along primary flowpaths
+	 */
+	double getPrimaryDistance(int target, int p) {
+		return targetPrimary[target * pointCnt + p];
+	}
+
+	/**
+	 * @return the pourpoints that reach the flowpath along primary flowpaths, or
+	 * null if none do
+	 */
+	BitSet getPrimaryPourpoints(EFlowpath f) {
+		int slot = flowpathSlot(f);
+		if (slot == NONE || primary[slot].isEmpty()) return null;
+		return primary[slot];
+	}
+
+	/**
+	 * @return the pourpoint that starts at the flowpath or null
+	 */
+	Pourpoint getStartPourpoint(EFlowpath f) {
+		int slot = flowpathSlot(f);
+		if (slot == NONE || startPoint[slot] == NONE) return null;
+		return points.get(startPoint[slot]);
+	}
+}
@@ -234,7 +234,7 @@ public class Pourpoint {
 			//then find the most downstream
 			//edge in that catchment
 			
-			List<ECatchment> catchments = graph.findECatchments(location, 1, 0.0, null);
+			List<ECatchment> catchments = graph.findECatchments(location.getEnvelopeInternal(), 1, c->c.covers(location));
 			if (catchments.isEmpty() || catchments.size() > 1) {
 				String msg = "Pourpoint not located in any catchment (" + raw.getX() + ", " + raw.getY()+ ")";
 				logger.error(msg);
@@ -15,15 +15,18 @@
  */
 package net.refractions.chyf.pourpoint;
 
-import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map.Entry;
-import java.util.Objects;
 import java.util.Set;
+import java.util.function.IntConsumer;
 import java.util.stream.Collectors;
 
 import org.apache.commons.collections.iterators.IteratorChain;
@@ -37,6 +40,8 @@ import org.locationtech.jts.operation.union.UnaryUnionOp;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import gnu.trove.map.hash.TIntObjectHashMap;
+
 import net.refractions.chyf.ChyfDatastore;
 import net.refractions.chyf.enumTypes.CatchmentType;
 import net.refractions.chyf.enumTypes.FlowpathType;
@@ -47,8 +52,10 @@ import net.refractions.chyf.hygraph.ECatchment;
 import net.refractions.chyf.hygraph.ECatchment.ECatchmentStat;
 import net.refractions.chyf.hygraph.EFlowpath;
 import net.refractions.chyf.hygraph.HyGraph;
+import net.refractions.chyf.hygraph.HyGraphTopology;
 import net.refractions.chyf.hygraph.Nexus;
 import net.refractions.chyf.hygraph.StatisticMerger;
+import net.refractions.chyf.hygraph.TraversalState;
 
 /**
  * Computes the various pourpoint features.  See OutputType enum for
@@ -92,19 +99,37 @@ public class PourpointEngine {
 		
 	}
 	
+	/**
+	 * Default maximum number of threads a single computation uses to build drainage areas
+	 */
+	public static final int DEFAULT_PARALLELISM = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+	
 	private List<Pourpoint> points;
 	private HyGraph hygraph;
 	private boolean removeHoles = false;
+	private int parallelism = DEFAULT_PARALLELISM;
 	
-	private HashMap<PourpointKey, Range> distanceValues = new HashMap<>();
 	private Set<OutputType> availableOutputs;
-	private Set<PourpointKey> catchmentContainment;
+	//catchment of point i contains the catchment of point j, at i * points.size() + j
+	private boolean[] catchmentContainment;
+	
+	private DistanceMatrix minDistances;
+	private DistanceMatrix maxDistances;
+	private DistanceMatrix primaryDistances;
+	private RelationshipMatrix catchmentContainmentMatrix;
+	private RelationshipMatrix subCatchmentRelationship;
+	private RelationshipMatrix partitionedCatchmentRelationship;
+	private List<UniqueSubCatchment> sortedPartitionedCatchments;
 	private Set<ECatchment> holes;
 	
 	private String pointRelationshipTree;
 	
 	private int prtNodeCounter = 1;
 	
+	//number of stages reported to the progress listener by compute
+	private static final int STAGES = 7;
+	private ProgressListener progressListener;
+	
 	public PourpointEngine(List<Pourpoint> points, HyGraph hygraph) {
 		this(points, hygraph, false);
 	}
@@ -119,6 +144,20 @@ public class PourpointEngine {
 		return this.hygraph;
 	}
 	
+	/**
+	 * Notified as compute completes each of its stages.
+	 */
+	public interface ProgressListener {
+		/**
+		 * @param completed fraction of the computation completed (0 to 1)
+		 */
+		void progress(double completed);
+	}
+	
+	public void setProgressListener(ProgressListener progressListener) {
+		this.progressListener = progressListener;
+	}
+	
 	public Set<OutputType> getAvailableOutputs(){
 		return this.availableOutputs;
 	}
@@ -127,6 +166,27 @@ public class PourpointEngine {
 		return this.removeHoles;
 	}
 	
+	/**
+	 * Sets the maximum number of threads used to build drainage areas.  The
+	 * threads are shared with other computations.
+	 */
+	public void setParallelism(int parallelism) {
+		if (parallelism < 1) throw new IllegalArgumentException("Parallelism must be at least 1");
+		this.parallelism = parallelism;
+	}
+	
+	public int getParallelism() {
+		return this.parallelism;
+	}
+	
+	/**
+	 * Runs task(0) to task(count - 1) concurrently using
+	 * at most parallelism threads.
+	 */
+	void runParallel(int count, IntConsumer task) {
+		SharedPool.run(count, parallelism, task);
+	}
+	
 	public String getPointRelationshipTree() {
 		return this.pointRelationshipTree;
 	}
@@ -140,12 +200,12 @@ public class PourpointEngine {
 		
 		Geometry g = UnaryUnionOp.union(holes.stream().map(e->e.getPolygon()).collect(Collectors.toList()));
 		if (g instanceof MultiPolygon) {
-			Set<DrainageArea> dholes = new HashSet<>();
-			for (int i = 0; i < ((MultiPolygon)g).getNumGeometries(); i ++) {
+			DrainageArea[] areas = new DrainageArea[g.getNumGeometries()];
+			runParallel(areas.length, i -> {
 				Double area = 0.0;
 			
 				StatisticMerger merger = new StatisticMerger();
-				Polygon p = (Polygon) ((MultiPolygon)g).getGeometryN(i);
+				Polygon p = (Polygon) g.getGeometryN(i);
 				for (ECatchment c : holes) {
 					if (p.contains( c.getPolygon().getInteriorPoint() )) {
 						area += c.getArea();
@@ -155,10 +215,10 @@ public class PourpointEngine {
 				}
 				DrainageArea da = new DrainageArea(p, area);
 				for (Entry<ECatchmentStat,Double> ss : merger.getMergedStats().entrySet()) da.setStat(ss.getKey(), ss.getValue());
-				dholes.add( da );
-			}
+				areas[i] = da;
+			});
 			
-			return dholes;
+			return new HashSet<>(Arrays.asList(areas));
 		}else {
 			double area = 0;
 			StatisticMerger merger = new StatisticMerger();
@@ -191,9 +251,11 @@ public class PourpointEngine {
 			for (OutputType t : OutputType.values()) availableOutputs.add(t);
 		}
 		this.availableOutputs = availableOutputs;
+		progress(0);
 			
 		//compute downstream flowpaths for pourpoints
 		points.forEach(p->p.findDownstreamFlowpaths(hygraph));
+		progress(1);
 			
 		//if two points have the same downstream flowpath then fail - this
 		//is not allowed
@@ -220,6 +282,7 @@ public class PourpointEngine {
 				OutputType.PRT)) {
 			computeUpstreamDownstreamPourpointRelationship();
 		}
+		progress(2);
 		
 		//catchments for pourpoints
 		if (containsOutput(OutputType.CATCHMENTS,
@@ -229,26 +292,51 @@ public class PourpointEngine {
 				OutputType.INTERIOR_CATCHMENT)) {
 			computeUniqueCatchments();
 		}
+		progress(3);
 			
 			
 		if (availableOutputs.contains(OutputType.CATCHMENT_CONTAINMENT) || removeHoles) {
 			computeCatchmentContainsRelationship();
 		}
+		progress(4);
 			
 		//catchment relationships
 		if (availableOutputs.contains(OutputType.PARTITIONED_CATCHMENT_RELATION)) {
 			computePartitionedCatchmentRelations();
 		}
+		progress(5);
 	
 		if (containsOutput(OutputType.INTERIOR_CATCHMENT) || 
 			 (removeHoles && containsOutput(OutputType.CATCHMENTS, OutputType.SUBCATCHMENTS, OutputType.PARTITIONED_CATCHMENTS))) {
 			processHoles();
 		}
+		progress(6);
 		
-		return new PourpointOutput(this);
+		PourpointOutput output = new PourpointOutput(this);
+		progress(STAGES);
+		return output;
+	}
+	
+	/**
+	 * Reports the stage to the progress listener.  The computation
+	 * is abandoned if the thread has been interrupted.
+	 */
+	private void progress(int stage) {
+		checkCancelled();
+		if (progressListener != null) progressListener.progress(stage / (double)STAGES);
 	}
 	
 	
+	/**
+	 * Abandons the computation if the thread has been interrupted, so a 
+	 * cancelled job stops within the stage it is running.
+	 */
+	private void checkCancelled() {
+		if (Thread.currentThread().isInterrupted()) {
+			throw new PourpointException("Pourpoint computation cancelled.");
+		}
+	}
+	
 	public List<Pourpoint> getPoints(){
 		return this.points;
 	}
@@ -257,100 +345,76 @@ public class PourpointEngine {
 	 * sorted by pourpoint id
 	 * @return
 	 */
-	public Integer[][] getCatchmentContainment(){
+	public RelationshipMatrix getCatchmentContainment(){
 		if (!availableOutputs.contains(OutputType.CATCHMENT_CONTAINMENT) ) return null;
+		if (catchmentContainmentMatrix != null) return catchmentContainmentMatrix;
 
-		ArrayList<Pourpoint> sorted = new ArrayList<>(points);
-		sorted.sort((a,b)->a.getId().compareTo(b.getId()));
+		int n = points.size();
+		Integer[] sorted = new Integer[n];
+		for (int i = 0; i < n; i ++) sorted[i] = i;
+		Arrays.sort(sorted, (a,b)->points.get(a).getId().compareTo(points.get(b).getId()));
 		
-		Integer[][] results = new Integer[sorted.size()][sorted.size()];
-		for (int i = 0; i < results.length; i ++) {
-			for (int j = 0; j < results.length; j ++) {
-				PourpointKey key1 = new PourpointKey(sorted.get(i),  sorted.get(j));
-				PourpointKey key2 = new PourpointKey(sorted.get(j),  sorted.get(i));
-				if (catchmentContainment.contains(key1)) {
-					results[i][j] = 1;
-				}else if (catchmentContainment.contains(key2) ) {
-					results[i][j] = -1;
-				}else {
-					results[i][j] = null;
+		RelationshipMatrix results = new RelationshipMatrix(n);
+		for (int i = 0; i < n; i ++) {
+			for (int j = 0; j < n; j ++) {
+				if (catchmentContainment[sorted[i] * n + sorted[j]]) {
+					results.set(i, j, 1);
+				}else if (catchmentContainment[sorted[j] * n + sorted[i]]) {
+					results.set(i, j, -1);
 				}
 			}
 		}
+		catchmentContainmentMatrix = results;
 		return results;
 	}
 	
 	
-	public Double[][] getProjectedPourpointMinDistanceMatrix(){
+	public DistanceMatrix getProjectedPourpointMinDistanceMatrix(){
 		if (!availableOutputs.contains(OutputType.DISTANCE_MIN) ) return null;
-		return getPourpointDistanceMatrix(true);
+		return minDistances;
 	}
 	
-	public Double[][] getProjectedPourpointMaxDistanceMatrix(){
+	public DistanceMatrix getProjectedPourpointMaxDistanceMatrix(){
 		if (!availableOutputs.contains(OutputType.DISTANCE_MAX) ) return null;
-		return getPourpointDistanceMatrix(false);
+		return maxDistances;
 	}
 	
-	private Double[][] getPourpointDistanceMatrix(boolean isMin){
-		
-		Double[][] values = new Double[points.size()][points.size()];
-		
-		for (int i = 0 ; i < points.size(); i ++) {
-			for (int j = 0 ; j < points.size(); j ++) {
-				if (i == j) { values[i][j] = null; continue; }
-				
-				Pourpoint pi = points.get(i);
-				Pourpoint pj = points.get(j);
-				
-				Range range = distanceValues.get(new PourpointKey(pi, pj));
-				int offset = -1;
-				if (range == null) {
-					range = distanceValues.get(new PourpointKey(pj, pi));
-					offset = 1;
-				}
-				if (range == null) {
-					values[i][j] = null;	
-				}else {
-					if (isMin) {
-						values[i][j] = range.minDistance * offset;
-					}else {
-						values[i][j] = range.maxDistance *offset;
-					}
-				}
-			}
-		}
-		return values;
+	public DistanceMatrix getProjectedPourpointPrimaryDistanceMatrix(){
+		if (!availableOutputs.contains(OutputType.DISTANCE_PRIMARY) ) return null;
+		return primaryDistances;
 	}
 	
-	public Double[][] getProjectedPourpointPrimaryDistanceMatrix(){
-		if (!availableOutputs.contains(OutputType.DISTANCE_PRIMARY) ) return null;
-		Double[][] values = new Double[points.size()][points.size()];
+	/**
+	 * Builds the distance matrices from the distances between pairs of points.  The
+	 * distance from point i to point j is at i * points.size() + j; the minimum is 
+	 * NaN if there is no distance between the points and the primary distance is -1 
+	 * if there is no primary distance.  Distances to downstream points are negative.
+	 */
+	private void computeDistanceMatrices(double[] rangeMin, double[] rangeMax, double[] rangePrimary) {
+		int n = points.size();
+		minDistances = availableOutputs.contains(OutputType.DISTANCE_MIN) ? new DistanceMatrix(n) : null;
+		maxDistances = availableOutputs.contains(OutputType.DISTANCE_MAX) ? new DistanceMatrix(n) : null;
+		primaryDistances = availableOutputs.contains(OutputType.DISTANCE_PRIMARY) ? new DistanceMatrix(n) : null;
 		
-		for (int i = 0 ; i < points.size(); i ++) {
-			for (int j = 0 ; j < points.size(); j ++) {
-				if (i == j) { values[i][j] = null; continue; }
+		for (int i = 0 ; i < n; i ++) {
+			for (int j = 0 ; j < n; j ++) {
+				if (i == j) continue;
 				
-				Pourpoint pi = points.get(i);
-				Pourpoint pj = points.get(j);
-				
-				Range range = distanceValues.get(new PourpointKey(pi, pj));
+				int key = i * n + j;
 				int offset = -1;
-				if (range == null) {
-					range = distanceValues.get(new PourpointKey(pj, pi));
+				if (Double.isNaN(rangeMin[key])) {
+					key = j * n + i;
 					offset = 1;
 				}
-				if (range == null || range.primaryDistance < 0) {
-					values[i][j] = null;	
-				}else {
-					values[i][j] = range.primaryDistance * offset;
+				if (Double.isNaN(rangeMin[key])) continue;
+				
+				if (minDistances != null) minDistances.set(i, j, rangeMin[key] * offset);
+				if (maxDistances != null) maxDistances.set(i, j, rangeMax[key] * offset);
+				if (primaryDistances != null && rangePrimary[key] >= 0) {
+					primaryDistances.set(i, j, rangePrimary[key] * offset);
 				}
 			}
 		}
-		return values;
-	}
-	
-	public HashMap<PourpointKey, Range> getPourpointDistances(){
-		return this.distanceValues;
 	}
 	
 	/**
@@ -358,27 +422,34 @@ public class PourpointEngine {
 	 * provided to the engine (see getPoints)
 	 * @return
 	 */
-	public Integer[][] getSubCatchmentRelationship(){
+	public RelationshipMatrix getSubCatchmentRelationship(){
 		if (!availableOutputs.contains(OutputType.SUBCATCHMENT_RELATIONSHIP)) return null;
-		Integer[][] values = new Integer[points.size()][points.size()];
-	
+		if (subCatchmentRelationship != null) return subCatchmentRelationship;
+		
+		IdentityHashMap<Pourpoint, Integer> index = new IdentityHashMap<>();
+		for (int i = 0; i < points.size(); i ++) index.put(points.get(i), i);
+		
+		RelationshipMatrix values = new RelationshipMatrix(points.size());
 		for (int i = 0 ; i < points.size(); i ++) {
-			for (int j = 0 ; j < points.size(); j ++) {
-				if (i == j) { values[i][j] = null; continue; }
-				
-				Pourpoint pi = points.get(i);
-				Pourpoint pj = points.get(j);
-				
-				if (pi.getUpstreamPourpoints().contains(pj)) { values[i][j] = -1; continue;}
-				if (pi.getDownstreamPourpoints().contains(pj)) { values[i][j] = 1; continue;}
-				values[i][j] = null;
+			Pourpoint pi = points.get(i);
+			for (Pourpoint pj : pi.getDownstreamPourpoints()) {
+				Integer j = index.get(pj);
+				if (j != null && j != i) values.set(i, j, 1);
+			}
+			//upstream takes precedence
+			for (Pourpoint pj : pi.getUpstreamPourpoints()) {
+				Integer j = index.get(pj);
+				if (j != null && j != i) values.set(i, j, -1);
 			}
 		}
+		subCatchmentRelationship = values;
 		return values;
 	}
 	
 	public List<UniqueSubCatchment> getSortedPartitionedCatchments(){
 		if (!availableOutputs.contains(OutputType.PARTITIONED_CATCHMENTS) && !availableOutputs.contains(OutputType.PARTITIONED_CATCHMENT_RELATION) ) return null;
+		if (sortedPartitionedCatchments != null) return sortedPartitionedCatchments;
+		
 		Set<UniqueSubCatchment> allCatchments = new HashSet<>();
 		for (Pourpoint p : points) {
 			allCatchments.addAll(p.getTraversalCompliantCatchments());
@@ -387,32 +458,34 @@ public class PourpointEngine {
 		List<UniqueSubCatchment> ordered = new ArrayList<>();
 		ordered.addAll(allCatchments);
 		ordered.sort((a, b) -> a.getId().compareTo(b.getId()));
+		sortedPartitionedCatchments = ordered;
 		return ordered;
-}
+	}
 	
 	/**
 	 * results are ordered by catchment id (see getSortedUniqueSubCatchments)
 	 * @return
 	 */
-	public Integer[][] getPartitionedCatchmentRelationship(){
+	public RelationshipMatrix getPartitionedCatchmentRelationship(){
 		if (!availableOutputs.contains(OutputType.PARTITIONED_CATCHMENT_RELATION)) return null;
+		if (partitionedCatchmentRelationship != null) return partitionedCatchmentRelationship;
+		
 		List<UniqueSubCatchment> ordered = getSortedPartitionedCatchments();
-		Integer[][] values = new Integer[ordered.size()][ordered.size()];
+		RelationshipMatrix values = new RelationshipMatrix(ordered.size());
 		for (int i = 0 ; i < ordered.size(); i ++) {
 			for (int j = 0 ; j < ordered.size(); j ++) {
-				if (i == j) { values[i][j] = null; continue; }
+				if (i == j) continue;
 				
 				UniqueSubCatchment pi = ordered.get(i);
 				UniqueSubCatchment pj = ordered.get(j);
 				if (pi.isUpstream(pj)) {
-					values[i][j] = -1;
+					values.set(i, j, -1);
 				}else if (pj.isUpstream(pi)) {
-					values[i][j] = 1;
-				}else {
-					values[i][j] = null;
+					values.set(i, j, 1);
 				}
 			}
 		}
+		partitionedCatchmentRelationship = values;
 		return values;
 	}
 	
@@ -464,112 +537,92 @@ public class PourpointEngine {
 			}
 		}
 
-		//push downstream, computing upstream catchment computations
+		//label the subcatchment network for upstream/downstream lookups
+		Set<UniqueSubCatchment> all = new LinkedHashSet<>();
 		for(Pourpoint p : points) {
-			for (UniqueSubCatchment cat : p.getTraversalCompliantCatchments()) {
-				cat.computeUpstreamCatchments();
-			}
+			all.addAll(p.getTraversalCompliantCatchments());
 		}
+		UniqueSubCatchment.computeUpstreamCatchments(all);
 	}
 
 	
 	
 	private void computeUpstreamDownstreamPourpointRelationship() {
-		HashMap<Nexus, HashMap<Pourpoint, Range>> nodedistances = new HashMap<>();
+		//distances from point i to point j at i * pointCnt + j; a NaN minimum means
+		//there is no distance between the points
+		int pointCnt = points.size();
+		double[] rangeMin = new double[pointCnt * pointCnt];
+		double[] rangeMax = new double[pointCnt * pointCnt];
+		double[] rangePrimary = new double[pointCnt * pointCnt];
+		Arrays.fill(rangeMin, Double.NaN);
 		
-		//in the double array the first value is the
-		//primary distance to the node and the second
-		//value the horton order of the input edge
-		HashMap<EFlowpath, HashMap<Pourpoint, Double>> primarydistances = new HashMap<>();
-
-		distanceValues = new HashMap<>();
-		
-		for (Pourpoint pp : points) {
-			//walk downstream until we reach the network terminus
-			for (EFlowpath edge : pp.getDownstreamFlowpaths()) {
-				processPourpointRel(pp, edge, nodedistances, primarydistances);
-			}
-		}	
+		//walk downstream from all pourpoints until there are no more relationships
+		DownstreamSweep sweep = new DownstreamSweep(hygraph, points);
+		sweep.compute(availableOutputs.contains(OutputType.PRT));
 		
-		//this pourpoint relationship is the pourpoint catchment relationship
-		//not the relationship of pourpoints along the flow network
-		for (HashMap<Pourpoint, Range> nodeRel : nodedistances.values()) {
-			for (Pourpoint p : nodeRel.keySet()) {
-				Range d = nodeRel.get(p);
-				if (d.getMinDistance() == -1) {
-					HashSet<Pourpoint> items = new HashSet<>(nodeRel.keySet());
-					//also remove other -1 items as these have the same headwaters
-					for (Entry<Pourpoint, Range> rr : nodeRel.entrySet()) {
-						if (rr.getValue().getMinDistance() == -1) items.remove(rr.getKey());
-					}
-					p.getUpstreamPourpoints().addAll(items);
-					items.forEach(pr->pr.getDownstreamPourpoints().add(p));
+		for (int t = 0; t < sweep.getTargetCount(); t ++) {
+			//this pourpoint relationship is the pourpoint catchment relationship
+			//not the relationship of pourpoints along the flow network
+			for (int i = 0; i < pointCnt; i ++) {
+				if (sweep.getMinDistance(t, i) != -1) continue;
+				Pourpoint p = points.get(i);
+				//other -1 items have the same headwaters
+				for (int j = 0; j < pointCnt; j ++) {
+					double d = sweep.getMinDistance(t, j);
+					if (Double.isNaN(d) || d == -1) continue;
+					p.getUpstreamPourpoints().add(points.get(j));
+					points.get(j).getDownstreamPourpoints().add(p);
 				}
 			}
-		}
-		
-		//the distances between the pourpoints is computed based on the flow
-		//network and is not associated in any way with the catchment relationship
-		
-		for (HashMap<Pourpoint, Range> nodeRel : nodedistances.values()) {
-			for (Pourpoint p : nodeRel.keySet()) {
-				Range d = nodeRel.get(p);
-				if (d.getMinDistance() == 0) {
-					//for all other pourpoints at this node
-					for (Pourpoint p2 : nodeRel.keySet()) {		
-						if (p2 == p) continue;
-						if (nodeRel.get(p2).getMinDistance() == -1) continue;
-
-						PourpointKey key = new PourpointKey(p, p2);
-						Range r = distanceValues.get(key);
-						if (r == null) {
-							r = new Range();
-							distanceValues.put(key, r);
-						}
-						r.updateDistance( nodeRel.get(p2).getMinDistance(), nodeRel.get(p2).getMaxDistance());
-						
-						
-					}
+			
+			//the distances between the pourpoints is computed based on the flow
+			//network and is not associated in any way with the catchment relationship
+			for (int i = 0; i < pointCnt; i ++) {
+				if (sweep.getMinDistance(t, i) != 0) continue;
+				//for all other pourpoints at this node
+				for (int j = 0; j < pointCnt; j ++) {
+					if (j == i) continue;
+					double d = sweep.getMinDistance(t, j);
+					if (Double.isNaN(d) || d == -1) continue;
+					
+					int key = i * pointCnt + j;
+					if (Double.isNaN(rangeMin[key])) newRange(key, rangeMin, rangeMax, rangePrimary);
+					double max = sweep.getMaxDistance(t, j);
+					if (d < rangeMin[key]) rangeMin[key] = d;
+					if (max > rangeMax[key]) rangeMax[key] = max;
 				}
 			}
 		}
 		
-		HashMap<Nexus, HashMap<Pourpoint, Double>> prjprimarydistances = new HashMap<>();
-		for (Entry<EFlowpath, HashMap<Pourpoint, Double>> e : primarydistances.entrySet()) {
-			Nexus n = e.getKey().getToNode();
-			HashMap<Pourpoint, Double> items = prjprimarydistances.get(n);
-			if (items == null) {
-				items = new HashMap<>();
-				prjprimarydistances.put(n,  items);
-			}
-			items.putAll(e.getValue());
-		}
-
-		for (HashMap<Pourpoint, Double> nodeRel : prjprimarydistances.values()) {
-			for (Pourpoint p : nodeRel.keySet()) {
-				Double d = nodeRel.get(p);
-				if (d == 0) {
-					//for all other pourpoints at this node
-					for (Pourpoint p2 : nodeRel.keySet()) {	
-						PourpointKey key = new PourpointKey(p, p2);
-						Double primarydistance = nodeRel.get(p2);
-						Range r = distanceValues.get(key);
-						if (r == null) {
-							r = new Range();
-							distanceValues.put(key, r);
-						}
-						r.primaryDistance = primarydistance;
-					}
+		for (int t = 0; t < sweep.getTargetCount(); t ++) {
+			for (int i = 0; i < pointCnt; i ++) {
+				if (sweep.getPrimaryDistance(t, i) != 0) continue;
+				//for all other pourpoints at this node
+				for (int j = 0; j < pointCnt; j ++) {
+					double primarydistance = sweep.getPrimaryDistance(t, j);
+					if (Double.isNaN(primarydistance)) continue;
+					
+					int key = i * pointCnt + j;
+					if (Double.isNaN(rangeMin[key])) newRange(key, rangeMin, rangeMax, rangePrimary);
+					rangePrimary[key] = primarydistance;
 				}
 			}
 		}
 		
+		computeDistanceMatrices(rangeMin, rangeMax, rangePrimary);
+		
 		if (availableOutputs.contains(OutputType.PRT)) {
-			computePointRelationshipTree2(primarydistances);
+			computePointRelationshipTree2(sweep);
 		}
 	}
 	
-	private void computePointRelationshipTree2(HashMap<EFlowpath, HashMap<Pourpoint, Double>> primarydistances) {
+	private static void newRange(int key, double[] rangeMin, double[] rangeMax, double[] rangePrimary) {
+		rangeMin[key] = Double.POSITIVE_INFINITY;
+		rangeMax[key] = Double.NEGATIVE_INFINITY;
+		rangePrimary[key] = -1;
+	}
+	
+	private void computePointRelationshipTree2(DownstreamSweep sweep) {
 
 		List<Pourpoint> down = new ArrayList<>();
 		for (Pourpoint p : points) {
@@ -597,8 +650,8 @@ public class PourpointEngine {
 			EFlowpath current = toprocess.get(0);
 			while(true) {
 				
-				HashMap<Pourpoint, Double> ed = primarydistances.get(current);
-				if (ed.keySet().size() ==  matched.size()) {
+				BitSet ed = sweep.getPrimaryPourpoints(current);
+				if (ed.cardinality() ==  matched.size()) {
 					//make sure edges is not a start edge
 					boolean ok = true;
 					for (Pourpoint p : matched) {
@@ -622,9 +675,14 @@ public class PourpointEngine {
 						break;
 					}
 				}
+				if (out != null && sweep.getPrimaryPourpoints(out) == null) {
+					//the downstream walk stopped here so nothing joins further down
+					out = null;
+				}
 				if (out == null) {
 					toprocess2.add(current);
-					for (Pourpoint p : ed.keySet()) {
+					for (int i = ed.nextSetBit(0); i >= 0; i = ed.nextSetBit(i + 1)) {
+						Pourpoint p = points.get(i);
 						toprocess.removeAll(p.getDownstreamFlowpaths());
 						matched.remove(p);
 					}
@@ -638,7 +696,7 @@ public class PourpointEngine {
 		
 		for (EFlowpath p : toprocess2) {
 			StringBuilder sb = new StringBuilder();
-			processEdge2(p, sb, primarydistances, false);
+			processEdge2(p, sb, sweep, false);
 			frt.append(sb.toString());
 			frt.append(";");	
 		}
@@ -653,33 +711,27 @@ public class PourpointEngine {
 		sb.append(id);
 	}
 	
-	private void processEdge2(EFlowpath edge, StringBuilder frt, HashMap<EFlowpath,HashMap<Pourpoint, Double>> primarydistances, boolean ignorestart) {
+	private void processEdge2(EFlowpath edge, StringBuilder frt, DownstreamSweep sweep, boolean ignorestart) {
 		
-		List<Set<Pourpoint>> upEdges = new ArrayList<>();
+		List<BitSet> upEdges = new ArrayList<>();
 		List<EFlowpath> importantUp = new ArrayList<>();
 		
-		Pourpoint startPnt = null;
-		
 		//find if I represent a pourpoint start point
-		HashMap<Pourpoint, Double> map = primarydistances.get(edge);
-		for (Entry<Pourpoint, Double> d : map.entrySet()) {
-			if ( d.getValue() == 0) {
-				startPnt = d.getKey();
-			}
-		}
+		Pourpoint startPnt = sweep.getStartPourpoint(edge);
 
 		//find all inflows and determine if they represent the same pourpoint
 		//set or if I need an x node
 		for (EFlowpath in : edge.getFromNode().getUpFlows()) {
-			if (primarydistances.containsKey(in)) {
-				upEdges.add(primarydistances.get(in).keySet());
+			BitSet up = sweep.getPrimaryPourpoints(in);
+			if (up != null) {
+				upEdges.add(up);
 				importantUp.add(in);
 			}
 		}
 		boolean issame = true;
 		for (int i = 0; i < upEdges.size(); i ++) {
 			for (int j = i; j < upEdges.size(); j ++) {
-				if (!setEqual(upEdges.get(i), upEdges.get(j))) {
+				if (!upEdges.get(i).equals(upEdges.get(j))) {
 					issame = false;
 					break;
 				}
@@ -690,7 +742,9 @@ public class PourpointEngine {
 		//all upstream edges (ccode 0) we need to do things a big different
 		Pourpoint ccode0 = null;
 		if (upEdges.size() > 1) {
-			for (Pourpoint p : upEdges.get(0)) {
+			BitSet up = upEdges.get(0);
+			for (int i = up.nextSetBit(0); i >= 0; i = up.nextSetBit(i + 1)) {
+				Pourpoint p = points.get(i);
 				if (p.getDownstreamFlowpaths().size() > 1 && p.getDownstreamFlowpaths().contains(importantUp.get(0))) {
 					ccode0 = p;
 					break;
@@ -734,7 +788,7 @@ public class PourpointEngine {
 			return a1.compareTo(b1);
 		});
 		for (EFlowpath i : importantUp) {
-			processEdge2(i, frt, primarydistances, ccode0 != null);
+			processEdge2(i, frt, sweep, ccode0 != null);
 			
 		}	
 		
@@ -743,112 +797,31 @@ public class PourpointEngine {
 		}
 	}
 	
-	private void processPourpointRel(Pourpoint point, EFlowpath path, HashMap<Nexus, HashMap<Pourpoint, Range>> nodedistances, HashMap<EFlowpath, HashMap<Pourpoint, Double>> primaryDistances) {
-		//TODO: stop once we've visited all pourpoints as there won't be any more relationships downstream
-		//this stop would only be useful if all the pourpoints are on the same network, if they are on
-		//different trees it might not be useful
-		ArrayDeque<EFlowpath> toProcess = new ArrayDeque<>();
-		toProcess.add(path);
-		
-		
-		//this is the first edges; we don't care if its primary or not
-		HashMap<Pourpoint, Double> primaryOutValue = primaryDistances.get(path);
-		if (primaryOutValue == null) {
-			primaryOutValue = new HashMap<>();
-			primaryDistances.put(path,  primaryOutValue);
-		}
-		primaryOutValue.put(point, 0.0);
-		
-		
-		while(!toProcess.isEmpty()) {
-			EFlowpath item = toProcess.removeFirst();
-		
-			Nexus inNode = item.getFromNode();
-			Nexus outNode = item.getToNode();
-			
-			HashMap<Pourpoint, Range> inValue = nodedistances.get(inNode);
-			if (inValue == null) {
-				inValue = new HashMap<>();
-				nodedistances.put(inNode, inValue);
-			}
-			HashMap<Pourpoint, Range> outValue = nodedistances.get(outNode);
-			if (outValue == null) {
-				outValue = new HashMap<>();
-				nodedistances.put(outNode, outValue);
-			}
-			
-			double distance = item.getLength();
-			//update primary distance
-			if (item.getRank() == Rank.PRIMARY && item != path) {
-				//find the upstream edge
-				EFlowpath up = null;
-				for (EFlowpath upedges : item.getFromNode().getUpFlows()) {
-					if (primaryDistances.containsKey(upedges) && primaryDistances.get(upedges).containsKey(point)) {
-						up = upedges;
-						break;
-					}
-				}
-				
-				if (up != null) {
-					Double pdistance = primaryDistances.get(up).get(point);
-					pdistance += distance;
-				
-					primaryOutValue = primaryDistances.get(item);
-					if (primaryOutValue == null) {
-						primaryOutValue = new HashMap<>();
-						primaryDistances.put(item,  primaryOutValue);
-					}
-					primaryOutValue.put(point, pdistance);
-				}
-			}
-			
-			
-			boolean continueDownstream = true;
-			//compute distances for downstream node		
-			if (!inValue.containsKey(point)) {
-				inValue.put(point, new Range(-1, -1));
-				outValue.put(point,new Range(0,0));
-			}else {
-				Range v = inValue.get(point);
-				Range outRange = outValue.get(point);
-				if (outRange == null) outRange = new Range();
-				if (v.minDistance <= 0) {
-					outRange.updateDistance(distance, distance);
-				}else {
-					boolean isChanged = outRange.updateDistance(v.minDistance + distance, v.maxDistance+distance);
-					continueDownstream = isChanged;
-					//if this doesn't make a change to the distances we don't need to continue down this path
-					//but we always continue down the primary path
-				}
-				outValue.put(point, outRange);
-			}
-			
-			if (item.getRank() == Rank.PRIMARY || continueDownstream) {
-				for (EFlowpath downstream: outNode.getDownFlows()) {
-					toProcess.addLast(downstream);
-				}
-			}
-		}	
-	}
-	
-	
 	/**
 	 * Computes the unique catchments and unique subcatchments for each pourpoint
 	 * @throws Exception 
 	 */
 	
 	private void computeUniqueCatchments() {
-		ArrayDeque<Pourpoint> toProcess = new ArrayDeque<>();
-		
-		for (Pourpoint pp : points) {
-			if (pp.getUpstreamPourpoints().isEmpty()) toProcess.add(pp);
+		//process the pourpoints upstream first; a pourpoint is ready once
+		//all of its upstream pourpoints are done
+		IdentityHashMap<Pourpoint, Integer> index = new IdentityHashMap<>();
+		for (int i = 0; i < points.size(); i ++) index.put(points.get(i), i);
+		int[] pending = new int[points.size()];
+		int[] toProcess = new int[points.size()];
+		int head = 0;
+		int tail = 0;
+		for (int i = 0; i < points.size(); i ++) {
+			pending[i] = points.get(i).getUpstreamPourpoints().size();
+			if (pending[i] == 0) toProcess[tail++] = i;
 		}
 		
-		HashMap<EFlowpath, Set<ECatchment>> catchments = new HashMap<>();
-		Set<Pourpoint> processed = new HashSet<>();
-		while(!toProcess.isEmpty()) {
-			Pourpoint item = toProcess.removeFirst();
-			processed.add(item);
+		HyGraphTopology topology = hygraph.getTopology();
+		//the catchments upstream of each processed pourpoint flowpath by topology index
+		TIntObjectHashMap<BitSet> catchments = new TIntObjectHashMap<>();
+		while(head < tail) {
+			checkCancelled();
+			Pourpoint item = points.get(toProcess[head++]);
 			for (EFlowpath path : item.getDownstreamFlowpaths()) {
 				List<ECatchment>[] results = findUpstreamCatchments(item, path, catchments);
 					
@@ -857,10 +830,10 @@ public class PourpointEngine {
 					
 				item.addUpstreamCatchments(uniqueCatchments, otherCatchments);
 				
-				Set<ECatchment> all = new HashSet<>();
-				all.addAll(uniqueCatchments);
-				all.addAll(otherCatchments);
-				catchments.put(path, all);
+				BitSet all = new BitSet();
+				for (ECatchment c : uniqueCatchments) all.set(topology.indexOf(c));
+				for (ECatchment c : otherCatchments) all.set(topology.indexOf(c));
+				catchments.put(topology.indexOf(path), all);
 			}
 			
 			for (EFlowpath path : item.getOtherDownstreamFlowpaths()) {
@@ -870,14 +843,13 @@ public class PourpointEngine {
 				item.addNeighbourCatchments(uniqueCatchments, otherCatchments);
 			}
 			
-			//remove pourpoint and find the next to process
-			for (Pourpoint pp : points) {
-				if (processed.contains(pp)) continue;
-				if (toProcess.contains(pp)) continue;
-				Set<Pourpoint> tt = new HashSet<>(pp.getUpstreamPourpoints());
-				tt.removeAll(processed);
-				if (tt.isEmpty()) toProcess.add(pp);
+			//queue the downstream pourpoints that are now ready, in input order
+			int start = tail;
+			for (Pourpoint pp : item.getDownstreamPourpoints()) {
+				int i = index.get(pp);
+				if (--pending[i] == 0) toProcess[tail++] = i;
 			}
+			Arrays.sort(toProcess, start, tail);
 		}
 		
 		//compute stop catchments for merging elementrary catchments into
@@ -939,7 +911,10 @@ public class PourpointEngine {
 		
 		Set<ECatchment> allcatchments = mappings.keySet();
 		Set<ECatchment> usedcatchments = new HashSet<>();
-		points.forEach(p->createPartitionedCatchments(p, stopPoints, usedcatchments, allcatchments));
+		for (Pourpoint p : points) {
+			checkCancelled();
+			createPartitionedCatchments(p, stopPoints, usedcatchments, allcatchments);
+		}
 		
 		//assign an unique identifier
 		int id = 0;
@@ -988,24 +963,28 @@ public class PourpointEngine {
 	 * compute catchment containment relationship
 	 */
 	private void computeCatchmentContainsRelationship() {
-		catchmentContainment = new HashSet<>();
-		for (Pourpoint point1 : points) {
-			for (Pourpoint point2 : points) {
+		int n = points.size();
+		catchmentContainment = new boolean[n * n];
+		for (int i = 0; i < n; i ++) {
+			checkCancelled();
+			Pourpoint point1 = points.get(i);
+			for (int j = 0; j < n; j ++) {
+				Pourpoint point2 = points.get(j);
 				if (point1 == point2) continue;
 				
-				PourpointKey key;
+				int key;
 				if (point2.getSharedCatchments().size() > point1.getSharedCatchments().size()) {
 					//point2 contains point2
-					key = new PourpointKey(point2, point1);
+					key = j * n + i;
 				}else {
 					//point1 contains point2
-					key = new PourpointKey(point1, point2);
+					key = i * n + j;
 				}
-				if (catchmentContainment.contains(key)) continue;
+				if (catchmentContainment[key]) continue;
 				
 				for (ECatchment c : point1.getSharedCatchments()) {
 					if (point2.getSharedCatchments().contains(c) || point2.getUniqueCatchments().contains(c)) {
-						catchmentContainment.add(key);
+						catchmentContainment[key] = true;
 						break;
 					}
 				}
@@ -1126,32 +1105,43 @@ public class PourpointEngine {
 	}
 	
 	
-	private List<ECatchment>[] findUpstreamCatchments(Pourpoint point, EFlowpath root, HashMap<EFlowpath, Set<ECatchment>> catchments){
+	private List<ECatchment>[] findUpstreamCatchments(Pourpoint point, EFlowpath root, TIntObjectHashMap<BitSet> catchments){
 		
 		List<ECatchment> uniqueCatchments = new ArrayList<ECatchment>();
 		List<ECatchment> otherCatchments = new ArrayList<ECatchment>();
 		
-		ArrayDeque<EFlowpath> toProcess = new ArrayDeque<>();
-		toProcess.add(root);
-		Set<EFlowpath> visited = new HashSet<>();
-		while(!toProcess.isEmpty()) {
-			EFlowpath item = toProcess.removeFirst();
-			visited.add(item);
-			if (catchments.containsKey(item)) {
-				otherCatchments.addAll(catchments.get(item));
-			}else {
-				ECatchment c = item.getCatchment();
-				if(item.getType() == FlowpathType.BANK) {
-					c = item.getFromNode().getBankCatchment();
-				}
-				//TODO: c should never be null here - this fix is added temporarily for KOTL data issues.
-				if (c != null) uniqueCatchments.add(c);
-				for(EFlowpath f: item.getFromNode().getUpFlows()) {
-					if (!visited.contains(f)) toProcess.addLast(f);
-				}
-			}	
+		HyGraphTopology topology = hygraph.getTopology();
+		int[] offsets = topology.getNexusUpOffsets();
+		int[] neighbours = topology.getNexusUpFlowpaths();
+		try(TraversalState state = hygraph.beginTraversal()){
+			// flowpath marks track visited flowpaths, catchment marks
+			// track catchments already accounted for by upstream pourpoints
+			state.enqueue(topology.indexOf(root));
+			state.markFlowpath(topology.indexOf(root));
+			while(!state.isQueueEmpty()) {
+				int f = state.dequeue();
+				EFlowpath item = topology.eFlowpath(f);
+				BitSet upstream = catchments.get(f);
+				if (upstream != null) {
+					//reuse the catchments already found for the upstream pourpoint
+					for (int c = upstream.nextSetBit(0); c >= 0; c = upstream.nextSetBit(c + 1)) {
+						if (state.markCatchment(c)) otherCatchments.add(topology.eCatchment(c));
+					}
+				}else {
+					ECatchment c = item.getCatchment();
+					if(item.getType() == FlowpathType.BANK) {
+						c = item.getFromNode().getBankCatchment();
+					}
+					//TODO: c should never be null here - this fix is added temporarily for KOTL data issues.
+					if (c != null) uniqueCatchments.add(c);
+					int n = topology.indexOf(item.getFromNode());
+					for(int k = offsets[n]; k < offsets[n+1]; k++) {
+						if (state.markFlowpath(neighbours[k])) state.enqueue(neighbours[k]);
+					}
+				}	
+			}
+			uniqueCatchments.removeIf(c->state.isCatchmentMarked(topology.indexOf(c)));
 		}
-		uniqueCatchments.removeAll(otherCatchments);
 		return new List[] {uniqueCatchments, otherCatchments};
 	}
 
@@ -1164,9 +1154,10 @@ public class PourpointEngine {
 		
 		Set<Geometry> geometries = new HashSet<>();
 		
-		for (Pourpoint point : points) {
-			DrainageArea area = point.getCatchmentDrainageArea(hygraph, false);
-			
+		//the catchments of each point are unioned concurrently
+		DrainageArea[] areas = new DrainageArea[points.size()];
+		runParallel(areas.length, i -> areas[i] = points.get(i).getCatchmentDrainageArea(hygraph, false));
+		for (DrainageArea area : areas) {
 			//TODO: this should always be a single polygon; this was added because of issues
 			//with kotl dataset and multipolygons were returned
 			for (int i = 0; i < area.getGeometry().getNumGeometries(); i ++) {
@@ -1293,59 +1284,6 @@ public class PourpointEngine {
 		}
 	}
 
-	class Range{
-		double minDistance;
-		double maxDistance;
-		double primaryDistance = -1;
-		
-		public Range(double min, double max) {
-			this.minDistance = min;
-			this.maxDistance = max;
-		}
-		public Range() {
-			minDistance = Double.POSITIVE_INFINITY;
-			maxDistance = Double.NEGATIVE_INFINITY;
-		}
-		
-		public boolean updateDistance(double min, double max) {
-			boolean changed = false;
-			if (min < minDistance) {
-				minDistance = min;
-				changed = true;
-			}
-			if (max > maxDistance) {
-				maxDistance = max;
-				changed = true;
-			}
-			return changed;
-		}
-		
-		public double getMinDistance() { return this.minDistance; }
-		public double getMaxDistance() { return this.maxDistance; }
-		public double getPrimaryDistance() { return this.primaryDistance; }
-	}
-	
-	class PourpointKey{
-		Pourpoint from;
-		Pourpoint to;
-		
-		public PourpointKey(Pourpoint from, Pourpoint to) {
-			this.from = from;
-			this.to = to;
-		}
-		@Override
-		public int hashCode() {
-			return Objects.hash(from,to);
-		}
-		@Override
-		public boolean equals(Object other) {
-			if (other == null) return false;
-			if (other.getClass() != getClass()) return false;
-			return Objects.equals(from, ((PourpointKey)other).from) && Objects.equals(to, ((PourpointKey)other).to);
-		}
-	}
-	
-	
 	class NexusItem{
 		Nexus nexus;
 		double distance;
@@ -38,18 +38,18 @@ public class PourpointOutput {
 	
 	//catchments
 	private HashMap<Pourpoint, DrainageArea> catchments;
-	private Integer[][] ccr;
+	private RelationshipMatrix ccr;
 	//sub catchment rel.
-	private Integer[][] scr;
+	private RelationshipMatrix scr;
 	private HashMap<Pourpoint, DrainageArea> subcatchments;
 	
 	//partitioned catchments
 	private List<DrainageArea> partitionedcatchments;
-	private Integer[][] pcr;
+	private RelationshipMatrix pcr;
 	
-	private Double[][] minPpDistance;
-	private Double[][] maxPpDistance;
-	private Double[][] primaryPpDistance;
+	private DistanceMatrix minPpDistance;
+	private DistanceMatrix maxPpDistance;
+	private DistanceMatrix primaryPpDistance;
 	
 	private Set<DrainageArea> interiorCatchments;
 	private String prt = "";
@@ -59,14 +59,6 @@ public class PourpointOutput {
 		this.scr = engine.getSubCatchmentRelationship();
 		this.pcr = engine.getPartitionedCatchmentRelationship();
 		
-		if (engine.getSortedPartitionedCatchments() != null) {
-			partitionedcatchments = new ArrayList<>();
-			for (UniqueSubCatchment c : engine.getSortedPartitionedCatchments()) {
-				DrainageArea da = c.getDrainageArea(engine.getGraph());
-				da.setId(c.getId());
-				partitionedcatchments.add(da);
-			}
-		}
 		this.ccr = engine.getCatchmentContainment();
 		this.interiorCatchments = engine.getInteriorCatchments();
 		
@@ -76,17 +68,36 @@ public class PourpointOutput {
 		this.outputs = engine.getAvailableOutputs();
 		this.prt = engine.getPointRelationshipTree();
 		
-		if (engine.getAvailableOutputs().contains(OutputType.CATCHMENTS)) {
-			catchments = new HashMap<>();
-			for (Pourpoint p : points) {
-				catchments.put(p, p.getCatchmentDrainageArea(engine.getGraph(), engine.getRemoveHoles()));
+		//the catchment, subcatchment and partitioned catchment drainage areas are
+		//independent of each other so their geometries are unioned concurrently
+		List<UniqueSubCatchment> partitioned = engine.getSortedPartitionedCatchments();
+		int ccnt = outputs.contains(OutputType.CATCHMENTS) ? points.size() : 0;
+		int scnt = outputs.contains(OutputType.SUBCATCHMENTS) ? points.size() : 0;
+		int pcnt = partitioned == null ? 0 : partitioned.size();
+		DrainageArea[] areas = new DrainageArea[ccnt + scnt + pcnt];
+		engine.runParallel(areas.length, i -> {
+			if (i < ccnt) {
+				areas[i] = points.get(i).getCatchmentDrainageArea(engine.getGraph(), engine.getRemoveHoles());
+			}else if (i < ccnt + scnt) {
+				areas[i] = engine.getGraph().buildDrainageArea(points.get(i - ccnt).getUniqueCatchments(), false);
+			}else {
+				UniqueSubCatchment c = partitioned.get(i - ccnt - scnt);
+				areas[i] = c.getDrainageArea(engine.getGraph());
+				areas[i].setId(c.getId());
 			}
+		});
+		
+		if (outputs.contains(OutputType.CATCHMENTS)) {
+			catchments = new HashMap<>();
+			for (int i = 0; i < ccnt; i ++) catchments.put(points.get(i), areas[i]);
 		}
-		if (engine.getAvailableOutputs().contains(OutputType.SUBCATCHMENTS)) {
+		if (outputs.contains(OutputType.SUBCATCHMENTS)) {
 			subcatchments = new HashMap<>();
-			for (Pourpoint p : points) {
-				subcatchments.put(p, engine.getGraph().buildDrainageArea(p.getUniqueCatchments(), false));
-			}
+			for (int i = 0; i < scnt; i ++) subcatchments.put(points.get(i), areas[ccnt + i]);
+		}
+		if (partitioned != null) {
+			partitionedcatchments = new ArrayList<>();
+			for (int i = 0; i < pcnt; i ++) partitionedcatchments.add(areas[ccnt + scnt + i]);
 		}
 		
 	}
@@ -107,27 +118,27 @@ public class PourpointOutput {
 		return points;
 	}
 
-	public Double[][] getProjectedPourpointMinDistanceMatrix(){
+	public DistanceMatrix getProjectedPourpointMinDistanceMatrix(){
 		return minPpDistance;
 	}
 	
-	public Double[][] getProjectedPourpointMaxDistanceMatrix(){
+	public DistanceMatrix getProjectedPourpointMaxDistanceMatrix(){
 		return maxPpDistance;
 	}
 	
-	public Double[][] getProjectedPourpointPrimaryDistanceMatrix(){
+	public DistanceMatrix getProjectedPourpointPrimaryDistanceMatrix(){
 		return primaryPpDistance;
 	}
 	
-	public Integer[][] getCatchmentContainment(){
+	public RelationshipMatrix getCatchmentContainment(){
 		return this.ccr;
 	}
 	
-	public Integer[][] getSubCatchmentRelationship() {
+	public RelationshipMatrix getSubCatchmentRelationship() {
 		return scr;
 	}
 
-	public Integer[][] getPartitionedCatchmentRelationship() {
+	public RelationshipMatrix getPartitionedCatchmentRelationship() {
 		return pcr;
 	}
 
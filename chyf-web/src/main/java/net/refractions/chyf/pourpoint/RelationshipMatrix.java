@@ -0,0 +1,66 @@
+/*
+ * Copyright 2019 Government of Canada
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License.
+ */
+package net.refractions.chyf.pourpoint;
+
+/**
+ * Square matrix of relationships between pourpoints or catchments.  Each
+ * value is 1, -1 or NONE if the items are not related.  Values are stored 
+ * row by row in a single primitive array.
+ */
+public class RelationshipMatrix {
+
+	public static final byte NONE = 0;
+	
+	private int size;
+	private byte[] values;
+	
+	RelationshipMatrix(int size) {
+		this.size = size;
+		this.values = new byte[size * size];
+	}
+	
+	public int getSize() {
+		return this.size;
+	}
+	
+	/**
+	 * @return 1, -1 or NONE
+	 */
+	public byte get(int row, int column) {
+		return values[row * size + column];
+	}
+	
+	public boolean hasValue(int row, int column) {
+		return get(row, column) != NONE;
+	}
+	
+	void set(int row, int column, int value) {
+		values[row * size + column] = (byte)value;
+	}
+	
+	/**
+	 * @return a copy of the matrix with null where the items are not related
+	 */
+	public Integer[][] toArray() {
+		Integer[][] array = new Integer[size][size];
+		for (int i = 0; i < size; i ++) {
+			for (int j = 0; j < size; j ++) {
+				if (hasValue(i, j)) array[i][j] = (int)get(i, j);
+			}
+		}
+		return array;
+	}
+}
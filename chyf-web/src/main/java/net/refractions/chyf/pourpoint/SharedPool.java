@@ -0,0 +1,108 @@
+/*
+ * Copyright 2019 Government of Canada
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License.
+ */
+package net.refractions.chyf.pourpoint;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.IntConsumer;
+
+/**
+ * Runs independent tasks on a pool of threads shared by all pourpoint
+ * computations.  Each call uses at most the given number of threads so
+ * one large request can not take over the pool.
+ * 
+ * The calling thread also runs tasks so a call completes even when
+ * the pool threads are busy with other requests.
+ */
+class SharedPool {
+
+	private static final ExecutorService POOL = Executors.newFixedThreadPool(
+			Runtime.getRuntime().availableProcessors(), r -> {
+				Thread t = new Thread(r, "pourpoint-worker");
+				t.setDaemon(true);
+				return t;
+			});
+	
+	/**
+	 * Runs task(0) to task(count - 1) and waits for them to complete.
+	 * 
+	 * @param count number of tasks
+	 * @param parallelism maximum number of threads to use, including the calling thread
+	 * @param task the task; must be safe to run concurrently for different indices
+	 * @throws PourpointException if the calling thread is interrupted; no further tasks are started
+	 */
+	static void run(int count, int parallelism, IntConsumer task) {
+		if (count <= 1 || parallelism <= 1) {
+			for (int i = 0; i < count; i ++) {
+				if (Thread.currentThread().isInterrupted()) throw new PourpointException("Pourpoint computation cancelled.");
+				task.accept(i);
+			}
+			return;
+		}
+		
+		Thread caller = Thread.currentThread();
+		AtomicInteger next = new AtomicInteger();
+		CountDownLatch done = new CountDownLatch(count);
+		AtomicBoolean cancelled = new AtomicBoolean(false);
+		AtomicReference<Throwable> failure = new AtomicReference<>();
+		
+		Runnable worker = () -> {
+			while (true) {
+				//only the calling thread is interrupted when the computation is cancelled
+				if (Thread.currentThread() == caller && caller.isInterrupted()) cancelled.set(true);
+				if (cancelled.get()) break;
+				int i = next.getAndIncrement();
+				if (i >= count) break;
+				try {
+					task.accept(i);
+				}catch (RuntimeException | Error ex) {
+					failure.compareAndSet(null, ex);
+					cancelled.set(true);
+				}finally {
+					done.countDown();
+				}
+			}
+			//release the tasks that will not be started
+			int claimed = Math.min(count, next.getAndSet(count));
+			for (int i = claimed; i < count; i ++) done.countDown();
+		};
+		
+		//helpers that start after all tasks are taken do nothing
+		int helpers = Math.min(parallelism, count) - 1;
+		try {
+			for (int i = 0; i < helpers; i ++) POOL.execute(worker);
+		}catch (RejectedExecutionException ex) {
+			//the calling thread runs whatever is left
+		}
+		worker.run();
+		
+		try {
+			done.await();
+		}catch (InterruptedException ex) {
+			cancelled.set(true);
+			Thread.currentThread().interrupt();
+			throw new PourpointException("Pourpoint computation cancelled.");
+		}
+		Throwable t = failure.get();
+		if (t instanceof RuntimeException) throw (RuntimeException)t;
+		if (t instanceof Error) throw (Error)t;
+	}
+}
@@ -15,13 +15,17 @@
  */
 package net.refractions.chyf.pourpoint;
 
-import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 
 import net.refractions.chyf.hygraph.DrainageArea;
 import net.refractions.chyf.hygraph.ECatchment;
 import net.refractions.chyf.hygraph.HyGraph;
+import net.refractions.chyf.hygraph.ReachabilityIndex;
 
 /**
  * Used for computing paritioned catchments
@@ -40,7 +44,10 @@ public class UniqueSubCatchment {
 
 	//downstream subcatchments
 	private Set<UniqueSubCatchment> immediateDownstream = new HashSet<>();
-	private Set<UniqueSubCatchment> upstream = new HashSet<>();
+	
+	//position in the shared reachability index
+	private int index = -1;
+	private ReachabilityIndex reachability = null;
 	
 	private String id = null;
 	
@@ -75,7 +82,8 @@ public class UniqueSubCatchment {
 	 * @return
 	 */
 	public boolean isUpstream(UniqueSubCatchment down) {
-		return upstream.contains(down);
+		if (reachability == null || down.reachability != reachability) return false;
+		return reachability.isUpstreamOf(down.index, index);
 	}
 	
 	public void addDownstreamCatchment(UniqueSubCatchment catchment) {
@@ -83,18 +91,31 @@ public class UniqueSubCatchment {
 		immediateDownstream.add(catchment);
 	}
 	
-	public void computeUpstreamCatchments() {
-		//add to everything else downstream
-		ArrayDeque<UniqueSubCatchment> toprocess = new ArrayDeque<>();
-		toprocess.addAll(immediateDownstream);
-		Set<UniqueSubCatchment> processed = new HashSet<>();
-		while(!toprocess.isEmpty()) {
-			UniqueSubCatchment dd = toprocess.removeFirst();
-			processed.add(dd);
-			dd.upstream.add(this);
-			for (UniqueSubCatchment d : dd.immediateDownstream) {
-				if (!processed.contains(d)) toprocess.add(d);
+	/**
+	 * Labels the provided subcatchments so upstream/downstream 
+	 * relationships between them can be determined with isUpstream. 
+	 * The downstream catchments must be assigned first.
+	 * 
+	 * @param catchments
+	 */
+	public static void computeUpstreamCatchments(Collection<UniqueSubCatchment> catchments) {
+		List<UniqueSubCatchment> items = new ArrayList<>(catchments);
+		HashMap<UniqueSubCatchment, Integer> positions = new HashMap<>();
+		for (int i = 0; i < items.size(); i ++) positions.put(items.get(i), i);
+		
+		int[] offsets = new int[items.size() + 1];
+		List<Integer> targets = new ArrayList<>();
+		for (int i = 0; i < items.size(); i ++) {
+			for (UniqueSubCatchment d : items.get(i).immediateDownstream) {
+				Integer p = positions.get(d);
+				if (p != null) targets.add(p);
 			}
+			offsets[i + 1] = targets.size();
+		}
+		ReachabilityIndex index = new ReachabilityIndex(items.size(), offsets, targets.stream().mapToInt(Integer::intValue).toArray());
+		for (int i = 0; i < items.size(); i ++) {
+			items.get(i).index = i;
+			items.get(i).reachability = index;
 		}
 	}
 	
@@ -51,7 +51,11 @@ public class ChyfApplication {
 				}
 			}
 
-			chyfDatastore = new ChyfDatastore(dir);
+			String snapshot = servletContext.getInitParameter("chyfSnapshotFile");
+			if (snapshot != null && snapshot.trim().isEmpty()) {
+				snapshot = null;
+			}
+			chyfDatastore = new ChyfDatastore(dir, snapshot);
     		
     	} else if (dataStore.equals("database")) {
     		
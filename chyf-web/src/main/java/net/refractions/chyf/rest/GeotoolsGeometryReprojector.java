@@ -15,6 +15,10 @@
  */
 package net.refractions.chyf.rest;
 
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
 import org.geotools.geometry.jts.JTS;
 import org.geotools.referencing.CRS;
 import org.opengis.referencing.FactoryException;
@@ -24,45 +28,100 @@ import org.opengis.referencing.cs.AxisDirection;
 import org.opengis.referencing.operation.MathTransform;
 import org.opengis.referencing.operation.TransformException;
 
+import org.locationtech.jts.geom.CoordinateSequence;
+import org.locationtech.jts.geom.CoordinateSequenceFilter;
 import org.locationtech.jts.geom.Geometry;
 import org.locationtech.jts.geom.util.AffineTransformation;
 
+/**
+ * Reprojects geometries between coordinate reference systems. Decoded
+ * coordinate reference systems and the transforms between them are cached
+ * so they are only looked up once.
+ *
+ */
 public class GeotoolsGeometryReprojector {
 	
+	private static final ConcurrentMap<Integer, CoordinateReferenceSystem> CRS_CACHE = new ConcurrentHashMap<>();
+	
+	// upper bounds on the number of cached keys and transforms, the least recently used are evicted
+	private static final int MAX_CRS_KEYS = 64;
+	private static final int MAX_TRANSFORMS = 64;
+	
+	private static final LruCache<CrsRef, String> CRS_KEYS = new LruCache<>(MAX_CRS_KEYS);
+	private static final LruCache<TransformKey, Reprojection> TRANSFORM_CACHE = new LruCache<>(MAX_TRANSFORMS);
+	
+	/**
+	 * Reprojects a copy of the geometry. If no transformation is needed 
+	 * the input geometry is returned.
+	 */
 	public static <T extends Geometry> T reproject(T geom, CoordinateReferenceSystem fromCRS, CoordinateReferenceSystem toCRS) {
 		if(geom == null) {
 			return null;
 		}
-		try {
-			//TODO: fix this
-			MathTransform transform = CRS.findMathTransform(fromCRS, toCRS, true);
-			if(fromCRS.getCoordinateSystem().getAxis(0).getDirection().absolute()
-					.equals(AxisDirection.NORTH)) {
-				geom = flipAxes(geom);
-			}
-			@SuppressWarnings("unchecked")
-			T newGeom = (T)JTS.transform(geom, transform);
-			if(toCRS.getCoordinateSystem().getAxis(0).getDirection().absolute()
-					.equals(AxisDirection.NORTH)) {
-				newGeom = flipAxes(newGeom);
-			}
-			return newGeom;
-		} catch(FactoryException fe) {
-			throw new RuntimeException("Unexpected error in coordinate reprojection.", fe);
-		} catch(TransformException te) {
-			throw new RuntimeException("Unexpected error in coordinate reprojection.", te);
+		Reprojection reprojection = getReprojection(fromCRS, toCRS, true);
+		if(reprojection.isIdentity()) {
+			return geom;
 		}
+		@SuppressWarnings("unchecked")
+		T newGeom = (T)geom.copy();
+		return reprojection.apply(newGeom);
+	}
+	
+	/**
+	 * Reprojects the geometry by transforming its coordinate sequences in place. 
+	 * Only use this on geometries that are not shared.
+	 * 
+	 * @return the geometry, this is the same object as the input unless the transform is not two dimensional
+	 */
+	public static <T extends Geometry> T reprojectInPlace(T geom, CoordinateReferenceSystem fromCRS, CoordinateReferenceSystem toCRS) {
+		if(geom == null) {
+			return null;
+		}
+		Reprojection reprojection = getReprojection(fromCRS, toCRS, true);
+		if(reprojection.isIdentity()) {
+			return geom;
+		}
+		return reprojection.apply(geom);
+	}
+	
+	/**
+	 * @return the cached transform between the two coordinate reference systems
+	 */
+	public static MathTransform getTransform(CoordinateReferenceSystem fromCRS, CoordinateReferenceSystem toCRS, boolean lenient) {
+		return getReprojection(fromCRS, toCRS, lenient).transform;
+	}
+	
+	private static Reprojection getReprojection(CoordinateReferenceSystem fromCRS, CoordinateReferenceSystem toCRS, boolean lenient) {
+		TransformKey key = new TransformKey(crsKey(fromCRS), crsKey(toCRS), lenient);
+		Reprojection reprojection = TRANSFORM_CACHE.get(key);
+		if(reprojection == null) {
+			try {
+				//TODO: fix this
+				reprojection = new Reprojection(CRS.findMathTransform(fromCRS, toCRS, lenient),
+						fromCRS.getCoordinateSystem().getAxis(0).getDirection().absolute().equals(AxisDirection.NORTH),
+						toCRS.getCoordinateSystem().getAxis(0).getDirection().absolute().equals(AxisDirection.NORTH));
+			} catch(FactoryException fe) {
+				throw new RuntimeException("Unexpected error in coordinate reprojection.", fe);
+			}
+			reprojection = TRANSFORM_CACHE.putIfAbsent(key, reprojection);
+		}
+		return reprojection;
 	}
-
 	
 	public static CoordinateReferenceSystem srsCodeToCRS(int srsCode) {
+		CoordinateReferenceSystem crs = CRS_CACHE.get(srsCode);
+		if(crs != null) {
+			return crs;
+		}
 		try {
-			return CRS.decode("EPSG:" + srsCode);
+			crs = CRS.decode("EPSG:" + srsCode);
 		} catch(NoSuchAuthorityCodeException e) {
 			throw new IllegalArgumentException("Invalid srsCode: \"" + srsCode + "\"");
 		} catch(FactoryException e) {
 			throw new RuntimeException("Unexpected error in coordinate reprojection.");
 		}
+		CoordinateReferenceSystem existing = CRS_CACHE.putIfAbsent(srsCode, crs);
+		return existing == null ? crs : existing;
 	}
 
 	private static <T extends Geometry> T flipAxes(T geom) {
@@ -72,4 +131,235 @@ public class GeotoolsGeometryReprojector {
 		newGeom.setSRID(geom.getSRID());
 		return newGeom;
 	}
+	
+	/*
+	 * The authority code of the coordinate reference system (for example "EPSG:4326"),
+	 * or its WKT if it has none, so equivalent instances share a cached transform.
+	 * The key is remembered for each instance so it is only looked up once.
+	 */
+	private static String crsKey(CoordinateReferenceSystem crs) {
+		CrsRef ref = new CrsRef(crs);
+		String key = CRS_KEYS.get(ref);
+		if(key != null) {
+			return key;
+		}
+		try {
+			key = CRS.lookupIdentifier(crs, false);
+		} catch(FactoryException fe) {
+			// fall back to the WKT
+		}
+		if(key == null) {
+			key = crs.toWKT();
+		}
+		return CRS_KEYS.putIfAbsent(ref, key);
+	}
+	
+	/*
+	 * Compares coordinate reference systems by identity.
+	 */
+	private static class CrsRef {
+		private final CoordinateReferenceSystem crs;
+		
+		CrsRef(CoordinateReferenceSystem crs) {
+			this.crs = crs;
+		}
+		
+		@Override
+		public boolean equals(Object other) {
+			return other instanceof CrsRef && ((CrsRef)other).crs == crs;
+		}
+		
+		@Override
+		public int hashCode() {
+			return System.identityHashCode(crs);
+		}
+	}
+	
+	private static class TransformKey {
+		private final String from;
+		private final String to;
+		private final boolean lenient;
+		
+		TransformKey(String from, String to, boolean lenient) {
+			this.from = from;
+			this.to = to;
+			this.lenient = lenient;
+		}
+		
+		@Override
+		public boolean equals(Object other) {
+			if(!(other instanceof TransformKey)) {
+				return false;
+			}
+			TransformKey k = (TransformKey)other;
+			return from.equals(k.from) && to.equals(k.to) && lenient == k.lenient;
+		}
+		
+		@Override
+		public int hashCode() {
+			return (31 * from.hashCode() + to.hashCode()) * 2 + (lenient ? 1 : 0);
+		}
+	}
+	
+	/*
+	 * A concurrent map bounded to a maximum size.  Lookups only stamp the entry 
+	 * with the time it was used; the least recently used entry is found by a scan
+	 * when an entry is added to a full cache, which is cheap for the few entries kept.
+	 */
+	private static class LruCache<K, V> {
+		private final ConcurrentMap<K, Entry<V>> map = new ConcurrentHashMap<>();
+		private final int maxSize;
+		
+		LruCache(int maxSize) {
+			this.maxSize = maxSize;
+		}
+		
+		V get(K key) {
+			Entry<V> e = map.get(key);
+			if(e == null) {
+				return null;
+			}
+			e.used = System.nanoTime();
+			return e.value;
+		}
+		
+		/**
+		 * @return the value cached for the key, which is the given value unless another was added first
+		 */
+		V putIfAbsent(K key, V value) {
+			Entry<V> existing = map.putIfAbsent(key, new Entry<>(value));
+			if(existing != null) {
+				existing.used = System.nanoTime();
+				return existing.value;
+			}
+			while(map.size() > maxSize) {
+				evictEldest();
+			}
+			return value;
+		}
+		
+		private void evictEldest() {
+			K eldest = null;
+			long used = Long.MAX_VALUE;
+			for(Map.Entry<K, Entry<V>> e : map.entrySet()) {
+				if(e.getValue().used < used) {
+					used = e.getValue().used;
+					eldest = e.getKey();
+				}
+			}
+			if(eldest != null) {
+				map.remove(eldest);
+			}
+		}
+		
+		private static class Entry<V> {
+			private final V value;
+			private volatile long used = System.nanoTime();
+			
+			Entry(V value) {
+				this.value = value;
+			}
+		}
+	}
+	
+	/*
+	 * A transform along with the axis flips required before and after it. 
+	 */
+	private static class Reprojection {
+		private final MathTransform transform;
+		private final boolean flipBefore;
+		private final boolean flipAfter;
+		
+		Reprojection(MathTransform transform, boolean flipBefore, boolean flipAfter) {
+			this.transform = transform;
+			this.flipBefore = flipBefore;
+			this.flipAfter = flipAfter;
+		}
+		
+		boolean isIdentity() {
+			return transform.isIdentity() && flipBefore == flipAfter;
+		}
+		
+		<T extends Geometry> T apply(T geom) {
+			if(transform.getSourceDimensions() != 2 || transform.getTargetDimensions() != 2) {
+				return applyCopy(geom);
+			}
+			SequenceTransformer filter = new SequenceTransformer(this);
+			geom.apply(filter);
+			if(filter.error != null) {
+				throw new RuntimeException("Unexpected error in coordinate reprojection.", filter.error);
+			}
+			return geom;
+		}
+		
+		private <T extends Geometry> T applyCopy(T geom) {
+			try {
+				if(flipBefore) {
+					geom = flipAxes(geom);
+				}
+				@SuppressWarnings("unchecked")
+				T newGeom = (T)JTS.transform(geom, transform);
+				if(flipAfter) {
+					newGeom = flipAxes(newGeom);
+				}
+				return newGeom;
+			} catch(TransformException te) {
+				throw new RuntimeException("Unexpected error in coordinate reprojection.", te);
+			}
+		}
+	}
+	
+	/*
+	 * Transforms each coordinate sequence of a geometry in place with a 
+	 * single call to the math transform.
+	 */
+	private static class SequenceTransformer implements CoordinateSequenceFilter {
+		private final Reprojection reprojection;
+		private double[] buffer = new double[64];
+		private TransformException error = null;
+		
+		SequenceTransformer(Reprojection reprojection) {
+			this.reprojection = reprojection;
+		}
+		
+		@Override
+		public void filter(CoordinateSequence seq, int i) {
+			// the whole sequence is transformed on the first call
+			if(i != 0 || error != null) {
+				return;
+			}
+			int n = seq.size();
+			if(buffer.length < n * 2) {
+				buffer = new double[n * 2];
+			}
+			for(int k = 0; k < n; k++) {
+				double x = seq.getOrdinate(k, CoordinateSequence.X);
+				double y = seq.getOrdinate(k, CoordinateSequence.Y);
+				buffer[2 * k] = reprojection.flipBefore ? y : x;
+				buffer[2 * k + 1] = reprojection.flipBefore ? x : y;
+			}
+			try {
+				reprojection.transform.transform(buffer, 0, buffer, 0, n);
+			} catch(TransformException te) {
+				error = te;
+				return;
+			}
+			for(int k = 0; k < n; k++) {
+				double x = buffer[2 * k];
+				double y = buffer[2 * k + 1];
+				seq.setOrdinate(k, CoordinateSequence.X, reprojection.flipAfter ? y : x);
+				seq.setOrdinate(k, CoordinateSequence.Y, reprojection.flipAfter ? x : y);
+			}
+		}
+		
+		@Override
+		public boolean isDone() {
+			return error != null;
+		}
+		
+		@Override
+		public boolean isGeometryChanged() {
+			return true;
+		}
+	}
 }
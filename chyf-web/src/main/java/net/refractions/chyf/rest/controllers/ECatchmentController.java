@@ -15,10 +15,8 @@
  */
 package net.refractions.chyf.rest.controllers;
 
-import net.refractions.chyf.ChyfDatastore;
 import net.refractions.chyf.hygraph.ECatchment;
 import net.refractions.chyf.hygraph.HyGraph;
-import net.refractions.chyf.indexing.BboxIntersectsFilter;
 import net.refractions.chyf.rest.HygraphParameters;
 import net.refractions.chyf.rest.SharedParameters;
 import net.refractions.chyf.rest.exceptions.InvalidParameterException;
@@ -87,11 +85,7 @@ public class ECatchmentController {
 		}
 		StopWatch sw = new StopWatch();
 		sw.start();
-		ApiResponse resp = new ApiResponse(hyGraph.findECatchments(
-				ChyfDatastore.GEOMETRY_FACTORY.createPoint(params.getBbox().centre()), 
-				params.getMaxFeatures(),
-				params.getMaxDistance(), 
-				new BboxIntersectsFilter<ECatchment>(params.getBbox())));
+		ApiResponse resp = new ApiResponse(hyGraph.findECatchments(params.getBbox(), params.getMaxFeatures(), null));
 		sw.stop();
 		resp.setExecutionTime(sw.getElapsedTime());
 		resp.setParams(params);
@@ -130,9 +124,9 @@ public class ECatchmentController {
 		
 		StopWatch sw = new StopWatch();
 		sw.start();
-		ApiResponse resp = new ApiResponse(hyGraph.getUpstreamECatchments(hyGraph.getECatchment(id), params.getMaxFeatures()));
-		sw.stop();
-		resp.setExecutionTime(sw.getElapsedTime());
+		ApiResponse resp = new ApiResponse(hyGraph.iterateUpstreamECatchments(hyGraph.getECatchment(id), params.getMaxFeatures()));
+		//the traversal runs as the response is written, which stops the timer
+		resp.setExecutionTimer(sw);
 		resp.setParams(params);
 		return resp;
 	}
@@ -147,9 +141,9 @@ public class ECatchmentController {
 		
 		StopWatch sw = new StopWatch();
 		sw.start();
-		ApiResponse resp = new ApiResponse(hyGraph.getDownstreamECatchments(hyGraph.getECatchment(id), params.getMaxFeatures()));
-		sw.stop();
-		resp.setExecutionTime(sw.getElapsedTime());
+		ApiResponse resp = new ApiResponse(hyGraph.iterateDownstreamECatchments(hyGraph.getECatchment(id), params.getMaxFeatures()));
+		//the traversal runs as the response is written, which stops the timer
+		resp.setExecutionTimer(sw);
 		resp.setParams(params);
 		return resp;
 	}
@@ -168,9 +162,9 @@ public class ECatchmentController {
 
 		StopWatch sw = new StopWatch();
 		sw.start();
-		ApiResponse resp = new ApiResponse(hyGraph.getUpstreamECatchments(hyGraph.getECatchment(params.getPoint()), params.getMaxFeatures()));
-		sw.stop();
-		resp.setExecutionTime(sw.getElapsedTime());
+		ApiResponse resp = new ApiResponse(hyGraph.iterateUpstreamECatchments(hyGraph.getECatchment(params.getPoint()), params.getMaxFeatures()));
+		//the traversal runs as the response is written, which stops the timer
+		resp.setExecutionTimer(sw);
 		resp.setParams(params);
 		return resp;
 	}
@@ -189,9 +183,9 @@ public class ECatchmentController {
 
 		StopWatch sw = new StopWatch();
 		sw.start();
-		ApiResponse resp = new ApiResponse(hyGraph.getDownstreamECatchments(hyGraph.getECatchment(params.getPoint()), params.getMaxFeatures()));
-		sw.stop();
-		resp.setExecutionTime(sw.getElapsedTime());
+		ApiResponse resp = new ApiResponse(hyGraph.iterateDownstreamECatchments(hyGraph.getECatchment(params.getPoint()), params.getMaxFeatures()));
+		//the traversal runs as the response is written, which stops the timer
+		resp.setExecutionTimer(sw);
 		resp.setParams(params);
 		return resp;
 	}
@@ -15,12 +15,10 @@
  */
 package net.refractions.chyf.rest.controllers;
 
-import net.refractions.chyf.ChyfDatastore;
 import net.refractions.chyf.enumTypes.FlowpathType;
 import net.refractions.chyf.enumTypes.Rank;
 import net.refractions.chyf.hygraph.EFlowpath;
 import net.refractions.chyf.hygraph.HyGraph;
-import net.refractions.chyf.indexing.BboxIntersectsFilter;
 import net.refractions.chyf.indexing.Filter;
 import net.refractions.chyf.indexing.PredicateFilter;
 import net.refractions.chyf.rest.FilterParameters;
@@ -98,11 +96,7 @@ public class EFlowpathController {
 		}
 		StopWatch sw = new StopWatch();
 		sw.start();
-		ApiResponse resp = new ApiResponse(hyGraph.findEFlowpaths(
-				ChyfDatastore.GEOMETRY_FACTORY.createPoint(params.getBbox().centre()), 
-				params.getMaxFeatures(),
-				params.getMaxDistance(), 
-				new BboxIntersectsFilter<EFlowpath>(params.getBbox())));
+		ApiResponse resp = new ApiResponse(hyGraph.findEFlowpaths(params.getBbox(), params.getMaxFeatures(), null));
 		sw.stop();
 		resp.setExecutionTime(sw.getElapsedTime());
 		resp.setParams(params);
@@ -139,9 +133,9 @@ public class EFlowpathController {
 		
 		StopWatch sw = new StopWatch();
 		sw.start();
-		ApiResponse resp = new ApiResponse(hyGraph.getUpstreamEFlowpaths(hyGraph.getEFlowpath(id), params.getMaxFeatures()));
-		sw.stop();
-		resp.setExecutionTime(sw.getElapsedTime());
+		ApiResponse resp = new ApiResponse(hyGraph.iterateUpstreamEFlowpaths(hyGraph.getEFlowpath(id), params.getMaxFeatures()));
+		//the traversal runs as the response is written, which stops the timer
+		resp.setExecutionTimer(sw);
 		resp.setParams(params);
 		return resp;
 	}
@@ -156,9 +150,9 @@ public class EFlowpathController {
 		
 		StopWatch sw = new StopWatch();
 		sw.start();
-		ApiResponse resp = new ApiResponse(hyGraph.getDownstreamEFlowpaths(hyGraph.getEFlowpath(id), params.getMaxFeatures()));
-		sw.stop();
-		resp.setExecutionTime(sw.getElapsedTime());
+		ApiResponse resp = new ApiResponse(hyGraph.iterateDownstreamEFlowpaths(hyGraph.getEFlowpath(id), params.getMaxFeatures()));
+		//the traversal runs as the response is written, which stops the timer
+		resp.setExecutionTimer(sw);
 		resp.setParams(params);
 		return resp;
 	}
@@ -177,9 +171,9 @@ public class EFlowpathController {
 
 		StopWatch sw = new StopWatch();
 		sw.start();
-		ApiResponse resp = new ApiResponse(hyGraph.getUpstreamEFlowpaths(hyGraph.getEFlowpath(params.getPoint()), params.getMaxFeatures()));
-		sw.stop();
-		resp.setExecutionTime(sw.getElapsedTime());
+		ApiResponse resp = new ApiResponse(hyGraph.iterateUpstreamEFlowpaths(hyGraph.getEFlowpath(params.getPoint()), params.getMaxFeatures()));
+		//the traversal runs as the response is written, which stops the timer
+		resp.setExecutionTimer(sw);
 		resp.setParams(params);
 		return resp;
 	}
@@ -198,9 +192,9 @@ public class EFlowpathController {
 
 		StopWatch sw = new StopWatch();
 		sw.start();
-		ApiResponse resp = new ApiResponse(hyGraph.getDownstreamEFlowpaths(hyGraph.getEFlowpath(params.getPoint()), params.getMaxFeatures()));
-		sw.stop();
-		resp.setExecutionTime(sw.getElapsedTime());
+		ApiResponse resp = new ApiResponse(hyGraph.iterateDownstreamEFlowpaths(hyGraph.getEFlowpath(params.getPoint()), params.getMaxFeatures()));
+		//the traversal runs as the response is written, which stops the timer
+		resp.setExecutionTimer(sw);
 		resp.setParams(params);
 		return resp;
 	}
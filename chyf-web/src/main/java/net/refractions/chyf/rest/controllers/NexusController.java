@@ -15,10 +15,7 @@
  */
 package net.refractions.chyf.rest.controllers;
 
-import net.refractions.chyf.ChyfDatastore;
 import net.refractions.chyf.hygraph.HyGraph;
-import net.refractions.chyf.hygraph.Nexus;
-import net.refractions.chyf.indexing.BboxIntersectsFilter;
 import net.refractions.chyf.rest.HygraphParameters;
 import net.refractions.chyf.rest.SharedParameters;
 import net.refractions.chyf.rest.exceptions.InvalidParameterException;
@@ -92,11 +89,7 @@ public class NexusController {
 
 		StopWatch sw = new StopWatch();
 		sw.start();		
-		ApiResponse resp = new ApiResponse(hyGraph.findNexuses(
-				ChyfDatastore.GEOMETRY_FACTORY.createPoint(params.getBbox().centre()), 
-				params.getMaxFeatures(),
-				params.getMaxDistance(), 
-				new BboxIntersectsFilter<Nexus>(params.getBbox())));
+		ApiResponse resp = new ApiResponse(hyGraph.findNexuses(params.getBbox(), params.getMaxFeatures(), null));
 		sw.stop();
 		resp.setExecutionTime(sw.getElapsedTime());		
 		resp.setParams(params);
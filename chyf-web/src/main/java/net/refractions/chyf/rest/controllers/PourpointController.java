@@ -15,11 +15,19 @@
  */
 package net.refractions.chyf.rest.controllers;
 
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import javax.servlet.http.HttpServletResponse;
+
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.validation.BindingResult;
 import org.springframework.web.bind.annotation.CrossOrigin;
+import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 
 import net.refractions.chyf.hygraph.HyGraph;
@@ -27,6 +35,9 @@ import net.refractions.chyf.pourpoint.PourpointEngine;
 import net.refractions.chyf.pourpoint.PourpointOutput;
 import net.refractions.chyf.rest.PourpointParameters;
 import net.refractions.chyf.rest.exceptions.InvalidParameterException;
+import net.refractions.chyf.rest.exceptions.NotFoundException;
+import net.refractions.chyf.rest.jobs.PourpointJob;
+import net.refractions.chyf.rest.jobs.PourpointJobManager;
 import net.refractions.chyf.rest.messageconverters.ApiResponse;
 
 @RestController
@@ -38,6 +49,9 @@ public class PourpointController {
 	@Autowired
 	private HyGraph hyGraph;
 	
+	@Autowired
+	private PourpointJobManager jobManager;
+	
 	@RequestMapping(value = "/compute", method = {RequestMethod.GET,RequestMethod.POST})
 	public ApiResponse processPourpoint(PourpointParameters params,
 			BindingResult bindingResult) {
@@ -59,4 +73,76 @@ public class PourpointController {
 		
 		return resp;
 	}
+	
+	/**
+	 * Queues the pourpoint computation to run in the background.  The
+	 * returned job id is used to poll the job status and fetch the results, 
+	 * which are only written in the requested format (json or gpkg).
+	 */
+	@RequestMapping(value = "/jobs", method = RequestMethod.POST)
+	public ApiResponse submitJob(PourpointParameters params,
+			BindingResult bindingResult,
+			@RequestParam(value = "format", defaultValue = "json") String format) {
+		
+		if(bindingResult.hasErrors()) {
+			throw new InvalidParameterException(bindingResult);
+		}
+		params.resolveAndValidate();
+		PourpointJob.ResultFormat resultFormat = PourpointJob.ResultFormat.parse(format);
+		
+		ApiResponse resp = new ApiResponse(jobManager.submit(params, resultFormat));
+		resp.setParams(params);
+		return resp;
+	}
+	
+	@RequestMapping(value = "/jobs/{id}", method = RequestMethod.GET)
+	public ApiResponse getJob(@PathVariable("id") String id) {
+		return new ApiResponse(findJob(id));
+	}
+	
+	/**
+	 * Cancels a queued or running job; a finished job 
+	 * is removed along with its results.
+	 */
+	@RequestMapping(value = "/jobs/{id}", method = RequestMethod.DELETE)
+	public ApiResponse cancelJob(@PathVariable("id") String id) {
+		PourpointJob job = findJob(id);
+		jobManager.cancel(job);
+		return new ApiResponse(job);
+	}
+	
+	/**
+	 * Streams the cached results of a completed job; the format 
+	 * must be the one requested when the job was submitted.
+	 */
+	@RequestMapping(value = "/jobs/{id}/result.{format}", method = RequestMethod.GET)
+	public void getJobResult(@PathVariable("id") String id, 
+			@PathVariable("format") String format, 
+			HttpServletResponse response) throws IOException {
+		PourpointJob.ResultFormat resultFormat = PourpointJob.ResultFormat.parse(format);
+		PourpointJob job = findJob(id);
+		if (job.getStatus() != PourpointJob.Status.COMPLETE) {
+			throw new NotFoundException("Results for pourpoint job " + id + " are not available; the job is " + job.getStatus().toString().toLowerCase() + ".");
+		}
+		if (job.getFormat() != resultFormat) {
+			throw new NotFoundException("Results for pourpoint job " + id + " are only available as " + job.getFormat().extension + ".");
+		}
+		File file = job.getResultFile();
+		if (!file.exists()) {
+			throw new NotFoundException("Results for pourpoint job " + id + " are no longer available.");
+		}
+		response.setContentType(resultFormat.contentType);
+		response.setHeader("Content-Disposition", "attachment; filename=\"pourpoint-" + id + "." + resultFormat.extension + "\"");
+		response.setHeader("Content-Length", String.valueOf(file.length()));
+		Files.copy(file.toPath(), response.getOutputStream());
+		response.flushBuffer();
+	}
+	
+	private PourpointJob findJob(String id) {
+		PourpointJob job = jobManager.getJob(id);
+		if (job == null) {
+			throw new NotFoundException("No pourpoint job found with id " + id + ".");
+		}
+		return job;
+	}
 }
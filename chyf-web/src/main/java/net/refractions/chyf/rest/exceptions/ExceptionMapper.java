@@ -87,4 +87,11 @@ public class ExceptionMapper {
 				HttpStatus.NOT_FOUND);
 	}
 	
+	@ExceptionHandler(ServiceUnavailableException.class)
+	public ResponseEntity<ErrorMessage> handleServiceUnavailableException(
+			ServiceUnavailableException sue) {
+		return new ResponseEntity<ErrorMessage>(sue.getErrorMessage(),
+				HttpStatus.SERVICE_UNAVAILABLE);
+	}
+	
 }
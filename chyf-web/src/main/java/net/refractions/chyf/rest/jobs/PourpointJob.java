@@ -0,0 +1,230 @@
+/*
+ * Copyright 2019 Government of Canada
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License.
+ */
+package net.refractions.chyf.rest.jobs;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.concurrent.Future;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import net.refractions.chyf.hygraph.HyGraph;
+import net.refractions.chyf.pourpoint.PourpointEngine;
+import net.refractions.chyf.pourpoint.PourpointOutput;
+import net.refractions.chyf.rest.PourpointParameters;
+import net.refractions.chyf.rest.messageconverters.ApiResponse;
+import net.refractions.chyf.rest.messageconverters.GeoPackageHelper;
+import net.refractions.chyf.rest.messageconverters.JsonConverterHelper;
+
+/**
+ * A pourpoint computation run in the background.  Once complete the
+ * results are written to a file in the requested format so the 
+ * pourpoint output does not need to be kept in memory.
+ */
+public class PourpointJob {
+
+	static final Logger logger = LoggerFactory.getLogger(PourpointJob.class.getCanonicalName());
+	
+	public enum Status{
+		QUEUED,
+		RUNNING,
+		COMPLETE,
+		FAILED,
+		CANCELLED;
+		
+		public boolean isFinished() {
+			return this == COMPLETE || this == FAILED || this == CANCELLED;
+		}
+	}
+	
+	public enum ResultFormat{
+		JSON("json", "application/json"),
+		GEOPACKAGE("gpkg", "application/geopackage+sqlite3");
+		
+		public String extension;
+		public String contentType;
+		
+		ResultFormat(String extension, String contentType){
+			this.extension = extension;
+			this.contentType = contentType;
+		}
+		
+		public static ResultFormat parse(String key) {
+			if (key.equalsIgnoreCase("geopackage")) return GEOPACKAGE;
+			for (ResultFormat f : ResultFormat.values()) {
+				if (f.extension.equalsIgnoreCase(key)) return f;
+			}
+			throw new IllegalArgumentException("Result format " + key + " not supported for pourpoint jobs");
+		}
+	}
+	
+	//fraction of the progress given to computing the results; the remainder is
+	//for writing the result file
+	private static final double COMPUTE_PROGRESS = 0.8;
+	
+	private String id;
+	private PourpointParameters params;
+	private ResultFormat format;
+	private File directory;
+	
+	private volatile Status status = Status.QUEUED;
+	private volatile double progress = 0;
+	private volatile String message;
+	private long submitted;
+	private volatile long finished;
+	
+	private Future<?> future;
+	
+	PourpointJob(String id, PourpointParameters params, ResultFormat format, File directory) {
+		this.id = id;
+		this.params = params;
+		this.format = format;
+		this.directory = directory;
+		this.submitted = System.currentTimeMillis();
+	}
+	
+	public String getId() {
+		return this.id;
+	}
+	
+	public Status getStatus() {
+		return this.status;
+	}
+	
+	/**
+	 * @return fraction of the job completed (0 to 1)
+	 */
+	public double getProgress() {
+		return this.progress;
+	}
+	
+	/**
+	 * @return the error message of failed jobs
+	 */
+	public String getMessage() {
+		return this.message;
+	}
+	
+	public long getSubmitted() {
+		return this.submitted;
+	}
+	
+	/**
+	 * @return the time the job finished or 0 if still queued or running
+	 */
+	public long getFinished() {
+		return this.finished;
+	}
+	
+	/**
+	 * @return the format the results are written in
+	 */
+	public ResultFormat getFormat() {
+		return this.format;
+	}
+	
+	public File getResultFile() {
+		return new File(directory, id + "." + format.extension);
+	}
+	
+	void setFuture(Future<?> future) {
+		this.future = future;
+	}
+	
+	/**
+	 * Cancels the job if it is not finished, interrupting
+	 * the computation if it is running.
+	 * 
+	 * @return false if the job was already finished
+	 */
+	synchronized boolean cancel() {
+		if (status.isFinished()) return false;
+		status = Status.CANCELLED;
+		finished = System.currentTimeMillis();
+		if (future != null) future.cancel(true);
+		return true;
+	}
+	
+	private synchronized boolean start() {
+		if (status != Status.QUEUED) return false;
+		status = Status.RUNNING;
+		return true;
+	}
+	
+	private synchronized void finish(Status status, String message) {
+		//a cancelled job stays cancelled
+		if (this.status != Status.RUNNING) return;
+		this.status = status;
+		this.message = message;
+		this.finished = System.currentTimeMillis();
+	}
+	
+	void run(HyGraph hyGraph) {
+		if (!start()) return;
+		try {
+			PourpointEngine engine = new PourpointEngine(params.getPourpoints(), hyGraph, params.getRemoveHoles());
+			engine.setProgressListener(p -> progress = p * COMPUTE_PROGRESS);
+			PourpointOutput pout = engine.compute(params.getOutputTypes());
+			
+			ApiResponse resp = new ApiResponse(pout);
+			resp.setParams(params);
+			if (Thread.currentThread().isInterrupted()) throw new InterruptedException();
+			if (format == ResultFormat.GEOPACKAGE) {
+				writeGeoPackage(resp, getResultFile());
+			}else {
+				writeJson(resp, getResultFile());
+			}
+			progress = 1;
+			
+			finish(Status.COMPLETE, null);
+		}catch (Throwable t) {
+			if (status == Status.RUNNING) {
+				logger.warn("Pourpoint job " + id + " failed", t);
+			}
+			finish(Status.FAILED, t.getMessage());
+		}
+		//partial results of failed or cancelled jobs
+		if (status != Status.COMPLETE) deleteResults();
+	}
+	
+	private void writeJson(ApiResponse response, File file) throws IOException {
+		try(Writer out = new OutputStreamWriter(new FileOutputStream(file), "UTF-8")){
+			JsonConverterHelper helper = new JsonConverterHelper(out);
+			helper.convertResponse(response);
+			out.flush();
+		}
+	}
+	
+	private void writeGeoPackage(ApiResponse response, File file) throws IOException {
+		try(OutputStream out = new FileOutputStream(file)){
+			GeoPackageHelper helper = new GeoPackageHelper(out);
+			helper.convertResponse(response);
+			out.flush();
+		}
+	}
+	
+	void deleteResults() {
+		File file = getResultFile();
+		if (file.exists() && !file.delete()) {
+			logger.warn("Unable to delete pourpoint job result " + file.getAbsolutePath());
+		}
+	}
+}
@@ -0,0 +1,185 @@
+/*
+ * Copyright 2019 Government of Canada
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License.
+ */
+package net.refractions.chyf.rest.jobs;
+
+import java.io.File;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.PreDestroy;
+import javax.servlet.ServletContext;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import net.refractions.chyf.hygraph.HyGraph;
+import net.refractions.chyf.rest.PourpointParameters;
+import net.refractions.chyf.rest.exceptions.ServiceUnavailableException;
+
+/**
+ * Runs pourpoint jobs on a fixed number of threads.  Jobs wait in a 
+ * bounded queue; once the queue is full new jobs are rejected.  Finished 
+ * jobs and their result files are removed once they expire.
+ * 
+ * The number of threads, queue size, result directory and expiry time 
+ * (in minutes) are read from the pourpointJobThreads, pourpointJobQueueSize, 
+ * pourpointJobDir and pourpointJobExpiry context parameters.
+ */
+@Component
+public class PourpointJobManager {
+
+	static final Logger logger = LoggerFactory.getLogger(PourpointJobManager.class.getCanonicalName());
+	
+	private static final int DEFAULT_THREADS = 2;
+	private static final int DEFAULT_QUEUE_SIZE = 20;
+	private static final int DEFAULT_EXPIRY = 60;
+	
+	@Autowired
+	private HyGraph hyGraph;
+	
+	private ThreadPoolExecutor executor;
+	private File directory;
+	private long expiry;
+	
+	private Map<String, PourpointJob> jobs = new ConcurrentHashMap<>();
+	
+	@Autowired
+	public PourpointJobManager(ServletContext servletContext) {
+		this(intParameter(servletContext, "pourpointJobThreads", DEFAULT_THREADS),
+				intParameter(servletContext, "pourpointJobQueueSize", DEFAULT_QUEUE_SIZE),
+				directoryParameter(servletContext),
+				TimeUnit.MINUTES.toMillis(intParameter(servletContext, "pourpointJobExpiry", DEFAULT_EXPIRY)),
+				null);
+	}
+	
+	/**
+	 * Creates a job manager outside of a servlet container.
+	 * 
+	 * @param threads the number of jobs run at once
+	 * @param queueSize the number of jobs that can wait to be run
+	 * @param directory the directory the result files are written to
+	 * @param expiry the time in milliseconds finished jobs are kept
+	 * @param hyGraph the graph the jobs are computed on
+	 */
+	public PourpointJobManager(int threads, int queueSize, File directory, long expiry, HyGraph hyGraph) {
+		this.hyGraph = hyGraph;
+		this.directory = directory;
+		this.expiry = expiry;
+		if (!directory.isDirectory() && !directory.mkdirs()) {
+			throw new IllegalStateException("Unable to create pourpoint job directory " + directory.getAbsolutePath());
+		}
+		
+		AtomicInteger threadCnt = new AtomicInteger();
+		ThreadFactory factory = r -> {
+			Thread t = new Thread(r, "pourpoint-job-" + threadCnt.incrementAndGet());
+			t.setDaemon(true);
+			//leave interactive requests ahead of batch jobs
+			t.setPriority(Thread.NORM_PRIORITY - 1);
+			return t;
+		};
+		executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS, 
+				new ArrayBlockingQueue<>(queueSize), factory);
+	}
+	
+	private static int intParameter(ServletContext servletContext, String name, int defaultValue) {
+		String value = servletContext.getInitParameter(name);
+		if (value == null || value.trim().isEmpty()) return defaultValue;
+		int v = Integer.parseInt(value.trim());
+		if (v <= 0) throw new IllegalStateException("Context parameter " + name + " must be positive");
+		return v;
+	}
+	
+	private static File directoryParameter(ServletContext servletContext) {
+		String dir = servletContext.getInitParameter("pourpointJobDir");
+		if (dir == null || dir.trim().isEmpty()) {
+			return new File(System.getProperty("java.io.tmpdir"), "chyf-pourpoint-jobs");
+		}
+		return new File(dir.trim());
+	}
+	
+	/**
+	 * Queues a pourpoint job.  The parameters must already be resolved and validated.
+	 * 
+	 * @param format the format the results are written in
+	 * @throws ServiceUnavailableException if the job queue is full
+	 */
+	public PourpointJob submit(PourpointParameters params, PourpointJob.ResultFormat format) {
+		removeExpired();
+		
+		PourpointJob job = new PourpointJob(UUID.randomUUID().toString(), params, format, directory);
+		jobs.put(job.getId(), job);
+		try {
+			job.setFuture(executor.submit(() -> job.run(hyGraph)));
+		}catch (RejectedExecutionException ex) {
+			jobs.remove(job.getId());
+			throw new ServiceUnavailableException("The pourpoint job queue is full.  Try again later.");
+		}
+		return job;
+	}
+	
+	/**
+	 * @return the job or null if no job exists with the given id
+	 */
+	public PourpointJob getJob(String id) {
+		removeExpired();
+		return jobs.get(id);
+	}
+	
+	/**
+	 * Cancels the job if it is not finished, otherwise removes
+	 * the job and its results.
+	 */
+	public void cancel(PourpointJob job) {
+		if (job.cancel()) {
+			//cancelled jobs that have not started would otherwise keep their place in the queue
+			executor.purge();
+		}else {
+			jobs.remove(job.getId());
+			job.deleteResults();
+		}
+	}
+	
+	private void removeExpired() {
+		long now = System.currentTimeMillis();
+		for (Iterator<PourpointJob> it = jobs.values().iterator(); it.hasNext(); ) {
+			PourpointJob job = it.next();
+			if (job.getStatus().isFinished() && now - job.getFinished() > expiry) {
+				it.remove();
+				job.deleteResults();
+			}
+		}
+	}
+	
+	@PreDestroy
+	public void preDestroy() {
+		executor.shutdownNow();
+		for (PourpointJob job : jobs.values()) {
+			job.cancel();
+			job.deleteResults();
+		}
+		jobs.clear();
+	}
+}
@@ -17,6 +17,7 @@ package net.refractions.chyf.rest.messageconverters;
 
 import net.refractions.chyf.rest.PourpointParameters;
 import net.refractions.chyf.rest.SharedParameters;
+import net.refractions.util.StopWatch;
 
 
 public class ApiResponse {
@@ -24,6 +25,7 @@ public class ApiResponse {
 	private Object data;
 	private int srs;
 	private long executionTime;
+	private StopWatch executionTimer;
 	private String errorMsg;
 	private String callback = "jsonp";
 	private Double scale = null;
@@ -84,7 +86,23 @@ public class ApiResponse {
 		this.executionTime = executionTime;
 	}
 
+	/**
+	 * Sets a running timer for data that is computed while the response is 
+	 * written; the execution time is read from the timer when it is written 
+	 * after the data.
+	 */
+	public void setExecutionTimer(StopWatch executionTimer) {
+		this.executionTimer = executionTimer;
+	}
+
+	public boolean hasExecutionTimer() {
+		return executionTimer != null;
+	}
+
 	public long getExecutionTime() {
+		if (executionTimer != null) {
+			return executionTimer.getElapsedTime();
+		}
 		return executionTime;
 	}
 
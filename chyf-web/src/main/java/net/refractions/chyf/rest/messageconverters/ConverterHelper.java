@@ -17,7 +17,6 @@ package net.refractions.chyf.rest.messageconverters;
 
 import java.io.IOException;
 import java.io.Writer;
-import java.text.DecimalFormat;
 import java.util.Arrays;
 
 import net.refractions.chyf.ChyfDatastore;
@@ -28,6 +27,7 @@ import net.refractions.chyf.hygraph.Nexus;
 import net.refractions.chyf.indexing.SpatiallyIndexable;
 import net.refractions.chyf.pourpoint.PourpointOutput;
 import net.refractions.chyf.rest.GeotoolsGeometryReprojector;
+import net.refractions.chyf.rest.jobs.PourpointJob;
 
 import org.locationtech.jts.geom.Coordinate;
 import org.locationtech.jts.geom.CoordinateSequence;
@@ -141,9 +141,6 @@ public abstract class ConverterHelper {
 	}
 	
 	
-	static final DecimalFormat DEGREE_FORMAT = new DecimalFormat("###.#####");
-	static final DecimalFormat METRE_FORMAT = new DecimalFormat("###.##");
-	
 	protected Writer out;
 	
 	public ConverterHelper(Writer out) {
@@ -153,7 +150,11 @@ public abstract class ConverterHelper {
 	protected abstract void responseHeader(ApiResponse response) throws IOException;
 	protected abstract void responseFooter(ApiResponse response) throws IOException;
 	protected abstract void featureCollectionHeader(ApiResponse response) throws IOException;
-	protected abstract void featureCollectionFooter() throws IOException;
+	protected abstract void featureCollectionFooter(ApiResponse response) throws IOException;
+
+	protected void featureCollectionFooter() throws IOException {
+		featureCollectionFooter(null);
+	}
 	protected abstract void featureHeader(Geometry g, Integer id, ApiResponse response) throws IOException;
 	protected abstract void featureFooter() throws IOException;
 	protected abstract void objectHeader() throws IOException;
@@ -241,6 +242,20 @@ public abstract class ConverterHelper {
 		featureFooter();
 	}
 
+	protected void pourpointJob(PourpointJob job) throws IOException {
+		objectHeader();
+		field("id", job.getId());
+		field("status", job.getStatus().toString());
+		//percent complete
+		field("progress", Long.valueOf(Math.round(job.getProgress() * 100)));
+		if (job.getMessage() != null) field("message", job.getMessage());
+		if (job.getStatus() == PourpointJob.Status.COMPLETE) {
+			//format the results can be fetched in
+			field("results", job.getFormat().extension);
+		}
+		objectFooter();
+	}
+
 	protected void responseMetadata(ApiResponse response) throws IOException {
 		if(response != null) {
 			nestedFieldHeader("responseMetadata");
@@ -259,11 +274,14 @@ public abstract class ConverterHelper {
 			featureCollectionHeader(response);
 			featureCollectionFooter();			
 		} else if(data instanceof Iterable<?>) {
-			featureCollectionHeader(response);
+			//the metadata of results computed as they are written follows 
+			//the features so the execution time includes the computation
+			boolean timed = response.hasExecutionTimer();
+			featureCollectionHeader(timed ? null : response);
 			for(Object o : ((Iterable<?>)data)) {
 				dataObject(o, response, null);
 			}
-			featureCollectionFooter();
+			featureCollectionFooter(timed ? response : null);
 		}else if (data instanceof PourpointOutput) {
 			(new PourpointJsonConverter(out)).convertResponse(response);
 		} else {
@@ -283,16 +301,19 @@ public abstract class ConverterHelper {
 			drainageArea((DrainageArea)data, response, responseMetadata);
 		} else if(data instanceof SpatiallyIndexable) {
 			spatiallyIndexable((SpatiallyIndexable)data, response, responseMetadata);
+		} else if(data instanceof PourpointJob) {
+			pourpointJob((PourpointJob)data);
 		} else {
 			nullData();
 		}
 	}
 
 	protected static String formatOrdinate(double ord) {
-		if(ord <= 180 && ord >= -180) {
-			return DEGREE_FORMAT.format(ord);
-		}
-		return METRE_FORMAT.format(ord);
+		return OrdinateFormat.formatOrdinate(ord);
+	}
+
+	protected static String formatMetres(double value) {
+		return OrdinateFormat.format(value, OrdinateFormat.METRE_DECIMALS);
 	}
 
 	protected LineString filterCoords(LineString l, Double scale) {
@@ -57,7 +57,7 @@ public class HtmlConverterHelper extends ConverterHelper {
 
 	@Override
 	protected void field(String fieldName, double fieldValue) throws IOException {
-		field(fieldName, METRE_FORMAT.format(fieldValue));
+		field(fieldName, formatMetres(fieldValue));
 	}
 
 	@Override
@@ -129,9 +129,10 @@ public class HtmlConverterHelper extends ConverterHelper {
 	}
 
 	@Override
-	protected void featureCollectionFooter() throws IOException {
+	protected void featureCollectionFooter(ApiResponse responseMetadata) throws IOException {
 		listFooter();
 		nestedFieldFooter();
+		responseMetadata(responseMetadata);
 		objectFooter();
 	}
 
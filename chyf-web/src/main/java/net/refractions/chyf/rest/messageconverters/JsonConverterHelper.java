@@ -29,6 +29,9 @@ import org.locationtech.jts.geom.Polygon;
 public class JsonConverterHelper extends ConverterHelper {
 
 	protected JsonWriter jw;
+	
+	// reused for writing coordinate arrays
+	private StringBuilder coordinateBuffer = new StringBuilder(32);
 
 	public JsonConverterHelper(Writer out) {
 		super(out);
@@ -60,7 +63,7 @@ public class JsonConverterHelper extends ConverterHelper {
 
 	@Override
 	protected void field(String fieldName, double fieldValue) throws IOException {
-		jw.name(fieldName).jsonValue(METRE_FORMAT.format(fieldValue));
+		jw.name(fieldName).jsonValue(formatMetres(fieldValue));
 	}
 
 	@Override
@@ -78,8 +81,9 @@ public class JsonConverterHelper extends ConverterHelper {
 	}
 
 	@Override
-	protected void featureCollectionFooter() throws IOException {
+	protected void featureCollectionFooter(ApiResponse responseMetadata) throws IOException {
 		jw.endArray();
+		responseMetadata(responseMetadata);
 		jw.endObject();
 	}
 
@@ -177,14 +181,22 @@ public class JsonConverterHelper extends ConverterHelper {
 		for(int i = 0; i < cs.size(); i++) {
 			coordinate(cs.getX(i), cs.getY(i));
 		}
-		jw.endArray();		
+		jw.endArray();
 	}
 
 	private void coordinate(double x, double y) throws IOException {
 		jw.beginArray();
-		jw.jsonValue(formatOrdinate(x));
-		jw.jsonValue(formatOrdinate(y));
-		jw.endArray();		
+		ordinate(x);
+		ordinate(y);
+		jw.endArray();
+	}
+
+	private void ordinate(double value) throws IOException {
+		// each ordinate is formatted into the reused buffer and written as a raw json value
+		StringBuilder sb = coordinateBuffer;
+		sb.setLength(0);
+		OrdinateFormat.appendOrdinate(sb, value);
+		jw.jsonValue(sb.toString());
 	}
 
 }
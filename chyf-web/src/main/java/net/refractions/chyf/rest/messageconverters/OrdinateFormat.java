@@ -0,0 +1,103 @@
+/*
+ * Copyright 2019 Government of Canada
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.refractions.chyf.rest.messageconverters;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+
+/**
+ * Formats numbers with a maximum number of decimal places, dropping
+ * trailing zeros and rounding half-even, matching the output of the
+ * DecimalFormat patterns previously used ("###.#####" and "###.##")
+ * but appending directly to a StringBuilder without intermediate objects.
+ * Unlike DecimalFormat this is thread safe.
+ */
+public final class OrdinateFormat {
+
+	public static final int DEGREE_DECIMALS = 5;
+	public static final int METRE_DECIMALS = 2;
+
+	private static final long[] POW10 = {1L, 10L, 100L, 1000L, 10000L, 100000L, 1000000L, 10000000L, 100000000L};
+
+	// above this the scaled value no longer fits exactly in a double
+	private static final double MAX_SCALED = 1e15;
+
+	private OrdinateFormat() {
+	}
+
+	/**
+	 * Appends an ordinate using degree precision if it is in the range
+	 * of geographic coordinates otherwise metre precision
+	 */
+	public static void appendOrdinate(StringBuilder sb, double ord) {
+		if(ord <= 180 && ord >= -180) {
+			append(sb, ord, DEGREE_DECIMALS);
+		} else {
+			append(sb, ord, METRE_DECIMALS);
+		}
+	}
+
+	public static String formatOrdinate(double ord) {
+		StringBuilder sb = new StringBuilder(16);
+		appendOrdinate(sb, ord);
+		return sb.toString();
+	}
+
+	public static String format(double value, int decimals) {
+		StringBuilder sb = new StringBuilder(16);
+		append(sb, value, decimals);
+		return sb.toString();
+	}
+
+	public static void append(StringBuilder sb, double value, int decimals) {
+		if(decimals < 0 || decimals >= POW10.length) {
+			throw new IllegalArgumentException("Unsupported number of decimals: " + decimals);
+		}
+		if(Double.isNaN(value) || Double.isInfinite(value)) {
+			sb.append(value);
+			return;
+		}
+		long pow = POW10[decimals];
+		double product = value * pow;
+		double scaled = Math.rint(product);
+		// the product is rounded so an exact tie may not be a tie of the
+		// decimal value, fall back to exact arithmetic for these
+		if(Math.abs(scaled) >= MAX_SCALED || Math.abs(product - scaled) == 0.5) {
+			sb.append(new BigDecimal(value).setScale(decimals, RoundingMode.HALF_EVEN).stripTrailingZeros().toPlainString());
+			return;
+		}
+		long units = (long) scaled;
+		if(value < 0 || (value == 0 && 1 / value < 0)) {
+			sb.append('-');
+			units = -units;
+		}
+		sb.append(units / pow);
+		long fraction = units % pow;
+		if(fraction == 0) {
+			return;
+		}
+		int digits = decimals;
+		while(fraction % 10 == 0) {
+			fraction /= 10;
+			digits--;
+		}
+		sb.append('.');
+		for(int i = digits - 1; i > 0 && fraction < POW10[i]; i--) {
+			sb.append('0');
+		}
+		sb.append(fraction);
+	}
+}
@@ -27,9 +27,11 @@ import org.locationtech.jts.geom.Point;
 import net.refractions.chyf.ChyfDatastore;
 import net.refractions.chyf.hygraph.DrainageArea;
 import net.refractions.chyf.hygraph.ECatchment;
+import net.refractions.chyf.pourpoint.DistanceMatrix;
 import net.refractions.chyf.pourpoint.Pourpoint;
 import net.refractions.chyf.pourpoint.PourpointEngine;
 import net.refractions.chyf.pourpoint.PourpointOutput;
+import net.refractions.chyf.pourpoint.RelationshipMatrix;
 import net.refractions.chyf.rest.GeotoolsGeometryReprojector;
 
 public class PourpointJsonConverter extends JsonConverterHelper {
@@ -231,7 +233,7 @@ public class PourpointJsonConverter extends JsonConverterHelper {
 		jw.endObject();
 	}
 	
-	private void writeRelationship(PourpointEngine.OutputType layer, Double[][] values) throws IOException{
+	private void writeRelationship(PourpointEngine.OutputType layer, DistanceMatrix values) throws IOException{
 		jw.beginObject();
 		field("key", layer.key);
 		field("name", layer.layername);
@@ -245,10 +247,14 @@ public class PourpointJsonConverter extends JsonConverterHelper {
 		
 		jw.name("values");
 		listHeader();
-		for (int i = 0; i < values.length; i ++) {
+		for (int i = 0; i < values.getSize(); i ++) {
 			listHeader();
-			for (int j = 0; j < values.length; j ++) {
-				jw.value(values[i][j]);
+			for (int j = 0; j < values.getSize(); j ++) {
+				if (values.hasValue(i, j)) {
+					jw.value(values.get(i, j));
+				}else {
+					jw.nullValue();
+				}
 			}
 			listFooter();
 		}
@@ -257,7 +263,7 @@ public class PourpointJsonConverter extends JsonConverterHelper {
 		jw.endObject();
 	}
 	
-	private void writeRelationship(PourpointEngine.OutputType layer, String[] headers, Integer[][] values) throws IOException{
+	private void writeRelationship(PourpointEngine.OutputType layer, String[] headers, RelationshipMatrix values) throws IOException{
 		jw.beginObject();
 		field("key", layer.key);
 		field("name", layer.layername);
@@ -270,10 +276,14 @@ public class PourpointJsonConverter extends JsonConverterHelper {
 		
 		jw.name("values");
 		listHeader();
-		for (int i = 0; i < values.length; i ++) {
+		for (int i = 0; i < values.getSize(); i ++) {
 			listHeader();
-			for (int j = 0; j < values.length; j ++) {
-				jw.value(values[i][j]);
+			for (int j = 0; j < values.getSize(); j ++) {
+				if (values.hasValue(i, j)) {
+					jw.value(values.get(i, j));
+				}else {
+					jw.nullValue();
+				}
 			}
 			listFooter();
 		}
@@ -47,6 +47,8 @@ import net.refractions.chyf.ChyfShapeDataReader;
 @RunWith(Suite.class)
 @SuiteClasses({
 	StreamOrderTest.class, 
+	StreamOrderCalculatorTest.class,
+	HyGraphBuilderTest.class,
 	FlowpathTest.class, 
 	DrainageTest.class, 
 	ElementaryDrainageTest.class,
@@ -55,7 +57,12 @@ import net.refractions.chyf.ChyfShapeDataReader;
 	PourpointTest.class,
 	SimpleDataPourpointTest.class,
 	PointRelationshipTreeTest.class,
-	PourpointSecondaryTest.class})
+	PourpointSecondaryTest.class,
+	ReachabilityTest.class,
+	LocatorCacheTest.class,
+	DrainageAreaCacheTest.class,
+	PourpointJobTest.class,
+	SnapshotTest.class})
 
 public class BasicTestSuite extends Suite {
 
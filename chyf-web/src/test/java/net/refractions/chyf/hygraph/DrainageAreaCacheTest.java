@@ -0,0 +1,80 @@
+/*
+ * Copyright 2019 Government of Canada
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License.
+ */
+package net.refractions.chyf.hygraph;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestRule;
+import org.locationtech.jts.geom.Geometry;
+
+/**
+ * Tests upstream drainage areas built from cached hub geometries
+ * against a direct union of the upstream catchments.
+ */
+public class DrainageAreaCacheTest {
+
+	@Rule
+	public TestRule rule = BasicTestSuite.SETUP_RULE;
+
+	@Test
+	public void test_cachedUpstreamDrainageArea() {
+		HyGraph graph = BasicTestSuite.DATASTORE.getHyGraph();
+		DrainageAreaCache original = graph.getDrainageAreaCache();
+		
+		//every confluence is a hub and only two hubs are kept so the
+		//cached geometries are used and evicted on the small test data
+		int maxEntries = 2;
+		DrainageAreaCache cache = new DrainageAreaCache(graph, graph.getTopology(), 1, maxEntries);
+		Assert.assertTrue("Test data has too few hubs", cache.getHubCount() > maxEntries);
+		graph.setDrainageAreaCache(cache);
+		try {
+			Set<ECatchment> unique = new LinkedHashSet<>();
+			for (EFlowpath f : graph.getEFlowpaths(f -> f.getCatchment() != null)) {
+				unique.add(f.getCatchment());
+			}
+			List<ECatchment> catchments = new ArrayList<>(unique);
+			int step = Math.max(1, catchments.size() / 50);
+			
+			//the second pass runs after hubs from the first pass have been evicted
+			for (int pass = 0; pass < 2; pass ++) {
+				for (int i = 0; i < catchments.size(); i += step) {
+					ECatchment c = catchments.get(i);
+					DrainageArea actual = graph.getUpstreamDrainageArea(c, false);
+					DrainageArea expected = graph.buildDrainageArea(graph.getUpstreamECatchments(c, Integer.MAX_VALUE), false);
+					
+					Geometry eg = expected.getGeometry();
+					Geometry ag = actual.getGeometry();
+					Assert.assertEquals("Upstream drainage area geometry incorrect for catchment " + c.getId() + " (pass " + pass + ")",
+							0, eg.symDifference(ag).getArea(), eg.getArea() * 1e-9);
+					Assert.assertEquals("Upstream drainage area incorrect for catchment " + c.getId() + " (pass " + pass + ")",
+							expected.getArea(), actual.getArea(), 1e-6);
+					Assert.assertTrue("Cache exceeded maximum size", cache.size() <= maxEntries);
+				}
+				if (pass == 0) {
+					Assert.assertTrue("No cached hubs were evicted", cache.getEvictionCount() > 0);
+				}
+			}
+		}finally {
+			graph.setDrainageAreaCache(original);
+		}
+	}
+}
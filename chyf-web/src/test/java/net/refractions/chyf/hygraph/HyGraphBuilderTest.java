@@ -0,0 +1,184 @@
+/*
+ * Copyright 2019 Government of Canada
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License.
+ */
+package net.refractions.chyf.hygraph;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestRule;
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.Envelope;
+import org.locationtech.jts.geom.GeometryFactory;
+import org.locationtech.jts.geom.LineString;
+import org.locationtech.jts.geom.Point;
+import org.locationtech.jts.geom.Polygon;
+
+import net.refractions.chyf.enumTypes.CatchmentType;
+import net.refractions.chyf.enumTypes.FlowpathType;
+import net.refractions.chyf.enumTypes.Rank;
+
+/**
+ * Tests the graph built by the HyGraphBuilder against the results of 
+ * evaluating the geometry predicates directly on the test data, and
+ * nexus matching and cycle detection on small networks.
+ */
+public class HyGraphBuilderTest {
+
+	private static final GeometryFactory GF = new GeometryFactory();
+
+	@Rule
+	public TestRule rule = BasicTestSuite.SETUP_RULE;
+
+	@Test
+	public void test_flowpathCatchments() {
+		HyGraphTopology topology = BasicTestSuite.DATASTORE.getHyGraph().getTopology();
+		int lastId = 0;
+		for (int i = 0; i < topology.getEFlowpathCount(); i ++) {
+			EFlowpath f = topology.eFlowpath(i);
+			LineString line = f.getLineString();
+			Assert.assertTrue("Flowpath ids should be assigned in order", f.getId() > lastId);
+			lastId = f.getId();
+			
+			//the containing catchment with the lowest id
+			ECatchment expected = null;
+			for (int k = 0; k < topology.getECatchmentCount(); k ++) {
+				ECatchment c = topology.eCatchment(k);
+				if (c.getEnvelope().covers(line.getEnvelopeInternal()) && c.getPolygon().contains(line)
+						&& (expected == null || c.getId() < expected.getId())) {
+					expected = c;
+				}
+			}
+			if (expected == null && f.getType() == FlowpathType.BANK) {
+				for (int k = 0; k < topology.getECatchmentCount(); k ++) {
+					ECatchment c = topology.eCatchment(k);
+					if (c.getPolygon().contains(line.getEndPoint()) && (expected == null || c.getId() < expected.getId())) {
+						expected = c;
+					}
+				}
+			}
+			Assert.assertNotNull("No catchment for flowpath " + f.getId(), expected);
+			ECatchment catchment = f.getCatchment();
+			Assert.assertEquals("Catchment of flowpath " + f.getId(), expected.getId(), catchment.getId());
+			Assert.assertTrue(catchment.getFlowpaths().contains(f));
+			
+			if (catchment.getPolygon().touches(line.getStartPoint())) {
+				Assert.assertTrue("Up nexus of catchment " + catchment.getId(), catchment.getUpNexuses().contains(f.getFromNode()));
+			}
+			if (catchment.getPolygon().touches(line.getEndPoint())) {
+				Assert.assertTrue("Down nexus of catchment " + catchment.getId(), catchment.getDownNexuses().contains(f.getToNode()));
+			}
+			Assert.assertTrue(f.getFromNode().getPoint().equalsExact(line.getStartPoint()));
+			Assert.assertTrue(f.getToNode().getPoint().equalsExact(line.getEndPoint()));
+		}
+	}
+
+	@Test
+	public void test_coordinateKeyCollision() {
+		//flipping the same bit of x and of the rotated y gives the same key
+		Coordinate c1 = new Coordinate(1.0, 1.0);
+		Coordinate c2 = new Coordinate(
+				Double.longBitsToDouble(Double.doubleToLongBits(1.0) ^ (1L << 32)),
+				Double.longBitsToDouble(Double.doubleToLongBits(1.0) ^ 1L));
+		Assert.assertFalse(c1.equals2D(c2));
+		Assert.assertEquals(HyGraphBuilder.coordinateKey(c1), HyGraphBuilder.coordinateKey(c2));
+		
+		HyGraphBuilder builder = new HyGraphBuilder();
+		Nexus n1 = builder.getNexus(GF.createPoint(c1));
+		Nexus n2 = builder.getNexus(GF.createPoint(c2));
+		Assert.assertNotSame("Coordinates with the same key are different nexuses", n1, n2);
+		Assert.assertSame(n1, builder.getNexus(GF.createPoint(new Coordinate(c1))));
+		//only found through the spatial index
+		Assert.assertSame(n2, builder.getNexus(GF.createPoint(new Coordinate(c2))));
+		
+		//negative zero is the same coordinate as zero
+		Nexus zero = builder.getNexus(GF.createPoint(new Coordinate(0.0, 0.0)));
+		Assert.assertSame(zero, builder.getNexus(GF.createPoint(new Coordinate(-0.0, -0.0))));
+		Assert.assertNotSame(zero, n1);
+	}
+
+	@Test
+	public void test_uniqueNexuses() {
+		//as when nexuses were matched by comparing points there is 
+		//exactly one nexus for each flowpath end point
+		HyGraphTopology topology = BasicTestSuite.DATASTORE.getHyGraph().getTopology();
+		Map<Coordinate, Nexus> nexuses = new HashMap<>();
+		for (int i = 0; i < topology.getNexusCount(); i ++) {
+			Nexus n = topology.nexus(i);
+			Nexus other = nexuses.put(n.getPoint().getCoordinate(), n);
+			Assert.assertNull("Nexus " + n.getId() + " has the same coordinate as another nexus", other);
+		}
+		for (int i = 0; i < topology.getEFlowpathCount(); i ++) {
+			EFlowpath f = topology.eFlowpath(i);
+			Point start = f.getLineString().getStartPoint();
+			Point end = f.getLineString().getEndPoint();
+			Assert.assertSame(f.getFromNode(), nexuses.get(start.getCoordinate()));
+			Assert.assertSame(f.getToNode(), nexuses.get(end.getCoordinate()));
+		}
+	}
+
+	@Test
+	public void test_findCycles() {
+		HyGraphBuilder builder = new HyGraphBuilder();
+		Polygon polygon = (Polygon)GF.toGeometry(new Envelope(-1000, 1000, -1000, 1000));
+		builder.addECatchment(CatchmentType.REACH, polygon.getArea(), polygon);
+		
+		//flows into a triangle that drains out at one corner
+		flowpath(builder, -10, -10, 0, 0);
+		flowpath(builder, 0, 0, 10, 0);
+		flowpath(builder, 10, 0, 5, 10);
+		flowpath(builder, 5, 10, 0, 0);
+		flowpath(builder, 10, 0, 20, 0);
+		//a ring long enough to overflow the stack of a recursive search
+		int ringSize = 10000;
+		for (int k = 0; k < ringSize; k ++) {
+			double a1 = 2 * Math.PI * k / ringSize;
+			double a2 = 2 * Math.PI * ((k + 1) % ringSize) / ringSize;
+			flowpath(builder, 500 * Math.cos(a1), 500 * Math.sin(a1), 500 * Math.cos(a2), 500 * Math.sin(a2));
+		}
+		builder.build(Collections.emptyList());
+		
+		List<Set<Integer>> cycles = new ArrayList<>();
+		for (List<EFlowpath> cycle : builder.findCycles()) {
+			Set<Integer> ids = new HashSet<>();
+			for (EFlowpath f : cycle) {
+				ids.add(f.getId());
+			}
+			cycles.add(ids);
+		}
+		Assert.assertEquals(2, cycles.size());
+		Set<Integer> triangle = new HashSet<>();
+		Collections.addAll(triangle, 2, 3, 4);
+		Assert.assertTrue("Triangle cycle not reported", cycles.contains(triangle));
+		Set<Integer> ring = new HashSet<>();
+		for (int k = 0; k < ringSize; k ++) {
+			ring.add(6 + k);
+		}
+		Assert.assertTrue("Ring cycle not reported", cycles.contains(ring));
+	}
+
+	private void flowpath(HyGraphBuilder builder, double x1, double y1, double x2, double y2) {
+		LineString line = GF.createLineString(new Coordinate[] {new Coordinate(x1, y1), new Coordinate(x2, y2)});
+		builder.addEFlowpath(FlowpathType.OBSERVED, Rank.PRIMARY, null, null, line.getLength(), line);
+	}
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright 2019 Government of Canada
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License.
+ */
+package net.refractions.chyf.hygraph;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.GeometryFactory;
+import org.locationtech.jts.geom.Point;
+import org.locationtech.jts.geom.Polygon;
+
+import net.refractions.chyf.enumTypes.CatchmentType;
+
+/**
+ * Tests that indexed catchment locators are released once the
+ * locator cache is full, keeping recently used ones.
+ */
+public class LocatorCacheTest {
+
+	private static final GeometryFactory GF = new GeometryFactory();
+
+	@Test
+	public void test_locatorEviction() {
+		LocatorCache original = ECatchment.getLocatorCache();
+		LocatorCache cache = new LocatorCache(2);
+		ECatchment.setLocatorCache(cache);
+		try {
+			ECatchment[] catchments = new ECatchment[4];
+			Point[] centres = new Point[catchments.length];
+			for (int i = 0; i < catchments.length; i ++) {
+				centres[i] = GF.createPoint(new Coordinate(i * 100, 0));
+				//large enough to use an indexed locator
+				Polygon polygon = (Polygon)centres[i].buffer(10, 32);
+				Assert.assertTrue(polygon.getNumPoints() >= 64);
+				catchments[i] = new ECatchment(i, CatchmentType.REACH, polygon.getArea(), polygon);
+			}
+			
+			Assert.assertTrue(catchments[0].contains(centres[0]));
+			Assert.assertTrue(catchments[1].contains(centres[1]));
+			Assert.assertTrue(catchments[0].hasLocator());
+			Assert.assertTrue(catchments[1].hasLocator());
+			Assert.assertEquals(0, cache.getEvictionCount());
+			
+			//the oldest locator makes room for the third
+			Assert.assertTrue(catchments[2].contains(centres[2]));
+			Assert.assertFalse(catchments[0].hasLocator());
+			Assert.assertTrue(catchments[1].hasLocator());
+			Assert.assertTrue(catchments[2].hasLocator());
+			Assert.assertEquals(1, cache.getEvictionCount());
+			
+			//a locator used again is kept over one that was not
+			Assert.assertTrue(catchments[1].contains(centres[1]));
+			Assert.assertTrue(catchments[3].contains(centres[3]));
+			Assert.assertTrue(catchments[1].hasLocator());
+			Assert.assertFalse(catchments[2].hasLocator());
+			Assert.assertTrue(catchments[3].hasLocator());
+			Assert.assertEquals(2, cache.getEvictionCount());
+			
+			//released locators are rebuilt on the next lookup
+			Assert.assertTrue(catchments[0].contains(centres[0]));
+			Assert.assertFalse(catchments[0].contains(centres[1]));
+			Assert.assertTrue(catchments[0].hasLocator());
+		} finally {
+			ECatchment.setLocatorCache(original);
+		}
+	}
+}
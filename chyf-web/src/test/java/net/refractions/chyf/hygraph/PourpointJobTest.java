@@ -0,0 +1,124 @@
+/*
+ * Copyright 2019 Government of Canada
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License.
+ */
+package net.refractions.chyf.hygraph;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestRule;
+
+import net.refractions.chyf.rest.PourpointParameters;
+import net.refractions.chyf.rest.jobs.PourpointJob;
+import net.refractions.chyf.rest.jobs.PourpointJob.ResultFormat;
+import net.refractions.chyf.rest.jobs.PourpointJob.Status;
+import net.refractions.chyf.rest.jobs.PourpointJobManager;
+
+/**
+ * Tests submitting, polling and cancelling pourpoint jobs
+ * on the test data.
+ */
+public class PourpointJobTest {
+
+	@Rule
+	public TestRule rule = BasicTestSuite.SETUP_RULE;
+	
+	private static final long TIMEOUT = TimeUnit.MINUTES.toMillis(2);
+	
+	private File directory;
+	private PourpointJobManager manager;
+	
+	@Before
+	public void setUp() throws Exception {
+		directory = Files.createTempDirectory("pourpoint-jobs").toFile();
+		//one job runs at a time and one can wait
+		manager = new PourpointJobManager(1, 1, directory, TimeUnit.MINUTES.toMillis(60), BasicTestSuite.DATASTORE.getHyGraph());
+	}
+	
+	@After
+	public void tearDown() {
+		manager.preDestroy();
+		File[] files = directory.listFiles();
+		if (files != null) {
+			for (File f : files) f.delete();
+		}
+		directory.delete();
+	}
+	
+	@Test
+	public void test_submitPollResult() throws Exception {
+		for (ResultFormat format : ResultFormat.values()) {
+			PourpointJob job = manager.submit(parameters(), format);
+			Assert.assertSame(job, manager.getJob(job.getId()));
+			
+			waitFor(job);
+			Assert.assertEquals(job.getMessage(), Status.COMPLETE, job.getStatus());
+			Assert.assertEquals(1.0, job.getProgress(), 0);
+			Assert.assertTrue(job.getFinished() > 0);
+			Assert.assertEquals(format, job.getFormat());
+			Assert.assertTrue("Missing " + format.extension + " result", job.getResultFile().length() > 0);
+			//only the requested format is written
+			Assert.assertEquals(1, directory.listFiles().length);
+			
+			//cancelling a finished job removes it and its results
+			manager.cancel(job);
+			Assert.assertNull(manager.getJob(job.getId()));
+			Assert.assertFalse(job.getResultFile().exists());
+		}
+	}
+	
+	@Test
+	public void test_cancel() throws Exception {
+		PourpointJob first = manager.submit(parameters(), ResultFormat.JSON);
+		PourpointJob second = manager.submit(parameters(), ResultFormat.JSON);
+		
+		manager.cancel(second);
+		Assert.assertEquals(Status.CANCELLED, second.getStatus());
+		Assert.assertSame(second, manager.getJob(second.getId()));
+		
+		//the cancelled job no longer holds the only place in the queue
+		PourpointJob third = manager.submit(parameters(), ResultFormat.JSON);
+		
+		waitFor(first);
+		waitFor(third);
+		Assert.assertEquals(first.getMessage(), Status.COMPLETE, first.getStatus());
+		Assert.assertEquals(third.getMessage(), Status.COMPLETE, third.getStatus());
+		Assert.assertEquals(Status.CANCELLED, second.getStatus());
+		Assert.assertFalse(second.getResultFile().exists());
+	}
+	
+	private static PourpointParameters parameters() {
+		PourpointParameters params = new PourpointParameters();
+		params.setOutputSRS(BasicTestSuite.TEST_DATA_SRID);
+		params.setPoints("P1,-73.32492,45.43535,-2,P2,-73.32653,45.43866,-2,P3,-73.33106,45.43065,-2");
+		params.setOutput("op,prt,c,sc");
+		params.resolveAndValidate();
+		return params;
+	}
+	
+	private void waitFor(PourpointJob job) throws InterruptedException {
+		long end = System.currentTimeMillis() + TIMEOUT;
+		while (!manager.getJob(job.getId()).getStatus().isFinished()) {
+			Assert.assertTrue("Pourpoint job " + job.getId() + " did not finish", System.currentTimeMillis() < end);
+			Thread.sleep(50);
+		}
+	}
+}
@@ -221,7 +221,7 @@ public class PourpointSecondaryTest {
 			
 			
 			//relationships
-			Integer[][] actual = out.getCatchmentContainment();
+			Integer[][] actual = out.getCatchmentContainment().toArray();
 			Integer[][] expected = (Integer[][]) relationships.get(PourpointEngine.OutputType.CATCHMENT_CONTAINMENT.key);
 			for (int i = 0; i < expected.length; i ++) {
 				for (int j = 0; j < expected.length; j ++) {
@@ -229,7 +229,7 @@ public class PourpointSecondaryTest {
 				}
 			}
 			
-			actual = out.getPartitionedCatchmentRelationship();
+			actual = out.getPartitionedCatchmentRelationship().toArray();
 			expected = (Integer[][]) relationships.get(PourpointEngine.OutputType.PARTITIONED_CATCHMENT_RELATION.key);
 			for (int i = 0; i < expected.length; i ++) {
 				for (int j = 0; j < expected.length; j ++) {
@@ -237,7 +237,7 @@ public class PourpointSecondaryTest {
 				}
 			}
 			
-			actual = out.getSubCatchmentRelationship();
+			actual = out.getSubCatchmentRelationship().toArray();
 			expected = (Integer[][]) relationships.get(PourpointEngine.OutputType.SUBCATCHMENT_RELATIONSHIP.key);
 			for (int i = 0; i < expected.length; i ++) {
 				for (int j = 0; j < expected.length; j ++) {
@@ -245,7 +245,7 @@ public class PourpointSecondaryTest {
 				}
 			}
 			
-			Double[][] dactual = out.getProjectedPourpointMinDistanceMatrix();
+			Double[][] dactual = out.getProjectedPourpointMinDistanceMatrix().toArray();
 			Double[][] dexpected = (Double[][]) relationships.get(PourpointEngine.OutputType.DISTANCE_MIN.key);
 			for (int i = 0; i < expected.length; i ++) {
 				for (int j = 0; j < expected.length; j ++) {
@@ -253,7 +253,7 @@ public class PourpointSecondaryTest {
 				}
 			}
 			
-			dactual = out.getProjectedPourpointMaxDistanceMatrix();
+			dactual = out.getProjectedPourpointMaxDistanceMatrix().toArray();
 			dexpected = (Double[][]) relationships.get(PourpointEngine.OutputType.DISTANCE_MAX.key);
 			for (int i = 0; i < expected.length; i ++) {
 				for (int j = 0; j < expected.length; j ++) {
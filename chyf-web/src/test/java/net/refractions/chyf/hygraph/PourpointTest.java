@@ -99,7 +99,7 @@ public class PourpointTest {
 				{null, 1, null, -1},
 				{null, 1, 1, null},
 		};
-		Integer[][] actual = out.getSubCatchmentRelationship();
+		Integer[][] actual = out.getSubCatchmentRelationship().toArray();
 		for (int i = 0; i < expected.length; i ++) {
 			for (int j = 0; j < expected.length; j ++) {
 				Assert.assertEquals("Invalid PP Relationships", expected[i][j], actual[i][j]);
@@ -114,8 +114,8 @@ public class PourpointTest {
 				{null,1254.2579560971265,null,-2107.059406197649},
 				{null,3361.317362294776,2107.059406197649,null}
 		};
-		Double[][] actual1 = out.getProjectedPourpointMinDistanceMatrix();
-		Double[][] actual2 = out.getProjectedPourpointMaxDistanceMatrix();
+		Double[][] actual1 = out.getProjectedPourpointMinDistanceMatrix().toArray();
+		Double[][] actual2 = out.getProjectedPourpointMaxDistanceMatrix().toArray();
 		for (int i = 0; i < distances.length; i ++) {
 			for (int j = 0; j < distances.length; j ++) {
 				Assert.assertEquals("Invalid PP Distance", distances[i][j], actual1[i][j]);
@@ -0,0 +1,52 @@
+/*
+ * Copyright 2019 Government of Canada
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License.
+ */
+package net.refractions.chyf.hygraph;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestRule;
+
+/**
+ * Tests the precomputed upstream/downstream reachability
+ * against a full downstream traversal of the network.
+ */
+public class ReachabilityTest {
+
+	@Rule
+	public TestRule rule = BasicTestSuite.SETUP_RULE;
+
+	@Test
+	public void test_isUpstreamOf() {
+		HyGraph graph = BasicTestSuite.DATASTORE.getHyGraph();
+		List<EFlowpath> flowpaths = graph.getEFlowpaths(f -> true);
+		//check a sample of the network as a start point
+		for (int i = 0; i < flowpaths.size(); i += 50) {
+			EFlowpath up = flowpaths.get(i);
+			Set<EFlowpath> downstream = new HashSet<>(graph.getDownstreamEFlowpaths(up, Integer.MAX_VALUE));
+			downstream.remove(up);
+			for (EFlowpath down : flowpaths) {
+				if (down == up) continue;
+				Assert.assertEquals("Reachability failure from flowpath " + up.getId() + " to " + down.getId(), 
+						downstream.contains(down), graph.isUpstreamOf(up, down));
+			}
+		}
+	}
+}
@@ -112,7 +112,7 @@ public class SimpleDataPourpointTest {
 		
 		
 		//test pourpoint relationship
-		Integer[][] ppRel = results.getSubCatchmentRelationship();
+		Integer[][] ppRel = results.getSubCatchmentRelationship().toArray();
 		Integer[][] expectedRel = new Integer[][]{
 				{null, -1, -1, -1, -1},
 				{1, null, null, null, null},
@@ -185,7 +185,7 @@ public class SimpleDataPourpointTest {
 			}
 		}
 		
-		Integer[][] catRel = results.getPartitionedCatchmentRelationship();
+		Integer[][] catRel = results.getPartitionedCatchmentRelationship().toArray();
 		Integer[][] expectedCatRel = new Integer[][]{
 			new Integer[]{null,-1,-1,-1,-1,-1,-1},
 			new Integer[]{1,null,-1,null,-1,-1,-1},
@@ -205,7 +205,7 @@ public class SimpleDataPourpointTest {
 			}
 		}
 		
-		Double[][] actualDistances = results.getProjectedPourpointMinDistanceMatrix();
+		Double[][] actualDistances = results.getProjectedPourpointMinDistanceMatrix().toArray();
 		Double[][] expectedDistances = new Double[][]{
 			new Double[]{null,-395.82822539062494,-795.773832897013,-1759.582034487193,-1656.453622900341},
 			new Double[]{395.82822539062494,null,-399.94560750638806,-1363.753809096568,-1260.625397509716},
@@ -221,7 +221,7 @@ public class SimpleDataPourpointTest {
 		}
 		
 		//max distance matrix should be the same as the min distance matrix
-		actualDistances = results.getProjectedPourpointMaxDistanceMatrix();
+		actualDistances = results.getProjectedPourpointMaxDistanceMatrix().toArray();
 		for (int i = 0; i < actualDistances.length; i ++) {
 			for (int j = 0; j < actualDistances.length; j ++) {
 				Assert.assertEquals("Maximum pourpoint distance matrix incorrect", expectedDistances[i][j],actualDistances[i][j]);
@@ -229,7 +229,7 @@ public class SimpleDataPourpointTest {
 		}
 		
 		//primary distance matrix should be the same as the min distance matrix
-		actualDistances = results.getProjectedPourpointPrimaryDistanceMatrix();
+		actualDistances = results.getProjectedPourpointPrimaryDistanceMatrix().toArray();
 		for (int i = 0; i < actualDistances.length; i ++) {
 			for (int j = 0; j < actualDistances.length; j ++) {
 				Assert.assertEquals("Primary pourpoint distance matrix incorrect", expectedDistances[i][j],actualDistances[i][j]);
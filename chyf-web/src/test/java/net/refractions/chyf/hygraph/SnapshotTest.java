@@ -0,0 +1,111 @@
+/*
+ * Copyright 2019 Government of Canada
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.refractions.chyf.hygraph;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestRule;
+import org.locationtech.jts.geom.Point;
+
+/**
+ * Tests writing and reading back a binary snapshot of the HyGraph.
+ */
+public class SnapshotTest {
+
+	@Rule
+	public TestRule rule = BasicTestSuite.SETUP_RULE;
+
+	@Test
+	public void test_snapshotRoundTrip() throws Exception {
+		HyGraph graph = BasicTestSuite.DATASTORE.getHyGraph();
+		Path file = Files.createTempFile("hygraph", ".snapshot");
+		try {
+			HyGraphSnapshot.write(graph, file, "test");
+			Assert.assertNull("Snapshot with a different checksum should be ignored", HyGraphSnapshot.read(file, "other"));
+			
+			HyGraph copy = HyGraphSnapshot.read(file, "test");
+			Assert.assertNotNull(copy);
+			HyGraphTopology t1 = graph.getTopology();
+			HyGraphTopology t2 = copy.getTopology();
+			Assert.assertEquals(t1.getNexusCount(), t2.getNexusCount());
+			Assert.assertEquals(t1.getEFlowpathCount(), t2.getEFlowpathCount());
+			Assert.assertEquals(t1.getECatchmentCount(), t2.getECatchmentCount());
+			Assert.assertArrayEquals(t1.getNexusUpFlowpaths(), t2.getNexusUpFlowpaths());
+			Assert.assertArrayEquals(t1.getCatchmentDownNexuses(), t2.getCatchmentDownNexuses());
+			for (int i = 0; i < t1.getEFlowpathCount(); i++) {
+				EFlowpath f1 = t1.eFlowpath(i);
+				EFlowpath f2 = t2.eFlowpath(i);
+				Assert.assertEquals(f1.getId(), f2.getId());
+				Assert.assertEquals(f1.getStrahlerOrder(), f2.getStrahlerOrder());
+				Assert.assertTrue(f1.getLineString().equalsExact(f2.getLineString()));
+			}
+			for (int i = 0; i < t1.getECatchmentCount(); i++) {
+				ECatchment c1 = t1.eCatchment(i);
+				ECatchment c2 = t2.eCatchment(i);
+				Assert.assertEquals(c1.getType(), c2.getType());
+				Assert.assertEquals(c1.getRank(), c2.getRank());
+				Assert.assertEquals(c1.getFlowpaths().size(), c2.getFlowpaths().size());
+				Assert.assertTrue(c1.getPolygon().equalsExact(c2.getPolygon()));
+			}
+			//check the spatial index was restored
+			for (int i = 0; i < t1.getECatchmentCount(); i += 50) {
+				Point p = t1.eCatchment(i).getPolygon().getInteriorPoint();
+				Assert.assertEquals(graph.getECatchment(p).getId(), copy.getECatchment(p).getId());
+			}
+		} finally {
+			Files.deleteIfExists(file);
+		}
+	}
+
+	@Test
+	public void test_checksumReusesUnchangedHashes() throws Exception {
+		Path dir = Files.createTempDirectory("hygraph");
+		Path data = dir.resolve("data.shp");
+		Path snapshot = dir.resolve("hygraph.snapshot");
+		Path sources = dir.resolve("hygraph.snapshot.sources");
+		try {
+			Files.write(data, "first".getBytes(StandardCharsets.UTF_8));
+			FileTime modified = Files.getLastModifiedTime(data);
+			String checksum = HyGraphSnapshot.computeChecksum(dir, snapshot);
+			Assert.assertTrue("Content hashes should be kept next to the snapshot", Files.isRegularFile(sources));
+			Assert.assertEquals(checksum, HyGraphSnapshot.computeChecksum(dir, snapshot));
+
+			//same size and modification time, the stored content hash is used
+			Files.write(data, "other".getBytes(StandardCharsets.UTF_8));
+			Files.setLastModifiedTime(data, modified);
+			Assert.assertEquals(checksum, HyGraphSnapshot.computeChecksum(dir, snapshot));
+
+			//a new modification time causes the content to be hashed again
+			Files.setLastModifiedTime(data, FileTime.fromMillis(modified.toMillis() + 60000));
+			Assert.assertNotEquals(checksum, HyGraphSnapshot.computeChecksum(dir, snapshot));
+
+			//the content hash ignores the modification time
+			Files.write(data, "first".getBytes(StandardCharsets.UTF_8));
+			Assert.assertEquals(checksum, HyGraphSnapshot.computeChecksum(dir, snapshot));
+			Assert.assertEquals(checksum, HyGraphSnapshot.computeChecksum(dir, null));
+		} finally {
+			Files.deleteIfExists(data);
+			Files.deleteIfExists(sources);
+			Files.deleteIfExists(dir);
+		}
+	}
+}
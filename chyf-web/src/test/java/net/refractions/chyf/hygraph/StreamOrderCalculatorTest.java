@@ -0,0 +1,111 @@
+/*
+ * Copyright 2019 Government of Canada
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License.
+ */
+package net.refractions.chyf.hygraph;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.GeometryFactory;
+
+import net.refractions.chyf.enumTypes.FlowpathType;
+import net.refractions.chyf.enumTypes.NexusType;
+import net.refractions.chyf.enumTypes.Rank;
+
+/**
+ * Tests the strahler, horton and hack orders computed on small networks
+ * against the orders assigned by the previous recursive calculation.
+ */
+public class StreamOrderCalculatorTest {
+
+	private static final GeometryFactory GF = new GeometryFactory();
+
+	private List<Nexus> nexuses = new ArrayList<>();
+	private List<EFlowpath> flowpaths = new ArrayList<>();
+
+	@Test
+	public void test_braidedNetwork() {
+		Nexus h1 = nexus(NexusType.HEADWATER);
+		Nexus h2 = nexus(NexusType.HEADWATER);
+		Nexus h3 = nexus(NexusType.HEADWATER);
+		Nexus a = nexus(NexusType.FLOWPATH);
+		Nexus b = nexus(NexusType.FLOWPATH);
+		Nexus t = nexus(NexusType.TERMINAL_BOUNDARY);
+		EFlowpath f1 = flowpath(h1, a, 10, Rank.PRIMARY, "River");
+		EFlowpath f2 = flowpath(h2, a, 5, Rank.PRIMARY, null);
+		//the braid; the secondary channel is not ordered
+		EFlowpath f3 = flowpath(a, b, 3, Rank.PRIMARY, "River");
+		EFlowpath f4 = flowpath(a, b, 4, Rank.SECONDARY, "River");
+		EFlowpath f5 = flowpath(h3, b, 2, Rank.PRIMARY, null);
+		EFlowpath f6 = flowpath(b, t, 1, Rank.PRIMARY, "River");
+		
+		//a separate basin draining to an isolated terminal
+		Nexus h4 = nexus(NexusType.HEADWATER);
+		Nexus i = nexus(NexusType.TERMINAL_ISOLATED);
+		EFlowpath g1 = flowpath(h4, i, 1, Rank.PRIMARY, null);
+		
+		StreamOrderCalculator.calcOrders(flowpaths, nexuses);
+		
+		assertOrders(f1, 1, 2, 1);
+		assertOrders(f2, 1, 1, 2);
+		assertOrders(f3, 2, 2, 1);
+		assertOrders(f4, null, null, null);
+		assertOrders(f5, 1, 1, 2);
+		assertOrders(f6, 2, 2, 1);
+		assertOrders(g1, 1, 1, 1001);
+	}
+
+	@Test
+	public void test_longRiver() {
+		//deep enough to overflow the stack of a recursive calculation
+		int length = 100000;
+		Nexus n = nexus(NexusType.HEADWATER);
+		for (int k = 0; k < length; k ++) {
+			Nexus next = nexus(k == length - 1 ? NexusType.TERMINAL_BOUNDARY : NexusType.FLOWPATH);
+			flowpath(n, next, 1, Rank.PRIMARY, "River");
+			n = next;
+		}
+		
+		StreamOrderCalculator.calcOrders(flowpaths, nexuses);
+		
+		for (EFlowpath f : flowpaths) {
+			assertOrders(f, 1, 1, 1);
+		}
+	}
+
+	private void assertOrders(EFlowpath f, Integer strahler, Integer horton, Integer hack) {
+		Assert.assertEquals("Strahler order of flowpath " + f.getId(), strahler, f.getStrahlerOrder());
+		Assert.assertEquals("Horton order of flowpath " + f.getId(), horton, f.getHortonOrder());
+		Assert.assertEquals("Hack order of flowpath " + f.getId(), hack, f.getHackOrder());
+	}
+
+	private Nexus nexus(NexusType type) {
+		Nexus n = new Nexus(nexuses.size() + 1, GF.createPoint(new Coordinate(nexuses.size(), 0)));
+		n.setType(type);
+		nexuses.add(n);
+		return n;
+	}
+
+	private EFlowpath flowpath(Nexus from, Nexus to, double length, Rank rank, String name) {
+		EFlowpath f = new EFlowpath(flowpaths.size() + 1, from, to, length, FlowpathType.OBSERVED, rank, name, null, null, null);
+		from.addDownFlow(f);
+		to.addUpFlow(f);
+		flowpaths.add(f);
+		return f;
+	}
+}